@@ -0,0 +1,2 @@
+# The generated handler registries are looked up by their names
+-keep class * implements si.dime.android.retainer.HandlerRegistry { <init>(); }
@@ -0,0 +1,22 @@
+package si.dime.android.retainer;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives the data of all of the keys requested with Bucket.requestAll() at once
+ */
+public interface AllDataCallback {
+    /**
+     * Called on the main thread once all of the requested keys have their data (or error),
+     * after their own observers received it
+     *
+     * @param data
+     *      the (unmodifiable) data of the keys that succeeded
+     * @param errors
+     *      the errors of the keys that failed
+     */
+    void onAllData(@NonNull Map<String, List> data, @NonNull Map<String, Throwable> errors);
+}
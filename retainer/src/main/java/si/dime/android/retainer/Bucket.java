@@ -1,27 +1,53 @@
 package si.dime.android.retainer;
 
-import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import rx.Observable;
+import rx.Scheduler;
+import rx.Scheduler.Worker;
 import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
-import rx.schedulers.Schedulers;
-import rx.subscriptions.CompositeSubscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.subscriptions.Subscriptions;
+import si.dime.android.retainer.handlers.BatchObserver;
 import si.dime.android.retainer.handlers.DataHandler;
+import si.dime.android.retainer.handlers.DeliveryMode;
+import si.dime.android.retainer.handlers.Dependencies;
+import si.dime.android.retainer.handlers.DependentTask;
+import si.dime.android.retainer.handlers.Destroyer;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.FreshnessPolicy;
 import si.dime.android.retainer.handlers.RxHandler;
+import si.dime.android.retainer.handlers.SizeEstimator;
 import si.dime.android.retainer.handlers.Task;
 import si.dime.android.retainer.handlers.TaskHandler;
+import si.dime.android.retainer.persistence.Codec;
+import si.dime.android.retainer.persistence.Snapshot;
 
 /**
  * A bucket holding data.
@@ -29,38 +55,171 @@ import si.dime.android.retainer.handlers.TaskHandler;
  * A bucket is usually bind with an Activity and it's lifecycle,
  * but there are exceptions (e.g. Application wide bucket)
  *
+ * A bucket is used on the main thread, unless enableConcurrentAccess() is called.
+ *
  * Created by dime on 18/11/15.
  */
 public class Bucket {
 
     //
-    // region Class fields
+    // region Static fields
+    //
+
+    // The number of the locks guarding the raw data and the registrations of the keys
+    private static final int LOCK_STRIPES = 16;
+
+    // Stands for the null raw data - the concurrent maps don't take nulls
+    private static final Object NULL_RAW_DATA = new Object();
+
+    // Wraps a single emission into a batch
+    private static final Func1<Object, List> TO_BATCH = new Func1<Object, List>() {
+        @Override
+        public List call(Object item) {
+            return Collections.singletonList(item);
+        }
+    };
+
+    //
+    // endregion Static fields
     //
 
-    // All of the subscriptions
-    private final CompositeSubscription compositeSubscription = new CompositeSubscription();
-    // The paired subscriptions
-    private final Map<String, Subscriber> subscriptions = new HashMap<>();
+    //
+    // region Class fields
+    //
 
-    // The <Key, Handler> map
-    private final Map<String, DataHandler> handlers = new HashMap<>();
+    // The handlers, the data and the running requests <Key, Entry>
+    private final Map<String, KeyEntry> entries = new ConcurrentHashMap<>();
 
-    // The actual data <Key, List>
-    private final Map<String, List> data = new HashMap<>();
+    // The entries of the typed keys
+    private final KeyTable keyTable = new KeyTable();
 
     // The raw data <Key, Object>
-    private final Map<String, Object> rawData = new HashMap<>();
+    private final Map<String, Object> rawData = new ConcurrentHashMap<>();
+
+    // The running computations of the raw data <Key, Computation>
+    private final ConcurrentHashMap<String, RawDataComputation> rawDataComputations = new ConcurrentHashMap<>();
+
+    // Guard the raw data and the registrations of the keys, striped by the hash of the key
+    private final Object[] keyLocks = new Object[LOCK_STRIPES];
+
+    // Where the work of the handlers without an execution class is executed
+    private ExecutionClass defaultExecutionClass;
+
+    // The scheduler the results are delivered on
+    private final Scheduler mainScheduler;
 
-    // The errors <Key, Throwable>
-    private final Map<String, Throwable> errors = new HashMap<>();
+    // Decides when the requests start
+    private final ExecutionEngine engine;
 
-    // A list of 'keys' that are in the fetching process
-    private final Set<String> running = new HashSet<>();
+    // The requests of this bucket in the engine
+    private final ExecutionEngine.Group executionGroup;
+
+    // The memory budget this bucket takes part in (or null)
+    private final MemoryBudget memoryBudget;
+
+    // The raw data entries accounted in the memory budget <Key, Entry>
+    private final Map<String, MemoryBudget.Entry> rawBudgetEntries = new ConcurrentHashMap<>();
+
+    // The snapshot file of this bucket (or null if it was never saved or restored)
+    private File snapshotFile;
+
+    // The snapshot being restored (or null)
+    private Snapshot snapshot;
+
+    // True if the bucket is shared by many owners
+    private volatile boolean shared;
+
+    // The owner that registers the handlers of a shared bucket at the moment
+    private volatile Object currentOwner;
+
+    // Informed when the owner of this bucket is destroyed, and when this bucket is destroyed
+    private final List<OwnerListener> ownerListeners = new ArrayList<>();
+
+    // The thread the requests are handled on in the concurrent mode (null if the mode is off)
+    private volatile Thread deliveryThread;
+
+    // Hands the requests made on the other threads to the delivery thread
+    private final Worker deliveryWorker;
+
+    // Returns true on the delivery thread - the results produced on it are delivered without a message hop
+    private final Func0<Boolean> onDeliveryThread = new Func0<Boolean>() {
+        @Override
+        public Boolean call() {
+            return isOnDeliveryThread();
+        }
+    };
 
     //
     // endregion Class fields
     //
 
+    //
+    // region Constructors
+    //
+
+    /**
+     * Default constructor
+     */
+    public Bucket() {
+        this((MemoryBudget) null);
+    }
+
+    /**
+     * Constructor of a bucket that takes part in the given memory budget.
+     * The buckets created by the Retainer take part in MemoryBudget.getInstance().
+     *
+     * @param memoryBudget
+     */
+    public Bucket(@Nullable MemoryBudget memoryBudget) {
+        this(ExecutionClass.IO, AndroidSchedulers.mainThread(), ExecutionEngine.getInstance(), memoryBudget);
+    }
+
+    /**
+     * Constructor with a custom main scheduler. Used by the tests, to run without a main Looper.
+     *
+     * @param defaultExecutionClass
+     * @param mainScheduler
+     */
+    Bucket(ExecutionClass defaultExecutionClass, Scheduler mainScheduler) {
+        this(defaultExecutionClass, mainScheduler, ExecutionEngine.getInstance());
+    }
+
+    /**
+     * Constructor with a custom main scheduler and execution engine. Used by the tests.
+     *
+     * @param defaultExecutionClass
+     * @param mainScheduler
+     * @param engine
+     */
+    Bucket(ExecutionClass defaultExecutionClass, Scheduler mainScheduler, ExecutionEngine engine) {
+        this(defaultExecutionClass, mainScheduler, engine, null);
+    }
+
+    /**
+     * Constructor with a custom main scheduler, execution engine and memory budget. Used by the tests.
+     *
+     * @param defaultExecutionClass
+     * @param mainScheduler
+     * @param engine
+     * @param memoryBudget
+     */
+    Bucket(ExecutionClass defaultExecutionClass, Scheduler mainScheduler, ExecutionEngine engine,
+           MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        this.defaultExecutionClass = defaultExecutionClass;
+        this.mainScheduler = mainScheduler;
+        this.engine = engine;
+        this.executionGroup = engine.newGroup();
+        this.deliveryWorker = mainScheduler.createWorker();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            keyLocks[i] = new Object();
+        }
+    }
+
+    //
+    // endregion Constructors
+    //
+
 
     //
     // region Register methods
@@ -74,13 +233,21 @@ public class Bucket {
      * @param dataHandler
      */
     public void registerRxHandler(String key, RxHandler dataHandler) {
-        // Check if the key already exists
-        if (handlers.containsKey(key)) {
-            return;
-        }
+        registerRxHandler(key, dataHandler, ExecutionEngine.PRIORITY_NORMAL);
+    }
 
-        // Just register the data handler
-        handlers.put(key, dataHandler);
+    /**
+     * Registers the given Rx handler handler with the given key and priority.
+     * Does nothing if there is a handler or a task already registered for the given key.
+     *
+     * @param key
+     * @param dataHandler
+     * @param priority
+     *      when the requests wait for a free slot, the ones with a higher priority start first
+     *      (e.g. ExecutionEngine.PRIORITY_USER_VISIBLE)
+     */
+    public void registerRxHandler(String key, RxHandler dataHandler, int priority) {
+        register(key, dataHandler, priority);
     }
 
     /**
@@ -91,13 +258,126 @@ public class Bucket {
      * @param task
      */
     public void registerTask(String key, Task task) {
-        // Check if the key already exists
-        if (handlers.containsKey(key)) {
-            return;
-        }
+        registerTask(key, task, ExecutionEngine.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Registers the given task with the given key and priority.
+     * Does nothing if there is a task or a handler already registered for the given key.
+     *
+     * @param key
+     * @param task
+     * @param priority
+     *      when the requests wait for a free slot, the ones with a higher priority start first
+     *      (e.g. ExecutionEngine.PRIORITY_USER_VISIBLE)
+     */
+    public void registerTask(String key, Task task, int priority) {
+        register(key, new TaskHandler(task), priority);
+    }
+
+    /**
+     * Registers the given task handler with the given key.
+     * Use this instead of registerTask() when the handler needs to be configured (e.g. with an execution class).
+     * Does nothing if there is a task or a handler already registered for the given key.
+     *
+     * @param key
+     * @param taskHandler
+     */
+    public void registerTaskHandler(String key, TaskHandler taskHandler) {
+        registerTaskHandler(key, taskHandler, ExecutionEngine.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Registers the given task handler with the given key and priority.
+     * Does nothing if there is a task or a handler already registered for the given key.
+     *
+     * @param key
+     * @param taskHandler
+     * @param priority
+     *      when the requests wait for a free slot, the ones with a higher priority start first
+     *      (e.g. ExecutionEngine.PRIORITY_USER_VISIBLE)
+     */
+    public void registerTaskHandler(String key, TaskHandler taskHandler, int priority) {
+        register(key, taskHandler, priority);
+    }
+
+    /**
+     * Registers the fields of the given target (an Activity or a Fragment) annotated with BucketHandler,
+     * with their keys. Replaces the registerTask() / registerRxHandler() calls of the target.
+     * The registration code is generated by the retainercompiler annotation processor.
+     *
+     * @param target
+     * @throws IllegalStateException
+     *      if the target has no annotated handlers
+     */
+    public void registerHandlers(@NonNull Object target) {
+        HandlerRegistries.register(this, target);
+    }
+
+    /**
+     * Registers the given task with the given key. The task starts once all of the given keys have their data,
+     * and gets it on its background thread (see DependentTask). The missing data of the keys is fetched in parallel,
+     * and the existing data is reused. Does nothing if there is a task or a handler already registered for the given key.
+     *
+     * @param key
+     * @param task
+     * @param dependencies
+     *      the keys the task depends on
+     * @throws IllegalArgumentException
+     *      if the key would depend on itself (directly or through the other keys)
+     */
+    public void registerDependentTask(String key, DependentTask task, String... dependencies) {
+        registerDependentTaskHandler(key, new TaskHandler(task), dependencies);
+    }
+
+    /**
+     * Registers the given handler of a dependent task with the given key (see registerDependentTask()).
+     * Use this instead of registerDependentTask() when the handler needs to be configured (e.g. with an execution class).
+     *
+     * @param key
+     * @param taskHandler
+     * @param dependencies
+     *      the keys the task depends on
+     * @throws IllegalArgumentException
+     *      if the key would depend on itself (directly or through the other keys)
+     */
+    public void registerDependentTaskHandler(String key, TaskHandler taskHandler, String... dependencies) {
+        register(key, taskHandler, ExecutionEngine.PRIORITY_NORMAL, dependencies);
+    }
+
+    /**
+     * Sets where the work of the handlers that don't declare an execution class is executed.
+     * By default that is ExecutionClass.IO.
+     *
+     * @param executionClass
+     */
+    public void setDefaultExecutionClass(@NonNull ExecutionClass executionClass) {
+        this.defaultExecutionClass = executionClass;
+    }
+
+    /**
+     * Sets the maximum number of requests of this bucket running at the same time.
+     * The rest of them wait for a free slot. By default there is no limit (other than the global one,
+     * see ExecutionEngine.setMaxInFlight()).
+     *
+     * @param maxInFlight
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        executionGroup.setMaxInFlight(maxInFlight);
+    }
 
-        // Just register it
-        handlers.put(key, new TaskHandler(task));
+    /**
+     * Lets the other threads use this bucket. Must be called on the thread the results are delivered on
+     * (the main thread), before the bucket is handed to the other threads.
+     *
+     * From then on, the handlers can be registered and the raw data can be used from any thread, directly.
+     * The requests (requestData(), removeData(), cancelRequest(), unregisterKey() ...) made on the other threads
+     * are handed to the delivery thread and handled there, in order - the handlers are always called on it.
+     */
+    public void enableConcurrentAccess() {
+        if (deliveryThread == null) {
+            deliveryThread = Thread.currentThread();
+        }
     }
     
     //
@@ -109,13 +389,38 @@ public class Bucket {
     //
 
     /**
-     * Returns true if the observable for the given key is still running.
+     * Returns true if the observable for the given key is still running
+     * (including the background refresh of stale data).
      *
      * @param key
      * @return
      */
     public boolean isRunning(String key) {
-        return running.contains(key);
+        KeyEntry entry = entries.get(key);
+        return entry != null && entry.isRunning();
+    }
+
+    /**
+     * Returns the latest progress reported by the running request of the given key (see ProgressTask),
+     * or null if the key isn't running or hasn't reported any progress yet.
+     *
+     * @param key
+     * @return
+     */
+    @Nullable
+    public Object getProgress(String key) {
+        KeyEntry entry = entries.get(key);
+        return entry != null && entry.isRunning() ? entry.progress : null;
+    }
+
+    /**
+     * Returns the number of requests of this bucket waiting for a free slot.
+     * The waiting requests are running as well (see isRunning()).
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        return executionGroup.getQueueDepth();
     }
 
 
@@ -126,7 +431,8 @@ public class Bucket {
      * @return
      */
     public boolean dataExists(String key) {
-        return data.containsKey(key) || errors.containsKey(key);
+        KeyEntry entry = entries.get(key);
+        return entry != null && entry.hasData();
     }
 
     /**
@@ -146,7 +452,45 @@ public class Bucket {
      * @param data
      */
     public void putRawData(String key, Object data) {
-        rawData.put(key, data);
+        Object old;
+        synchronized (lockOf(key)) {
+            old = rawData.put(key, data == null ? NULL_RAW_DATA : data);
+            release(rawBudgetEntries, key);
+        }
+        cancelLazy(old);
+    }
+
+    /**
+     * Puts the given raw data in this bucket and maps it with the given key (Sync).
+     * The data is accounted in the memory budget with the given size, and can be evicted.
+     *
+     * @param key
+     * @param data
+     * @param sizeBytes
+     */
+    public void putRawData(String key, Object data, long sizeBytes) {
+        Object value = data == null ? NULL_RAW_DATA : data;
+        Object old;
+        synchronized (lockOf(key)) {
+            old = rawData.put(key, value);
+            release(rawBudgetEntries, key);
+        }
+        cancelLazy(old);
+        if (memoryBudget == null) {
+            return;
+        }
+
+        // Account it outside of the lock - the budget might evict the raw data of other keys
+        MemoryBudget.Entry entry = memoryBudget.add(this, key, true, sizeBytes);
+        synchronized (lockOf(key)) {
+            if (rawData.get(key) == value && !rawBudgetEntries.containsKey(key)) {
+                rawBudgetEntries.put(key, entry);
+                return;
+            }
+        }
+
+        // The raw data was replaced or removed in the meantime
+        memoryBudget.remove(entry);
     }
 
     /**
@@ -155,22 +499,194 @@ public class Bucket {
      * @param key
      */
     public void removeRawData(String key) {
-        rawData.remove(key);
+        Object old;
+        synchronized (lockOf(key)) {
+            old = rawData.remove(key);
+            release(rawBudgetEntries, key);
+        }
+        cancelLazy(old);
+    }
+
+    /**
+     * Puts raw data that is computed by the given supplier on the given executor, when it is needed for the first time
+     * (getRawData(), or the returned future). Until then, the supplier is not run.
+     * If the supplier fails, the key is removed - put the raw data again to retry.
+     *
+     * @param key
+     * @param supplier
+     * @param executor
+     * @return
+     *      the future of the raw data
+     */
+    public <T> Future<T> putLazyRawData(String key, Func0<? extends T> supplier, Executor executor) {
+        return putLazyRawData(key, supplier, executor, false);
+    }
+
+    /**
+     * Puts raw data that is computed by the given supplier on the given executor - right away if it's eager,
+     * or when it is needed for the first time (getRawData(), or the returned future).
+     * Replacing or removing the raw data before it's computed cancels the computation.
+     * If the supplier fails, the key is removed (and the returned future fails) - put the raw data again to retry.
+     *
+     * @param key
+     * @param supplier
+     * @param executor
+     * @param eager
+     *      true - to start the computation right away
+     * @return
+     *      the future of the raw data
+     */
+    public <T> Future<T> putLazyRawData(final String key, Func0<? extends T> supplier, Executor executor,
+                                        boolean eager) {
+        LazyRawData<T> lazyRawData = new LazyRawData<T>(supplier, executor) {
+            @Override
+            protected void done() {
+                // Nothing to keep
+                if (isCancelled()) {
+                    return;
+                }
+
+                // Keep the computed raw data instead of the future (unless it was replaced in the meantime)
+                try {
+                    T computed = get();
+                    rawData.replace(key, this, computed == null ? NULL_RAW_DATA : computed);
+                } catch (InterruptedException | ExecutionException e) {
+                    // The supplier failed - drop the key (the future keeps the failure)
+                    rawData.remove(key, this);
+                }
+            }
+        };
+
+        putRawData(key, lazyRawData);
+        if (eager) {
+            lazyRawData.start();
+        }
+        return lazyRawData;
     }
 
     /**
      * Synchronously retrieves the raw data for the given key.
+     * Never waits for lazy raw data - it returns null until the lazy raw data is computed (and starts computing it).
      *
      * @param key
      */
     public Object getRawData(String key) {
-        return rawData.get(key);
+        touch(rawBudgetEntries, key);
+        Object value = rawData.get(key);
+        if (value instanceof LazyRawData) {
+            LazyRawData lazyRawData = (LazyRawData) value;
+            lazyRawData.start();
+            return lazyRawData.peek();
+        }
+        return unwrap(value);
+    }
+
+    /**
+     * Returns the raw data for the given key. If it doesn't exist, it is computed with the given supplier and put
+     * in this bucket. The raw data of a key is computed at most once at a time - the callers that need it meanwhile
+     * (on any thread) wait for the computation, and get the same value or the same failure.
+     *
+     * @param key
+     * @param supplier
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getOrComputeRawData(String key, Func0<? extends T> supplier) {
+        while (true) {
+            // Check if we already have it
+            Object value = rawData.get(key);
+            if (value != null) {
+                touch(rawBudgetEntries, key);
+                return (T) resolve(value);
+            }
+
+            // Wait for the running computation (if any)
+            RawDataComputation computation = new RawDataComputation();
+            RawDataComputation running = rawDataComputations.putIfAbsent(key, computation);
+            if (running != null) {
+                value = running.await();
+                if (value != null) {
+                    return (T) unwrap(value);
+                }
+                // It was removed - try again
+                continue;
+            }
+
+            // Compute it (unless it was put in the meantime)
+            try {
+                value = rawData.get(key);
+                if (value != null) {
+                    value = resolve(value);
+                    value = value == null ? NULL_RAW_DATA : value;
+                } else {
+                    T computed = supplier.call();
+                    putRawData(key, computed);
+                    value = computed == null ? NULL_RAW_DATA : computed;
+                }
+                computation.complete(value);
+                return (T) unwrap(value);
+            } catch (RuntimeException e) {
+                computation.fail(e);
+                throw e;
+            } catch (Error e) {
+                computation.fail(e);
+                throw e;
+            } finally {
+                rawDataComputations.remove(key, computation);
+            }
+        }
+    }
+
+    /**
+     * Computes new raw data for the given key from the current one (null if there is none), and puts it
+     * in this bucket. If the new raw data is null, the raw data is removed instead.
+     * The computations of a key don't overlap - each one gets the result of the previous one.
+     *
+     * @param key
+     * @param remapper
+     * @return
+     *      the new raw data
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T computeRawData(String key, Func1<? super T, ? extends T> remapper) {
+        while (true) {
+            // Wait for the running computation (if any)
+            RawDataComputation computation = new RawDataComputation();
+            RawDataComputation running = rawDataComputations.putIfAbsent(key, computation);
+            if (running != null) {
+                running.join();
+                continue;
+            }
+
+            // Compute it
+            try {
+                T computed = remapper.call((T) resolve(rawData.get(key)));
+                if (computed == null) {
+                    removeRawData(key);
+                } else {
+                    putRawData(key, computed);
+                }
+                computation.complete(computed);
+                return computed;
+            } catch (RuntimeException e) {
+                computation.fail(e);
+                throw e;
+            } catch (Error e) {
+                computation.fail(e);
+                throw e;
+            } finally {
+                rawDataComputations.remove(key, computation);
+            }
+        }
     }
 
 
     /**
      * Requests the data for the given key. If the data exists, the corresponding subscriber will be
      * called on the end of the event loop (within the same Thread that this method was called on).
+     * If the data is still being fetched, the subscriber joins the running request - it receives the items
+     * that arrived so far on the end of the event loop, and then the rest of them as they arrive.
+     * In the concurrent mode, a request made on another thread is handled on the delivery thread (and returns false).
      *
      * @return
      *      true - if the data already exists and the subscriber will be called on the end of this event loop
@@ -179,7 +695,7 @@ public class Bucket {
      * @param key
      */
     public boolean requestData(String key) {
-        return requestData(key, false, false);
+        return requestData(key, entries.get(key), false, false);
     }
 
     /**
@@ -190,7 +706,7 @@ public class Bucket {
      * @param key
      */
     public void requestRefreshedData(String key) {
-        requestData(key, true, false);
+        requestData(key, entries.get(key), true, false);
     }
 
 
@@ -198,6 +714,7 @@ public class Bucket {
      * Requests the data. If it already exists, the subscriber will be called from within this method.
      * If not - a new request will be made, and the subscriber will be called once the observable calls onComplete()
      * or onError().
+     * The handlers that aren't delivered on the main thread (see DeliveryMode) get the data on their own thread.
      *
      * @param key
      * @return
@@ -205,7 +722,70 @@ public class Bucket {
      *      false - otherwise
      */
     public boolean requestImmediateData(String key) {
-        return requestData(key, false, true);
+        return requestData(key, entries.get(key), false, true);
+    }
+
+    /**
+     * Requests the data of all of the given keys at once. The missing data is fetched in parallel, and the running
+     * requests are joined. The registered subscribers are called as with requestData() - the cached data of all
+     * of the keys is replayed with a single message. Once all of the keys have their data (or error),
+     * the given callback is called on the end of the event loop.
+     *
+     * @param callback
+     * @param keys
+     * @throws IllegalStateException
+     *      if any of the keys is not registered (nothing is requested then)
+     */
+    public void requestAll(@NonNull AllDataCallback callback, String... keys) {
+        requestAll(callback, keys, false);
+    }
+
+    /**
+     * Requests refreshed data of all of the given keys at once (see requestAll() and requestRefreshedData()).
+     *
+     * @param callback
+     * @param keys
+     * @throws IllegalStateException
+     *      if any of the keys is not registered (nothing is requested then)
+     */
+    public void requestAllRefreshed(@NonNull AllDataCallback callback, String... keys) {
+        requestAll(callback, keys, true);
+    }
+
+    /**
+     * Returns the future of the data for the given key, without calling the registered subscriber.
+     * Can be called from any thread. If the data already exists, the future is completed right away, on this thread.
+     * If the data is being fetched, the future waits for the running request. Otherwise a new request is made
+     * (on the delivery thread - the registered subscriber receives it as well).
+     *
+     * @param key
+     * @return
+     *      the future of the (unmodifiable) data. Canceling it doesn't cancel the request.
+     */
+    public Future<List> getAsync(String key) {
+        return getAsync(key, entries.get(key));
+    }
+
+    /**
+     * Returns the data for the given key, waiting for it for at most the given time (see getAsync()).
+     * Must not be called on the delivery thread, unless the data already exists.
+     *
+     * @param key
+     * @param timeout
+     * @param unit
+     * @return
+     *      the (unmodifiable) data
+     * @throws InterruptedException
+     * @throws ExecutionException
+     *      if the request failed
+     * @throws TimeoutException
+     *      if the data didn't arrive in time
+     * @throws IllegalStateException
+     *      if called on the delivery thread before the data exists (nothing is requested then)
+     */
+    public List get(String key, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return get(key, entries.get(key), timeout, unit);
     }
 
     //
@@ -221,24 +801,22 @@ public class Bucket {
      *
      * @param key
      */
-    public void cancelRequest(String key) {
-        // Sanity check
-        if (!isRunning(key)) {
+    public void cancelRequest(final String key) {
+        // Called on another thread - continue on the delivery thread
+        if (isOffDeliveryThread()) {
+            deliveryWorker.schedule(new Action0() {
+                @Override
+                public void call() {
+                    cancelRequest(key);
+                }
+            });
             return;
         }
 
-        // Get the subscriber
-        Subscriber subscriber = subscriptions.get(key); // Cannot be null at this moment
-
-        // Unsubscribe
-        subscriber.unsubscribe();
-
-        // Remove the subscription
-        subscriptions.remove(key);
-        compositeSubscription.remove(subscriber);
-
-        // Mark it as not-running
-        running.remove(key);
+        KeyEntry entry = entries.get(key);
+        if (entry != null) {
+            cancelRequest(entry);
+        }
     }
 
     /**
@@ -246,16 +824,24 @@ public class Bucket {
      *
      * @param key
      */
-    public void removeData(String key) {
-        // Cancel the running request
-        cancelRequest(key);
-
-        // Let the user destroy the items
-        destroyHandler(key);
+    public void removeData(final String key) {
+        // Called on another thread - continue on the delivery thread
+        if (isOffDeliveryThread()) {
+            deliveryWorker.schedule(new Action0() {
+                @Override
+                public void call() {
+                    removeData(key);
+                }
+            });
+            return;
+        }
 
-        // Remove any existing data
-        data.remove(key);
-        errors.remove(key);
+        KeyEntry entry = entries.get(key);
+        if (entry != null) {
+            removeData(entry);
+        } else {
+            forgetSnapshot(key);
+        }
     }
 
     /**
@@ -263,243 +849,1918 @@ public class Bucket {
      *
      * @param key
      */
-    public void unregisterKey(String key) {
-        // Remove the data
-        removeData(key);
+    public void unregisterKey(final String key) {
+        // Called on another thread - continue on the delivery thread
+        if (isOffDeliveryThread()) {
+            deliveryWorker.schedule(new Action0() {
+                @Override
+                public void call() {
+                    unregisterKey(key);
+                }
+            });
+            return;
+        }
 
-        // Unregister
-        handlers.remove(key);
-    }
+        KeyEntry entry = entries.get(key);
+        if (entry == null) {
+            forgetSnapshot(key);
+            return;
+        }
+
+        // Remove the data
+        removeData(entry);
+
+        // Unregister
+        cancelWaiters(entry);
+        synchronized (lockOf(key)) {
+            entry.handler = null;
+            entry.owner = null;
+            discard(entry);
+        }
+    }
 
     //
     // endregion Remove methods
     //
 
-    //
-    // region Destroy methods
-    //
+    //
+    // region Typed key methods
+    //
+
+    /**
+     * Registers the given Rx handler handler with the given key (see registerRxHandler(String, RxHandler)).
+     *
+     * @param key
+     * @param dataHandler
+     */
+    public <T> void registerRxHandler(BucketKey<T> key, RxHandler dataHandler) {
+        registerRxHandler(key, dataHandler, ExecutionEngine.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Registers the given Rx handler handler with the given key and priority
+     * (see registerRxHandler(String, RxHandler, int)).
+     *
+     * @param key
+     * @param dataHandler
+     * @param priority
+     */
+    public <T> void registerRxHandler(BucketKey<T> key, RxHandler dataHandler, int priority) {
+        keyTable.put(key, register(key.getName(), dataHandler, priority));
+    }
+
+    /**
+     * Registers the given task with the given key (see registerTask(String, Task)).
+     *
+     * @param key
+     * @param task
+     */
+    public <T> void registerTask(BucketKey<T> key, Task<T> task) {
+        registerTask(key, task, ExecutionEngine.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Registers the given task with the given key and priority (see registerTask(String, Task, int)).
+     *
+     * @param key
+     * @param task
+     * @param priority
+     */
+    public <T> void registerTask(BucketKey<T> key, Task<T> task, int priority) {
+        keyTable.put(key, register(key.getName(), new TaskHandler(task), priority));
+    }
+
+    /**
+     * Registers the given task handler with the given key (see registerTaskHandler(String, TaskHandler)).
+     *
+     * @param key
+     * @param taskHandler
+     */
+    public <T> void registerTaskHandler(BucketKey<T> key, TaskHandler taskHandler) {
+        registerTaskHandler(key, taskHandler, ExecutionEngine.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Registers the given task handler with the given key and priority
+     * (see registerTaskHandler(String, TaskHandler, int)).
+     *
+     * @param key
+     * @param taskHandler
+     * @param priority
+     */
+    public <T> void registerTaskHandler(BucketKey<T> key, TaskHandler taskHandler, int priority) {
+        keyTable.put(key, register(key.getName(), taskHandler, priority));
+    }
+
+    /**
+     * Registers the given dependent task with the given key (see registerDependentTask(String, DependentTask, String...)).
+     *
+     * @param key
+     * @param task
+     * @param dependencies
+     */
+    public <T> void registerDependentTask(BucketKey<T> key, DependentTask<T> task, BucketKey<?>... dependencies) {
+        String[] names = new String[dependencies.length];
+        for (int i = 0; i < dependencies.length; i++) {
+            names[i] = dependencies[i].getName();
+        }
+        keyTable.put(key, register(key.getName(), new TaskHandler(task), ExecutionEngine.PRIORITY_NORMAL, names));
+    }
+
+    /**
+     * Returns true if the observable for the given key is still running (see isRunning(String)).
+     *
+     * @param key
+     * @return
+     */
+    public boolean isRunning(BucketKey<?> key) {
+        KeyEntry entry = entryOf(key);
+        return entry != null && entry.isRunning();
+    }
+
+    /**
+     * Returns the latest progress of the running request of the given key (see getProgress(String)).
+     *
+     * @param key
+     * @return
+     */
+    @Nullable
+    public Object getProgress(BucketKey<?> key) {
+        KeyEntry entry = entryOf(key);
+        return entry != null && entry.isRunning() ? entry.progress : null;
+    }
+
+    /**
+     * Returns true if local data or local error already exist for the given key.
+     *
+     * @param key
+     * @return
+     */
+    public boolean dataExists(BucketKey<?> key) {
+        KeyEntry entry = entryOf(key);
+        return entry != null && entry.hasData();
+    }
+
+    /**
+     * Requests the data for the given key (see requestData(String)).
+     *
+     * @param key
+     * @return
+     *      true - if the data already exists and the subscriber will be called on the end of this event loop
+     *      false - otherwise
+     */
+    public boolean requestData(BucketKey<?> key) {
+        return requestData(key.getName(), entryOf(key), false, false);
+    }
+
+    /**
+     * Requests refreshed data for the given key (see requestRefreshedData(String)).
+     *
+     * @param key
+     */
+    public void requestRefreshedData(BucketKey<?> key) {
+        requestData(key.getName(), entryOf(key), true, false);
+    }
+
+    /**
+     * Requests the data, calling the subscriber from within this method if it already exists
+     * (see requestImmediateData(String)).
+     *
+     * @param key
+     * @return
+     *      true - if the subscriber gets called from within this method
+     *      false - otherwise
+     */
+    public boolean requestImmediateData(BucketKey<?> key) {
+        return requestData(key.getName(), entryOf(key), false, true);
+    }
+
+    /**
+     * Returns the future of the data for the given key (see getAsync(String)).
+     *
+     * @param key
+     * @return
+     *      the future of the (unmodifiable) data
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Future<List<T>> getAsync(BucketKey<T> key) {
+        return (Future) getAsync(key.getName(), entryOf(key));
+    }
+
+    /**
+     * Returns the data for the given key, waiting for it for at most the given time (see get(String, long, TimeUnit)).
+     *
+     * @param key
+     * @param timeout
+     * @param unit
+     * @return
+     *      the (unmodifiable) data
+     * @throws InterruptedException
+     * @throws ExecutionException
+     *      if the request failed
+     * @throws TimeoutException
+     *      if the data didn't arrive in time
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(BucketKey<T> key, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return get(key.getName(), entryOf(key), timeout, unit);
+    }
+
+    /**
+     * Cancels the running request for the given key (if any)
+     *
+     * @param key
+     */
+    public void cancelRequest(BucketKey<?> key) {
+        cancelRequest(key.getName());
+    }
+
+    /**
+     * Removes any existing data for the given key
+     *
+     * @param key
+     */
+    public void removeData(BucketKey<?> key) {
+        removeData(key.getName());
+    }
+
+    /**
+     * Unregisters the key, removes any existing data and cancels the current running observables (if any).
+     *
+     * @param key
+     */
+    public void unregisterKey(BucketKey<?> key) {
+        unregisterKey(key.getName());
+    }
+
+    /**
+     * Puts the given raw data in this bucket and maps it with the given key (Sync)
+     *
+     * @param key
+     * @param data
+     */
+    public <T> void putRawData(BucketKey<T> key, T data) {
+        putRawData(key.getName(), data);
+    }
+
+    /**
+     * Synchronously retrieves the raw data for the given key (see getRawData(String)).
+     *
+     * @param key
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getRawData(BucketKey<T> key) {
+        return (T) getRawData(key.getName());
+    }
+
+    /**
+     * Returns the raw data for the given key, computing it if it doesn't exist (see getOrComputeRawData(String, Func0)).
+     *
+     * @param key
+     * @param supplier
+     * @return
+     */
+    public <T> T getOrComputeRawData(BucketKey<T> key, Func0<? extends T> supplier) {
+        return getOrComputeRawData(key.getName(), supplier);
+    }
+
+    /**
+     * Returns true if raw data already exists for the given key
+     *
+     * @param key
+     * @return
+     */
+    public boolean rawDataExists(BucketKey<?> key) {
+        return rawDataExists(key.getName());
+    }
+
+    /**
+     * Removes any existing raw data for the given key
+     *
+     * @param key
+     */
+    public void removeRawData(BucketKey<?> key) {
+        removeRawData(key.getName());
+    }
+
+    //
+    // endregion Typed key methods
+    //
+
+    //
+    // region Destroy methods
+    //
+
+    /**
+     * Called when the owner of this bucket is destroyed.
+     * Here the bucket releases any references pointing to the owner
+     */
+    public void onOwnerDestroyed() {
+        // Clear all the handlers
+        for (KeyEntry entry : entries.values()) {
+            removeHandler(entry, null);
+        }
+
+        // Inform the listeners
+        for (int i = 0; i < ownerListeners.size(); i++) {
+            ownerListeners.get(i).onOwnerDestroyed(this);
+        }
+    }
+
+    /**
+     * Destroys the bucket
+     */
+    public void destroy() {
+        // Call the destroyers
+        for (KeyEntry entry : entries.values()) {
+            destroyHandler(entry);
+        }
+
+        // Clear the handlers
+        onOwnerDestroyed();
+
+        // Drop the requests handed over from the other threads
+        deliveryWorker.unsubscribe();
+
+        // Unsubscribe all running observables, drop the futures waiting for the data and leave the memory budget
+        for (KeyEntry entry : entries.values()) {
+            cancelRequest(entry);
+            cancelWaiters(entry);
+            release(entry);
+        }
+        releaseAll(rawBudgetEntries);
+
+        // The snapshot is not needed anymore
+        snapshot = null;
+        if (snapshotFile != null) {
+            Snapshot.deleteAsync(snapshotFile);
+            snapshotFile = null;
+        }
+
+        // Inform the listeners (a listener might remove itself)
+        List<OwnerListener> listeners = new ArrayList<>(ownerListeners);
+        ownerListeners.clear();
+        for (OwnerListener listener : listeners) {
+            listener.onDestroyed(this);
+        }
+    }
+
+    //
+    // endregion Destroy methods
+    //
+
+    //
+    // region Shared bucket methods
+    //
+
+    /**
+     * Makes this bucket shared by many owners. A handler registered with a key that is already registered
+     * by another owner replaces the old one, and the handlers of an owner are unregistered when the owner is gone.
+     */
+    void makeShared() {
+        shared = true;
+    }
+
+    /**
+     * Sets the owner that registers the handlers from now on
+     *
+     * @param owner
+     */
+    void setCurrentOwner(Object owner) {
+        currentOwner = owner;
+    }
+
+    /**
+     * Unregisters the handlers of the given owner, without removing their data.
+     * The running requests keep running, but don't deliver anything to the removed handlers.
+     *
+     * @param owner
+     */
+    void removeHandlersOf(Object owner) {
+        if (!shared || owner == null) {
+            return;
+        }
+
+        for (KeyEntry entry : entries.values()) {
+            removeHandler(entry, owner);
+        }
+
+        if (currentOwner == owner) {
+            currentOwner = null;
+        }
+    }
+
+    /**
+     * Adds a listener that is informed when the owner of this bucket is destroyed, and when this bucket is destroyed
+     *
+     * @param listener
+     */
+    void addOwnerListener(OwnerListener listener) {
+        if (!ownerListeners.contains(listener)) {
+            ownerListeners.add(listener);
+        }
+    }
+
+    //
+    // endregion Shared bucket methods
+    //
+
+    //
+    // region Snapshot methods
+    //
+
+    /**
+     * Writes the data of the handlers with a codec to the given snapshot file, in the background.
+     * The holders of the buckets call it when their owner saves its state.
+     *
+     * @param file
+     */
+    public void saveSnapshot(@NonNull File file) {
+        snapshotFile = file;
+
+        // Collect the finished data of the keys with a codec
+        Snapshot.Builder builder = new Snapshot.Builder();
+        for (KeyEntry entry : entries.values()) {
+            DataHandler dataHandler = entry.handler;
+            Codec codec = dataHandler == null ? null : dataHandler.getCodec();
+            int state = entry.state();
+            List items = entry.data();
+            if (codec != null && items != null && (state == KeyEntry.FETCHED || state == KeyEntry.REFRESHING)) {
+                builder.add(entry.key, entry.fetchedAt(), items, codec);
+            }
+        }
+
+        // Keep the entries of the old snapshot that are not restored yet
+        if (snapshot != null) {
+            snapshot.copyTo(builder);
+        }
+
+        if (builder.isEmpty()) {
+            Snapshot.deleteAsync(file);
+        } else {
+            Snapshot.writeAsync(file, builder);
+        }
+    }
+
+    /**
+     * Restores the data from the given snapshot file, lazily. Only the index of the snapshot is read here -
+     * the data of a key is decoded when it is requested for the first time.
+     * The holders of the buckets call it when the bucket is recreated after the process was killed.
+     *
+     * @param file
+     */
+    public void restoreSnapshot(@NonNull File file) {
+        snapshotFile = file;
+        try {
+            snapshot = Snapshot.open(file);
+        } catch (IOException e) {
+            // A snapshot is only a cache - the data will be fetched again
+            snapshot = null;
+            Snapshot.deleteAsync(file);
+        }
+    }
+
+    //
+    // endregion Snapshot methods
+    //
+
+    //
+    // region Memory budget methods
+    //
+
+    /**
+     * Called by the memory budget when the given entry is evicted.
+     * The entry is removed, as if removeData() or removeRawData() was called for its key.
+     * Can be called on any thread - the data of the handlers is removed on the delivery thread.
+     *
+     * @param entry
+     */
+    void evict(final MemoryBudget.Entry entry) {
+        if (entry.raw) {
+            // Check that the raw data was not replaced in the meantime
+            synchronized (lockOf(entry.key)) {
+                if (rawBudgetEntries.get(entry.key) == entry) {
+                    removeRawData(entry.key);
+                }
+            }
+        } else if (isOnDeliveryThread()) {
+            evictData(entry);
+        } else {
+            // The budget can be exceeded on any thread (or by another bucket) - the data is removed on the delivery thread
+            deliveryWorker.schedule(new Action0() {
+                @Override
+                public void call() {
+                    evictData(entry);
+                }
+            });
+        }
+    }
+
+    //
+    // endregion Memory budget methods
+    //
+
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Registers the given handler with the given key and priority.
+     * Does nothing if there is a task or a handler already registered for the given key.
+     *
+     * @param key
+     * @param dataHandler
+     * @param priority
+     * @return
+     *      the entry of the key
+     */
+    private KeyEntry register(String key, DataHandler dataHandler, int priority) {
+        return register(key, dataHandler, priority, null);
+    }
+
+    /**
+     * Registers the given handler with the given key and priority, depending on the given keys.
+     * Does nothing if there is a task or a handler already registered for the given key.
+     *
+     * @param key
+     * @param dataHandler
+     * @param priority
+     * @param dependencies
+     *      the keys the handler depends on (or null)
+     * @return
+     *      the entry of the key
+     */
+    private KeyEntry register(String key, DataHandler dataHandler, int priority, @Nullable String[] dependencies) {
+        // The keys must form a graph without cycles
+        String[] keys = null;
+        if (dependencies != null && dependencies.length > 0) {
+            keys = new LinkedHashSet<>(Arrays.asList(dependencies)).toArray(new String[0]);
+            checkDependencies(key, keys);
+        }
+
+        synchronized (lockOf(key)) {
+            // Check if the key already exists.
+            // In a shared bucket, the handler of another owner is replaced.
+            Object owner = currentOwner;
+            KeyEntry entry = entries.get(key);
+            if (entry == null) {
+                entry = new KeyEntry(key);
+                entries.put(key, entry);
+            } else if (entry.handler != null && (!shared || entry.owner == owner)) {
+                return entry;
+            }
+
+            // Just register it
+            entry.priority = priority;
+            entry.owner = shared ? owner : null;
+            entry.dependencies = keys;
+            entry.handler = dataHandler;
+            entry.destroyer = dataHandler.hasDestroyer() ? dataHandler.getDestroyer() : null;
+            return entry;
+        }
+    }
+
+    /**
+     * Requests the data for the given key. The result will be delivered to the registered subscriber.
+     *
+     * If the data is already fetched, the subscriber will be called immediately (from within this method) if and only if
+     * the runImmediately param is set to true. If the param is set to false, the subscriber will be called
+     * at the end of the event queue in the same Thread.
+     *
+     * If the key is still running, the handler joins the running request. The items that arrived so far are replayed
+     * (following the same runImmediately rule) and the rest of them are delivered as they arrive. No new request is made.
+     *
+     * If the handler has a freshness policy, stale data is replayed and refreshed in the background,
+     * and expired data is removed and fetched again.
+     *
+     * Otherwise - after the registered observable finishes.
+     *
+     * @param key
+     *      The key
+     * @param entry
+     *      The entry of the key (or null if the key is not registered)
+     * @param forceRefresh
+     *      If this is true - the data will be refreshed even if we have it cached
+     * @param runImmediately
+     *      If set to true & the data is already available - the subscriber will be called from within this method
+     *      If false - the subscriber will be called at the end of the event queue in the same Thread.
+     * @throws IllegalStateException
+     *      If the user request a key that doesn't exist
+     *
+     * @return
+     *      true - if the data was already emitted to the subscriber from within this method
+     *      false - if the data will be emitted sometime in the future
+     */
+    private boolean requestData(final String key, KeyEntry entry, final boolean forceRefresh,
+                                final boolean runImmediately) {
+        // Called on another thread - continue on the delivery thread
+        if (isOffDeliveryThread()) {
+            deliveryWorker.schedule(new Action0() {
+                @Override
+                public void call() {
+                    requestData(key, entries.get(key), forceRefresh, runImmediately);
+                }
+            });
+            return false;
+        }
+
+        // Get the handler
+        final DataHandler dataHandler = entry == null ? null : entry.handler;
+
+        // Check if the key is registered
+        if (dataHandler == null) {
+            throw new IllegalStateException("The key " + key + " is not registered!");
+        }
+
+        // Check if we have data for the key (if needed)
+        if (!forceRefresh) {
+            // If the key is still running - join the request instead of replaying a partial list
+            InFlightRequest request = entry.request;
+            if (request != null) {
+                // Show the progress so far right away (e.g. after a configuration change)
+                Object progress = entry.progress;
+                if (progress != null && dataHandler.hasProgress()) {
+                    dataHandler.onProgressUpdate(progress);
+                }
+
+                if (request.isDetached()) {
+                    // The handler receives the whole result once the request finishes
+                } else if (isDetached(dataHandler)) {
+                    // The same, but on the handler's own thread
+                    request.attach(dataHandler);
+                } else if (request.join(dataHandler)) {
+                    if (runImmediately) {
+                        request.replayJoin();
+                    } else {
+                        ReplayDispatcher.forCurrentLooper().scheduleJoin(request);
+                    }
+                }
+
+                // The data is not complete yet
+                return false;
+            }
+
+            // Check for success data (maybe in the snapshot), and then for error data
+            final List successData = entry.hasData() ? entry.data() : restoreData(entry, dataHandler);
+            final Throwable error = successData == null ? entry.error() : null;
+            final int freshness = freshnessOf(entry, dataHandler);
+            if (freshness == FreshnessPolicy.EXPIRED) {
+                // Too old to be shown - fetch it again
+                removeData(entry);
+            } else if (successData != null || error != null) {
+                // The data is requested - it is the last one to be evicted
+                touch(entry);
+
+                // Check when the user want us to call the subscriber
+                if (isDetached(dataHandler)) {
+                    replayDetached(dataHandler, successData, error);
+                } else if (runImmediately) {
+                    ReplayDispatcher.replay(dataHandler, successData, error);
+                } else {
+                    ReplayDispatcher.forCurrentLooper().schedule(dataHandler, successData, error);
+                }
+
+                // Refresh the stale data in the background (once)
+                if (freshness == FreshnessPolicy.STALE && !entry.isRunning()) {
+                    revalidate(entry, dataHandler);
+                }
+
+                // Inform that we already have the data
+                return true;
+            }
+        } else {
+            // The futures wait for the refreshed data
+            List<DataFuture> futures = entry.waiters;
+            entry.waiters = null;
+            removeData(entry);
+            entry.waiters = futures;
+        }
+
+        // Subscribe to the observable
+        subscribeObservable(entry, dataHandler);
+        return false;
+    }
+
+    /**
+     * Makes the initial subscription to the observable from the
+     */
+    private void subscribeObservable(final KeyEntry entry, final DataHandler dataHandler) {
+        // Initialize the data list holder
+        final List dataList = new ArrayList();
+        // Should the emissions be delivered in batches?
+        final boolean batching = dataHandler.isBatching();
+        // Does the observer receive the results off the main thread?
+        final boolean detached = isDetached(dataHandler);
+        // The running request - the requesting handler is attached to it
+        final InFlightRequest request = new InFlightRequest(dataList, dataHandler, detached);
+
+        // Create the subscriber
+        Subscriber subscriber = detached
+                ? detachedSubscriber(entry, dataHandler, dataList, request)
+                : mainSubscriber(entry, dataHandler, dataList, request);
+
+        // Mark the key as running
+        entry.startFetch(dataList, request, subscriber);
+
+        // Do the actual subscribing - once the keys it depends on have their data
+        final Subscriber theSubscriber = subscriber;
+        withDependencies(entry, dataHandler, subscriber, new Action1<Observable>() {
+            @Override
+            public void call(Observable source) {
+                execute(entry, dataHandler, progressOf(entry, dataHandler, source, theSubscriber), true, batching,
+                        deliveryModeOf(dataHandler), theSubscriber);
+            }
+        });
+    }
+
+    /**
+     * Creates the subscriber of a request delivered on the main thread
+     *
+     * @param entry
+     * @param dataHandler
+     * @param dataList
+     * @param request
+     * @return
+     */
+    private Subscriber mainSubscriber(final KeyEntry entry, final DataHandler dataHandler, final List dataList,
+                                      final InFlightRequest request) {
+        // Should the emissions be delivered in batches?
+        final boolean batching = dataHandler.isBatching();
+
+        return new Subscriber() {
+            @Override
+            public void onCompleted() {
+                // Canceled in the meantime
+                if (entry.subscriber != this) {
+                    return;
+                }
+
+                // Mark the key as completed
+                entry.completeFetch(now());
+                accountData(entry, dataHandler, dataList);
+                request.onCompleted();
+                finishWaiters(entry, dataList, null);
+
+                // Inform the attached subscriber (if any)
+                DataHandler theHandler = request.liveHandler(entry.handler);
+                if (theHandler != null && isDetached(theHandler)) {
+                    replayDetached(theHandler, dataList, null);
+                } else if (theHandler != null) {
+                    theHandler.getObserver().onCompleted();
+                }
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                // Canceled in the meantime
+                if (entry.subscriber != this) {
+                    return;
+                }
+
+                // Mark the key as completed, and save the throwable
+                entry.failFetch(e, now());
+                request.onError(e);
+                finishWaiters(entry, null, e);
+
+                // Inform the attached subscriber (if any)
+                DataHandler theHandler = request.liveHandler(entry.handler);
+                if (theHandler != null && isDetached(theHandler)) {
+                    replayDetached(theHandler, null, e);
+                } else if (theHandler != null) {
+                    theHandler.getObserver().onError(e);
+                }
+            }
+
+            @Override
+            public void onNext(Object o) {
+                // Batching handlers receive a whole list of items at once
+                if (batching) {
+                    onNextBatch((List) o);
+                    return;
+                }
+
+                // Save the data
+                dataList.add(o);
+
+                // Inform the attached subscriber (if any) - a detached one gets the whole result at the end
+                DataHandler theHandler = request.liveHandler(entry.handler);
+                if (theHandler != null && !isDetached(theHandler)) {
+                    theHandler.getObserver().onNext(o);
+                }
+            }
+
+            private void onNextBatch(List batch) {
+                // Save the data
+                dataList.addAll(batch);
+
+                // Inform the attached subscriber (if any) - a detached one gets the whole result at the end
+                DataHandler theHandler = request.liveHandler(entry.handler);
+                if (theHandler == null || isDetached(theHandler)) {
+                    return;
+                }
+                if (theHandler.isBatching()) {
+                    ((BatchObserver) theHandler.getObserver()).onNextBatch(batch);
+                } else {
+                    for (Object obj : batch) {
+                        theHandler.getObserver().onNext(obj);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates the subscriber of a request whose handler receives the results off the main thread.
+     * The observer is called on the thread of the delivery mode. The bucket records the finished result
+     * on the delivery thread, with a single message.
+     *
+     * @param entry
+     * @param dataHandler
+     * @param dataList
+     * @param request
+     * @return
+     */
+    private Subscriber detachedSubscriber(final KeyEntry entry, final DataHandler dataHandler, final List dataList,
+                                          final InFlightRequest request) {
+        return new Subscriber() {
+            // The items that arrived so far. The events are delivered in order, so no locking is needed.
+            private final List received = new ArrayList();
+
+            @Override
+            public void onCompleted() {
+                DataHandler theHandler = liveHandler();
+                if (theHandler != null) {
+                    theHandler.getObserver().onCompleted();
+                }
+                finish(null);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                DataHandler theHandler = liveHandler();
+                if (theHandler != null) {
+                    theHandler.getObserver().onError(e);
+                }
+                finish(e);
+            }
+
+            @Override
+            public void onNext(Object o) {
+                // Batching handlers receive a whole list of items at once
+                List batch = dataHandler.isBatching() ? (List) o : null;
+                if (batch != null) {
+                    received.addAll(batch);
+                } else {
+                    received.add(o);
+                }
+
+                DataHandler theHandler = liveHandler();
+                if (theHandler == null) {
+                    return;
+                }
+                if (batch != null) {
+                    ((BatchObserver) theHandler.getObserver()).onNextBatch(batch);
+                } else {
+                    theHandler.getObserver().onNext(o);
+                }
+            }
+
+            /**
+             * Returns the handler that started the request, if it is still registered (or null)
+             *
+             * @return
+             */
+            private DataHandler liveHandler() {
+                return !isUnsubscribed() && entry.handler == dataHandler ? dataHandler : null;
+            }
+
+            /**
+             * Records the result on the delivery thread
+             *
+             * @param error
+             */
+            private void finish(final Throwable error) {
+                final Subscriber self = this;
+                deliveryWorker.schedule(new Action0() {
+                    @Override
+                    public void call() {
+                        // Canceled in the meantime
+                        if (entry.subscriber != self) {
+                            return;
+                        }
+
+                        if (error == null) {
+                            dataList.addAll(received);
+                            entry.completeFetch(now());
+                            accountData(entry, dataHandler, dataList);
+                            request.onCompleted();
+                        } else {
+                            entry.failFetch(error, now());
+                            request.onError(error);
+                        }
+                        finishWaiters(entry, error == null ? dataList : null, error);
+
+                        // A handler registered in the meantime gets the whole result
+                        DataHandler theHandler = entry.handler;
+                        if (theHandler != null && theHandler != dataHandler) {
+                            replay(theHandler, error == null ? dataList : null, error);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Refreshes the stale data of the given key in the background.
+     * The stale data is kept until the fresh data arrives - then it is swapped and replayed to the registered handler.
+     * If the refresh fails, the stale data is kept (until it expires).
+     *
+     * @param entry
+     * @param dataHandler
+     */
+    private void revalidate(final KeyEntry entry, final DataHandler dataHandler) {
+        // Create the subscriber - it gets the whole fresh list at once
+        final Subscriber<List> subscriber = new Subscriber<List>() {
+            @Override
+            public void onCompleted() {
+                // Nothing to do - the list is swapped in onNext()
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                // Canceled in the meantime
+                if (entry.subscriber != this) {
+                    return;
+                }
+
+                // Keep the stale data
+                entry.endRefresh();
+                finishWaiters(entry, entry.data(), entry.error());
+            }
+
+            @Override
+            public void onNext(List freshData) {
+                // Canceled in the meantime
+                if (entry.subscriber != this) {
+                    return;
+                }
+
+                // Swap the data
+                destroyHandler(entry);
+                entry.completeRefresh(freshData, now());
+                accountData(entry, dataHandler, freshData);
+                finishWaiters(entry, freshData, null);
+
+                // Replay it to the registered handler (if any)
+                DataHandler theHandler = entry.handler;
+                if (theHandler != null) {
+                    replay(theHandler, freshData, null);
+                }
+            }
+        };
+
+        // Mark the key as running
+        entry.startRefresh(subscriber);
+
+        // Do the actual subscribing - once the keys it depends on have their data
+        withDependencies(entry, dataHandler, subscriber, new Action1<Observable>() {
+            @Override
+            public void call(Observable source) {
+                execute(entry, dataHandler, progressOf(entry, dataHandler, source, subscriber).toList(), false,
+                        false, DeliveryMode.MAIN_THREAD, subscriber);
+            }
+        });
+    }
+
+    /**
+     * Runs the given observable of the handler through the execution engine, and delivers the results
+     * to the given subscriber on the thread of the given delivery mode.
+     *
+     * @param entry
+     * @param dataHandler
+     * @param source
+     * @param mergeable
+     *      true - if the request can join the request with the same share key waiting in the lane
+     *      (if the work runs in one)
+     * @param batching
+     *      true - if the results should be delivered in batches (once per frame, on the main thread)
+     * @param deliveryMode
+     * @param subscriber
+     */
+    private void execute(KeyEntry entry, DataHandler dataHandler, Observable source, boolean mergeable,
+                         boolean batching, DeliveryMode deliveryMode, final Subscriber subscriber) {
+        ExecutionClass executionClass = dataHandler.getExecutionClass();
+        if (executionClass == null) {
+            executionClass = defaultExecutionClass;
+        }
+        final ExecutionEngine.Job job = engine.newJob(executionGroup, entry.priority);
+        final Action0 finishJob = new Action0() {
+            @Override
+            public void call() {
+                job.finish();
+            }
+        };
+
+        // Free the slot as soon as the work is done - before the results reach the main thread.
+        // Or when the request is canceled (a waiting request leaves the queue).
+        subscriber.add(Subscriptions.create(finishJob));
+        Observable observable;
+        String lane = executionClass.getLane();
+        String shareKey = dataHandler.getShareKey();
+        if (lane != null && mergeable && shareKey != null) {
+            // Join the request with the same share key that is already waiting in the lane (in any bucket)
+            observable = LaneQueue.getInstance().enqueue(lane, shareKey, source, executionClass.getScheduler());
+        } else {
+            observable = source.subscribeOn(executionClass.getScheduler());
+        }
+        observable = observable.doOnTerminate(finishJob);
+
+        if (deliveryMode != DeliveryMode.MAIN_THREAD) {
+            // Off the main thread there are no frames - every emission is a batch of its own
+            if (batching) {
+                observable = observable.map(TO_BATCH);
+            }
+            Scheduler scheduler = deliveryMode.getScheduler();
+            if (scheduler != null) {
+                observable = observable.observeOn(scheduler);
+            }
+        } else if (batching) {
+            // Group the emissions in the background and deliver them once per frame
+            observable = observable.lift(new FrameBatcher(frameScheduler()));
+        } else {
+            // Directly, if the results are produced on the delivery thread
+            observable = observable.lift(new InlineObserveOn(mainScheduler, onDeliveryThread));
+        }
+
+        // Subscribe once the engine gives us a slot
+        final Observable finalObservable = observable;
+        engine.submit(job, new Runnable() {
+            @Override
+            public void run() {
+                // The cancel might race with the start
+                if (!subscriber.isUnsubscribed()) {
+                    finalObservable.subscribe(subscriber);
+                }
+            }
+        });
+    }
+
+    /**
+     * Restores the data of the given entry from the snapshot (if any)
+     *
+     * @param entry
+     * @param dataHandler
+     * @return
+     *      the restored data, or null if there is nothing to restore
+     */
+    @SuppressWarnings("unchecked")
+    private List restoreData(KeyEntry entry, DataHandler dataHandler) {
+        String key = entry.key;
+        Codec codec = dataHandler.getCodec();
+        if (snapshot == null || codec == null || !snapshot.contains(key)) {
+            return null;
+        }
+
+        List items;
+        long fetchTime = snapshot.getFetchedAt(key);
+        try {
+            items = snapshot.read(key, codec);
+        } catch (IOException e) {
+            // Fetch it again
+            items = null;
+        }
+        forgetSnapshot(key);
+        if (items == null) {
+            return null;
+        }
+
+        // The time since the boot - a fetch time from before a reboot is unknown, so it is the oldest possible
+        if (fetchTime > now()) {
+            fetchTime = Long.MIN_VALUE / 2;
+        }
+
+        entry.restore(items, fetchTime);
+        accountData(entry, dataHandler, items);
+        return items;
+    }
+
+    /**
+     * Forgets the snapshot entry of the given key, and the whole snapshot once all of its entries are restored
+     *
+     * @param key
+     */
+    private void forgetSnapshot(String key) {
+        if (snapshot == null) {
+            return;
+        }
+
+        snapshot.remove(key);
+        if (snapshot.isEmpty()) {
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Accounts the data of the given entry in the memory budget, if there is a budget and the handler has a size estimator
+     *
+     * @param entry
+     * @param dataHandler
+     * @param items
+     */
+    @SuppressWarnings("unchecked")
+    private void accountData(KeyEntry entry, DataHandler dataHandler, List items) {
+        SizeEstimator sizeEstimator = dataHandler.getSizeEstimator();
+        if (memoryBudget == null || sizeEstimator == null) {
+            return;
+        }
+
+        // Sum the sizes of the items
+        long size = 0;
+        for (int i = 0, count = items.size(); i < count; i++) {
+            Object item = items.get(i);
+            if (item != null) {
+                size += sizeEstimator.sizeOf(item);
+            }
+        }
+
+        // Replace the previous one
+        release(entry);
+        entry.budgetEntry = memoryBudget.add(this, entry.key, false, size);
+    }
+
+    /**
+     * Marks the data of the given entry as the most recently requested one (if it is accounted)
+     *
+     * @param entry
+     */
+    private void touch(KeyEntry entry) {
+        if (memoryBudget != null && entry.budgetEntry != null) {
+            memoryBudget.touch(entry.budgetEntry);
+        }
+    }
+
+    /**
+     * Stops accounting the data of the given entry (if it is accounted)
+     *
+     * @param entry
+     */
+    private void release(KeyEntry entry) {
+        if (memoryBudget != null && entry.budgetEntry != null) {
+            memoryBudget.remove(entry.budgetEntry);
+        }
+        entry.budgetEntry = null;
+    }
+
+    /**
+     * Marks the entry of the given key as the most recently requested one (if it is accounted)
+     *
+     * @param budgetEntries
+     * @param key
+     */
+    private void touch(Map<String, MemoryBudget.Entry> budgetEntries, String key) {
+        if (memoryBudget == null) {
+            return;
+        }
+
+        MemoryBudget.Entry entry = budgetEntries.get(key);
+        if (entry != null) {
+            memoryBudget.touch(entry);
+        }
+    }
+
+    /**
+     * Stops accounting the entry of the given key (if it is accounted)
+     *
+     * @param budgetEntries
+     * @param key
+     */
+    private void release(Map<String, MemoryBudget.Entry> budgetEntries, String key) {
+        if (memoryBudget == null) {
+            return;
+        }
+
+        MemoryBudget.Entry entry = budgetEntries.remove(key);
+        if (entry != null) {
+            memoryBudget.remove(entry);
+        }
+    }
+
+    /**
+     * Stops accounting all of the given entries
+     *
+     * @param budgetEntries
+     */
+    private void releaseAll(Map<String, MemoryBudget.Entry> budgetEntries) {
+        if (memoryBudget == null) {
+            return;
+        }
+
+        for (MemoryBudget.Entry entry : budgetEntries.values()) {
+            memoryBudget.remove(entry);
+        }
+        budgetEntries.clear();
+    }
+
+    /**
+     * Returns the freshness of the data of the given entry (FreshnessPolicy.FRESH if there is no policy)
+     *
+     * @param entry
+     * @param dataHandler
+     * @return
+     */
+    private int freshnessOf(KeyEntry entry, DataHandler dataHandler) {
+        FreshnessPolicy policy = dataHandler.getFreshnessPolicy();
+        if (policy == null) {
+            return FreshnessPolicy.FRESH;
+        }
+        return entry.freshness(policy, now());
+    }
+
+    /**
+     * Returns the current time, used for the age of the data. Overridden by the tests.
+     *
+     * @return
+     */
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Returns where the frame aligned deliveries are posted. Overridden by the tests.
+     *
+     * @return
+     */
+    FrameScheduler frameScheduler() {
+        return FrameScheduler.MAIN;
+    }
+
+    /**
+     * Cancels the running request of the given entry (if any)
+     *
+     * @param entry
+     */
+    private void cancelRequest(KeyEntry entry) {
+        // Sanity check
+        if (!entry.isRunning()) {
+            return;
+        }
+
+        // Unsubscribe
+        Subscriber subscriber = entry.subscriber;
+        InFlightRequest request = entry.request; // Null for the background refresh
+        entry.cancel();
+        subscriber.unsubscribe();
+        if (request != null) {
+            request.cancel();
+        }
+        cancelWaiters(entry);
+    }
+
+    /**
+     * Removes the data of the given evicted budget entry. Called on the delivery thread.
+     *
+     * @param entry
+     */
+    private void evictData(MemoryBudget.Entry entry) {
+        // Check that the data was not replaced or removed in the meantime
+        KeyEntry keyEntry = entries.get(entry.key);
+        if (keyEntry != null && keyEntry.budgetEntry == entry) {
+            removeData(keyEntry);
+        }
+    }
+
+    /**
+     * Removes any existing data of the given entry
+     *
+     * @param entry
+     */
+    private void removeData(KeyEntry entry) {
+        // Cancel the running request
+        cancelRequest(entry);
+
+        // Let the user destroy the items
+        destroyHandler(entry);
+
+        // Remove any existing data
+        entry.clear();
+        release(entry);
+        forgetSnapshot(entry.key);
+
+        // Nothing is left of an entry without a handler
+        if (entry.handler == null && entry.waiters == null) {
+            synchronized (lockOf(entry.key)) {
+                if (entry.handler == null) {
+                    discard(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Unregisters the handler of the given entry, without removing the data.
+     * The running request keeps running, but doesn't deliver anything to the removed handler.
+     *
+     * @param entry
+     * @param owner
+     *      the owner of the handler, or null for any owner
+     */
+    private void removeHandler(KeyEntry entry, Object owner) {
+        synchronized (lockOf(entry.key)) {
+            if (entry.handler == null || (owner != null && entry.owner != owner)) {
+                return;
+            }
+            entry.handler = null;
+            entry.owner = null;
+            entry.priority = ExecutionEngine.PRIORITY_NORMAL;
+
+            // Nothing is left of an empty entry
+            if (!entry.hasData() && entry.waiters == null) {
+                discard(entry);
+            }
+        }
+
+        // The running request must not deliver anything to the old handler
+        if (entry.request != null) {
+            entry.request.detach();
+        }
+    }
+
+    /**
+     * Returns the future of the data of the given key (see getAsync())
+     *
+     * @param key
+     * @param entry
+     *      the entry of the key (or null)
+     * @return
+     */
+    private Future<List> getAsync(final String key, KeyEntry entry) {
+        final DataFuture future = new DataFuture();
+
+        // Check if we have the data, without going to the delivery thread
+        if (entry != null && entry.readInto(future, now())) {
+            return future;
+        }
+
+        // Wait for it on the delivery thread
+        deliveryWorker.schedule(new Action0() {
+            @Override
+            public void call() {
+                await(key, future);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Returns the data of the given key, waiting for it for at most the given time (see get())
+     *
+     * @param key
+     * @param entry
+     *      the entry of the key (or null)
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws TimeoutException
+     */
+    private List get(String key, KeyEntry entry, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        // The data we already have doesn't need the delivery thread
+        DataFuture future = new DataFuture();
+        if (entry != null && entry.readInto(future, now())) {
+            return future.get();
+        }
+
+        // Sanity check - waiting here would block the request. Checked before anything is requested.
+        if (isOnDeliveryThread()) {
+            throw new IllegalStateException("The data of the key " + key + " can't be awaited on the delivery thread!");
+        }
+        return getAsync(key, entry).get(timeout, unit);
+    }
 
     /**
-     * Called when the owner of this bucket is destroyed.
-     * Here the bucket releases any references pointing to the owner
+     * Returns the entry of the given typed key
+     *
+     * @param key
+     * @return
+     *      the entry, or null if the key is not registered (and has no data)
      */
-    public void onOwnerDestroyed() {
-        // Clear all the handlers
-        handlers.clear();
+    private KeyEntry entryOf(BucketKey<?> key) {
+        KeyEntry entry = keyTable.get(key);
+        if (entry == null) {
+            // Not looked up yet, or the entry was replaced - find it by the name
+            entry = entries.get(key.getName());
+            if (entry != null) {
+                keyTable.put(key, entry);
+            }
+        }
+        return entry;
     }
 
     /**
-     * Destroys the bucket
+     * Removes the given entry from this bucket. Called under the lock of its key.
+     *
+     * @param entry
      */
-    public void destroy() {
-        // Call the destroyers
-        for (String key : handlers.keySet()) {
-            destroyHandler(key);
+    private void discard(KeyEntry entry) {
+        entry.removed = true;
+        entries.remove(entry.key, entry);
+    }
+
+    /**
+     * Requests the data of all of the given keys, and calls the given callback once all of them have it
+     *
+     * @param callback
+     * @param keys
+     * @param forceRefresh
+     */
+    private void requestAll(final AllDataCallback callback, final String[] keys, final boolean forceRefresh) {
+        // Called on another thread - continue on the delivery thread
+        if (isOffDeliveryThread()) {
+            deliveryWorker.schedule(new Action0() {
+                @Override
+                public void call() {
+                    requestAll(callback, keys, forceRefresh);
+                }
+            });
+            return;
         }
 
-        // Clear the handlers
-        onOwnerDestroyed();
+        // Check if all of the keys are registered, before requesting any of them
+        final String[] uniqueKeys = new LinkedHashSet<>(Arrays.asList(keys)).toArray(new String[0]);
+        for (String key : uniqueKeys) {
+            KeyEntry entry = entries.get(key);
+            if (entry == null || entry.handler == null) {
+                throw new IllegalStateException("The key " + key + " is not registered!");
+            }
+        }
+
+        final DataFuture[] futures = new DataFuture[uniqueKeys.length];
+        for (int i = 0; i < uniqueKeys.length; i++) {
+            futures[i] = new DataFuture();
+        }
 
-        // Unsubscribe all running observables
-        subscriptions.clear();
-        compositeSubscription.unsubscribe();
+        final ReplayDispatcher dispatcher = ReplayDispatcher.forCurrentLooper();
+        Runnable onDone = new Runnable() {
+            // The keys that don't have their data yet
+            private int remaining = uniqueKeys.length;
+
+            @Override
+            public void run() {
+                if (--remaining > 0) {
+                    return;
+                }
+
+                // After the observers of the keys
+                dispatcher.scheduleAction(new Runnable() {
+                    @Override
+                    public void run() {
+                        Map<String, List> data = new HashMap<>();
+                        Map<String, Throwable> errors = new HashMap<>();
+                        for (int i = 0; i < uniqueKeys.length; i++) {
+                            try {
+                                data.put(uniqueKeys[i], futures[i].get());
+                            } catch (Exception e) {
+                                errors.put(uniqueKeys[i], e instanceof ExecutionException ? e.getCause() : e);
+                            }
+                        }
+                        callback.onAllData(data, errors);
+                    }
+                });
+            }
+        };
+
+        // Request all of the keys at once - the missing ones are fetched in parallel
+        for (int i = 0; i < uniqueKeys.length; i++) {
+            futures[i].whenDone(onDone);
+            requestData(uniqueKeys[i], entries.get(uniqueKeys[i]), forceRefresh, false);
+            await(uniqueKeys[i], futures[i]);
+        }
+
+        // Nothing to wait for
+        if (uniqueKeys.length == 0) {
+            onDone.run();
+        }
     }
 
-    //
-    // endregion Destroy methods
-    //
+    /**
+     * Makes the given future wait for the data of the given key. Starts a new request if needed.
+     * Called on the delivery thread.
+     *
+     * @param key
+     * @param future
+     */
+    private void await(String key, DataFuture future) {
+        // Canceled, or the data arrived in the meantime
+        KeyEntry entry = entries.get(key);
+        if (future.isDone() || (entry != null && entry.readInto(future, now()))) {
+            return;
+        }
 
+        // Check if the key is registered
+        DataHandler dataHandler = entry == null ? null : entry.handler;
+        if (dataHandler == null) {
+            future.fail(new IllegalStateException("The key " + key + " is not registered!"));
+            return;
+        }
 
-    //
-    // region Private methods
-    //
+        // Maybe it's in the snapshot
+        if (!entry.hasData() && restoreData(entry, dataHandler) != null && entry.readInto(future, now())) {
+            return;
+        }
+
+        // Wait for the running request, or start a new one
+        if (entry.waiters == null) {
+            entry.waiters = new ArrayList<>();
+        }
+        entry.waiters.add(future);
+        if (!entry.isRunning()) {
+            // A canceled request left only a part of the data - fetch it again
+            requestData(key, entry, entry.state() == KeyEntry.CANCELED, false);
+        }
+    }
 
     /**
-     * Requests the data for the given key. The result will be delivered to the registered subscriber.
+     * Completes the futures waiting for the data of the given entry
      *
-     * If the data is already fetched, the subscriber will be called immediately (from within this method) if and only if
-     * the runImmediately param is set to true. If the param is set to false, the subscriber will be called
-     * at the end of the event queue in the same Thread.
+     * @param entry
+     * @param list
+     * @param error
+     */
+    private void finishWaiters(KeyEntry entry, List list, Throwable error) {
+        List<DataFuture> futures = entry.waiters;
+        if (futures == null) {
+            return;
+        }
+        entry.waiters = null;
+
+        List result = list == null ? null : Collections.unmodifiableList(list);
+        for (DataFuture future : futures) {
+            if (error != null) {
+                future.fail(error);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+
+    /**
+     * Cancels the futures waiting for the data of the given entry
      *
-     * Otherwise - after the registered observable finishes.
+     * @param entry
+     */
+    private void cancelWaiters(KeyEntry entry) {
+        List<DataFuture> futures = entry.waiters;
+        if (futures == null) {
+            return;
+        }
+        entry.waiters = null;
+
+        for (DataFuture future : futures) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Returns the raw data stored in the map (null for the missing and for the null raw data)
      *
-     * @param key
-     *      The key
-     * @param forceRefresh
-     *      If this is true - the data will be refreshed even if we have it cached
-     * @param runImmediately
-     *      If set to true & the data is already available - the subscriber will be called from within this method
-     *      If false - the subscriber will be called at the end of the event queue in the same Thread.
-     * @throws IllegalStateException
-     *      If the user request a key that doesn't exist
+     * @param value
+     * @return
+     */
+    private static Object unwrap(Object value) {
+        return value == NULL_RAW_DATA ? null : value;
+    }
+
+    /**
+     * Returns the raw data stored in the map, waiting for it if it is lazy
      *
+     * @param value
      * @return
-     *      true - if the data was already emitted to the subscriber from within this method
-     *      false - if the data will be emitted sometime in the future
      */
-    private boolean requestData(String key, boolean forceRefresh, boolean runImmediately) {
-        // Get the handler
-        final DataHandler dataHandler = handlers.get(key);
+    private static Object resolve(Object value) {
+        if (value instanceof LazyRawData) {
+            return ((LazyRawData) value).await();
+        }
+        return unwrap(value);
+    }
 
-        // Check if the key is registered
-        if (dataHandler == null) {
-            throw new IllegalStateException("The key " + key + " is not registered!");
+    /**
+     * Cancels the computation of the given raw data, if it is lazy
+     *
+     * @param value
+     *      the replaced or removed raw data
+     */
+    private static void cancelLazy(Object value) {
+        if (value instanceof LazyRawData) {
+            ((LazyRawData) value).cancel(false);
         }
+    }
 
-        // Check if we have data for the key (if needed)
-        if (!forceRefresh) {
-            // Check for success data
-            final List successData = data.get(key);
-            if (successData != null) {
-                // The Runnable
-                final Runnable runnable = new Runnable() {
-                    @Override
-                    public void run() {
-                        // Emit the elements to the subscriber
-                        for (Object obj : successData) {
-                            dataHandler.getObserver().onNext(obj);
-                        }
-                        // Finish the emission
-                        dataHandler.getObserver().onCompleted();
-                    }
-                };
+    /**
+     * Returns true if the concurrent mode is on, and this is not the delivery thread
+     *
+     * @return
+     */
+    private boolean isOffDeliveryThread() {
+        Thread thread = deliveryThread;
+        return thread != null && thread != Thread.currentThread();
+    }
 
-                // Check when the user want us to call the subscriber
-                if (runImmediately) {
-                    runnable.run();
-                } else {
-                    new Handler(Looper.myLooper()).post(runnable);
-                }
+    /**
+     * Returns true if this is the delivery thread (the main thread, unless the concurrent mode is on)
+     *
+     * @return
+     */
+    private boolean isOnDeliveryThread() {
+        Thread thread = deliveryThread;
+        if (thread != null) {
+            return thread == Thread.currentThread();
+        }
+        return isMainThread();
+    }
 
-                // Inform that we already have the data
-                return true;
-            }
+    /**
+     * Returns true if this is the main thread. Overridden by the tests.
+     *
+     * @return
+     */
+    boolean isMainThread() {
+        Looper mainLooper = Looper.getMainLooper();
+        return mainLooper != null && mainLooper == Looper.myLooper();
+    }
 
-            // Check for error data
-            final Throwable error = errors.get(key);
-            if (error != null) {
-                // The runnable
-                final Runnable runnable = new Runnable() {
-                    @Override
-                    public void run() {
-                        // Emit the error
-                        dataHandler.getObserver().onError(error);
-                    }
-                };
+    /**
+     * Returns the delivery mode of the given handler
+     *
+     * @param dataHandler
+     * @return
+     */
+    private static DeliveryMode deliveryModeOf(DataHandler dataHandler) {
+        DeliveryMode deliveryMode = dataHandler.getDeliveryMode();
+        return deliveryMode != null ? deliveryMode : DeliveryMode.MAIN_THREAD;
+    }
 
-                // Check when the user want us to call the subscriber
-                if (runImmediately) {
-                    runnable.run();
-                } else {
-                    new Handler(Looper.myLooper()).post(runnable);
-                }
+    /**
+     * Returns true if the observer of the given handler receives the results off the main thread
+     *
+     * @param dataHandler
+     * @return
+     */
+    private static boolean isDetached(DataHandler dataHandler) {
+        return deliveryModeOf(dataHandler) != DeliveryMode.MAIN_THREAD;
+    }
 
-                // Inform that we already have the data
-                return true;
-            }
+    /**
+     * Replays the given data (or error) to the handler - immediately, or on its own thread if it is detached
+     *
+     * @param dataHandler
+     * @param items
+     * @param error
+     */
+    private void replay(DataHandler dataHandler, List items, Throwable error) {
+        if (isDetached(dataHandler)) {
+            replayDetached(dataHandler, items, error);
         } else {
-            removeData(key);
+            ReplayDispatcher.replay(dataHandler, items, error);
         }
-
-        // Subscribe to the observable
-        subscribeObservable(key, dataHandler);
-        return false;
     }
 
     /**
-     * Makes the initial subscription to the observable from the
+     * Replays the given data (or error) to the detached handler, on the thread of its delivery mode.
+     * The handlers delivered on the background thread get it on a thread of their execution class.
+     *
+     * @param dataHandler
+     * @param items
+     * @param error
      */
-    private void subscribeObservable(final String key, final DataHandler dataHandler) {
-        // Initialize the data list holder
-        final List dataList = new ArrayList();
-        // Register the key
-        data.put(key, dataList);
-        running.add(key);
+    private void replayDetached(final DataHandler dataHandler, final List items, final Throwable error) {
+        Scheduler scheduler = deliveryModeOf(dataHandler).getScheduler();
+        if (scheduler == null) {
+            ExecutionClass executionClass = dataHandler.getExecutionClass();
+            scheduler = (executionClass != null ? executionClass : defaultExecutionClass).getScheduler();
+        }
 
-        // Create the subscriber
-        final Subscriber subscriber = new Subscriber() {
+        final Worker worker = scheduler.createWorker();
+        worker.schedule(new Action0() {
             @Override
-            public void onCompleted() {
-                // Mark the key as completed
-                running.remove(key);
-                subscriptions.remove(key);
-                compositeSubscription.remove(this);
-
-                // Inform the actual subscriber (if any)
-                DataHandler theHandler = handlers.get(key);
-                if (theHandler != null) {
-                    theHandler.getObserver().onCompleted();
+            public void call() {
+                try {
+                    ReplayDispatcher.replay(dataHandler, items, error);
+                } finally {
+                    worker.unsubscribe();
                 }
             }
+        });
+    }
 
-            @Override
-            public void onError(Throwable e) {
-                // Mark the key as completed
-                running.remove(key);
-                subscriptions.remove(key);
-                compositeSubscription.remove(this);
+    /**
+     * Returns the lock guarding the raw data and the registration of the given key
+     *
+     * @param key
+     * @return
+     */
+    private Object lockOf(String key) {
+        int hash = key.hashCode();
+        return keyLocks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
 
-                // Save the throwable
-                data.remove(key);
-                errors.put(key, e);
+    /**
+     * Returns the observable of the given handler. If the handler has a share key,
+     * the observable joins the request with the same key running in any bucket.
+     *
+     * @param dataHandler
+     * @param dependencies
+     *      the data of the keys the handler depends on (or null)
+     * @return
+     */
+    private Observable sourceOf(DataHandler dataHandler, @Nullable Dependencies dependencies) {
+        Observable observable = dependencies == null
+                ? dataHandler.getObservable()
+                : dataHandler.getObservable(dependencies);
+        String shareKey = dataHandler.getShareKey();
+        if (shareKey == null) {
+            return observable;
+        }
+        return InFlightRegistry.getInstance().share(shareKey, observable);
+    }
 
-                // Inform the actual subscriber (if any)
-                DataHandler theHandler = handlers.get(key);
-                if (theHandler != null) {
-                    theHandler.getObserver().onError(e);
-                }
-            }
+    /**
+     * Passes the observable of the given handler to the given action, once the keys the entry depends on
+     * have their data. The missing data is fetched in parallel, and the existing data is reused.
+     * If any of the keys fails, the observable fails with the same error. Called on the delivery thread.
+     *
+     * @param entry
+     * @param dataHandler
+     * @param subscriber
+     *      the subscriber of the request - nothing is started if it is canceled in the meantime
+     * @param start
+     */
+    private void withDependencies(final KeyEntry entry, final DataHandler dataHandler, final Subscriber subscriber,
+                                  final Action1<Observable> start) {
+        final String[] keys = entry.dependencies;
+        if (keys == null) {
+            start.call(sourceOf(dataHandler, null));
+            return;
+        }
+
+        final DataFuture[] futures = new DataFuture[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            futures[i] = new DataFuture();
+        }
+
+        Runnable onDone = new Runnable() {
+            // True once the observable is started (or failed)
+            private boolean started;
 
             @Override
-            public void onNext(Object o) {
-                // Save the data
-                dataList.add(o);
+            public void run() {
+                // Already started, or canceled in the meantime
+                if (started || entry.subscriber != subscriber) {
+                    return;
+                }
 
-                // Inform the actual subscriber (if any)
-                DataHandler theHandler = handlers.get(key);
-                if (theHandler != null) {
-                    theHandler.getObserver().onNext(o);
+                // Start once all of the keys have their data, or fail as soon as one of them fails
+                Map<String, List> results = new HashMap<>();
+                for (int i = 0; i < keys.length; i++) {
+                    if (!futures[i].isDone()) {
+                        continue;
+                    }
+                    try {
+                        results.put(keys[i], futures[i].get());
+                    } catch (Exception e) {
+                        // The key failed (or its request was canceled)
+                        started = true;
+                        start.call(Observable.error(e instanceof ExecutionException ? e.getCause() : e));
+                        return;
+                    }
+                }
+                if (results.size() == keys.length) {
+                    started = true;
+                    start.call(sourceOf(dataHandler, new Dependencies(results)));
                 }
             }
         };
 
-        // Save the subscriber to the composite subscription
-        subscriptions.put(key, subscriber);
-        compositeSubscription.add(subscriber);
+        // Request all of the keys at once - the independent ones run in parallel
+        for (int i = 0; i < keys.length; i++) {
+            futures[i].whenDone(onDone);
+            await(keys[i], futures[i]);
+        }
+    }
+
+    /**
+     * Checks that the given key doesn't depend on itself, through the given keys and the keys they depend on
+     *
+     * @param key
+     * @param dependencies
+     * @throws IllegalArgumentException
+     *      if it does
+     */
+    private void checkDependencies(String key, String[] dependencies) {
+        ArrayDeque<String> pending = new ArrayDeque<>(Arrays.asList(dependencies));
+        Set<String> visited = new HashSet<>();
+        while (!pending.isEmpty()) {
+            String dependency = pending.poll();
+            if (dependency.equals(key)) {
+                throw new IllegalArgumentException("The key " + key + " depends on itself!");
+            }
+            if (!visited.add(dependency)) {
+                continue;
+            }
+
+            KeyEntry entry = entries.get(dependency);
+            String[] next = entry == null ? null : entry.dependencies;
+            if (next != null) {
+                Collections.addAll(pending, next);
+            }
+        }
+    }
+
+    /**
+     * Takes the progress updates out of the given observable of the handler (if it reports any).
+     * The latest progress is kept in the entry, and passed to the registered handler once per frame.
+     *
+     * @param entry
+     * @param dataHandler
+     * @param source
+     * @param subscriber
+     *      the subscriber of the request - the progress of a canceled request is dropped
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private Observable progressOf(final KeyEntry entry, DataHandler dataHandler, Observable source,
+                                  final Subscriber subscriber) {
+        if (!dataHandler.hasProgress()) {
+            return source;
+        }
+
+        return source.lift(new ProgressThrottle(new Action1<Object>() {
+            @Override
+            public void call(Object progress) {
+                // Canceled (or finished) in the meantime
+                if (entry.subscriber != subscriber) {
+                    return;
+                }
 
-        // Do the actual subscribing
-        dataHandler.getObservable()
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(subscriber);
+                entry.progress = progress;
+                DataHandler theHandler = entry.handler;
+                if (theHandler != null && theHandler.hasProgress()) {
+                    theHandler.onProgressUpdate(progress);
+                }
+            }
+        }, frameScheduler()));
     }
 
 
     /**
-     * Calls destroy on all data items for the given key.
+     * Calls destroy on all data items of the given entry.
      *
-     * @param key
+     * @param entry
      */
-    private void destroyHandler(@NonNull String key) {
-        // Get the handler
-        DataHandler handler = handlers.get(key);
+    private void destroyHandler(@NonNull KeyEntry entry) {
+        // Get the destroyer - the handler may be gone already (e.g. during a configuration change)
+        Destroyer destroyer = entry.destroyer;
         // Get the data
-        List items = data.get(key);
+        List items = entry.data();
 
         // Sanity check
-        if (handler == null || handler.hasDestroyer() || items == null) {
+        if (destroyer == null || items == null) {
             return;
         }
 
         // Call destroy for all items
         for (Object obj : items) {
-            handler.getDestroyer().destroy(obj);
+            destroyer.destroy(obj);
         }
         // And finally call destroyCompleted
-        handler.getDestroyer().destroyCompleted();
+        destroyer.destroyCompleted();
     }
 
     //
     // endregion Private methods
     //
+
+    /**
+     * Informed about the lifecycle of a bucket's owner
+     */
+    interface OwnerListener {
+        /**
+         * Called when the owner of the bucket is destroyed (e.g. on a configuration change)
+         *
+         * @param bucket
+         */
+        void onOwnerDestroyed(Bucket bucket);
+
+        /**
+         * Called when the bucket is destroyed
+         *
+         * @param bucket
+         */
+        void onDestroyed(Bucket bucket);
+    }
 }
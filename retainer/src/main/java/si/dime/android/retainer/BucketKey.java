@@ -0,0 +1,105 @@
+package si.dime.android.retainer;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A typed key of the data (and the raw data) in a bucket.
+ *
+ * The keys are compared by identity - declare each key once (e.g. as a constant) and use it everywhere.
+ * The hash is computed once, so a bucket finds the entry of a key without hashing and comparing strings.
+ * A key refers to the same data as its name does in the String based methods of the bucket.
+ *
+ * @param <T>
+ *      the type of the items (or of the raw data)
+ */
+public final class BucketKey<T> {
+    //
+    // region Static fields
+    //
+
+    // Spreads the consecutive hashes over the table (the golden ratio)
+    private static final int HASH_INCREMENT = 0x61c88647;
+
+    // The hash of the next key
+    private static final AtomicInteger nextHash = new AtomicInteger();
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The name of the key
+    private final String name;
+
+    // The hash of the key
+    final int hash;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Private constructor
+     *
+     * @param name
+     */
+    private BucketKey(String name) {
+        this.name = name;
+        this.hash = nextHash.getAndAdd(HASH_INCREMENT);
+    }
+
+    /**
+     * Returns a new key with the given name
+     *
+     * @param name
+     * @return
+     */
+    public static <T> BucketKey<T> of(@NonNull String name) {
+        // Sanity check
+        if (name == null) {
+            throw new IllegalArgumentException("The name of the key must not be null!");
+        }
+
+        return new BucketKey<>(name);
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Getters
+    //
+
+    /**
+     * Returns the name of the key
+     *
+     * @return
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    //
+    // endregion Getters
+    //
+}
@@ -0,0 +1,178 @@
+package si.dime.android.retainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The future of the data of a single key, for the callers that don't observe the key (e.g. on a background thread).
+ * Completed by the bucket when the data is fetched. Canceling the future doesn't cancel the request.
+ * Thread safe.
+ */
+final class DataFuture implements Future<List> {
+    //
+    // region Class fields
+    //
+
+    // Released when the future is done
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    // The data
+    private volatile List data;
+
+    // The error
+    private volatile Throwable error;
+
+    // True when the future is canceled
+    private volatile boolean canceled;
+
+    // Run once the future is done (or null)
+    private List<Runnable> listeners;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Future implementation
+    //
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, null, true);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return canceled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public List get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+    @Override
+    public List get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    //
+    // endregion Future implementation
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Completes the future with the given data
+     *
+     * @param data
+     */
+    void complete(List data) {
+        finish(data, null, false);
+    }
+
+    /**
+     * Completes the future with the given error
+     *
+     * @param error
+     */
+    void fail(Throwable error) {
+        finish(null, error, false);
+    }
+
+    /**
+     * Runs the given listener once the future is done - right away if it is done already,
+     * otherwise on the thread that completes it
+     *
+     * @param listener
+     */
+    void whenDone(Runnable listener) {
+        synchronized (this) {
+            if (!isDone()) {
+                if (listeners == null) {
+                    listeners = new ArrayList<>();
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    //
+    // endregion Package methods
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Completes the future (once)
+     *
+     * @param data
+     * @param error
+     * @param canceled
+     * @return
+     *      true - if the future was completed by this call
+     */
+    private boolean finish(List data, Throwable error, boolean canceled) {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (isDone()) {
+                return false;
+            }
+            this.data = data;
+            this.error = error;
+            this.canceled = canceled;
+            done.countDown();
+            toRun = listeners;
+            listeners = null;
+        }
+
+        // Inform the listeners
+        if (toRun != null) {
+            for (Runnable listener : toRun) {
+                listener.run();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the result of the completed future
+     *
+     * @return
+     * @throws ExecutionException
+     */
+    private List result() throws ExecutionException {
+        if (canceled) {
+            throw new CancellationException();
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return data;
+    }
+
+    //
+    // endregion Private methods
+    //
+}
@@ -0,0 +1,404 @@
+package si.dime.android.retainer;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the requests of the buckets start.
+ *
+ * The number of running requests is limited globally and per bucket. The requests over the limit wait in a queue
+ * and start by their priority - the higher the priority, the sooner the request starts. The requests with the same
+ * priority start in the order they were made. By default there are no limits, and every request starts right away.
+ *
+ * Singleton. Thread safe.
+ */
+public final class ExecutionEngine {
+    //
+    // region Static fields
+    //
+
+    // The priorities
+    public static final int PRIORITY_BACKGROUND = 0;
+    public static final int PRIORITY_NORMAL = 5;
+    public static final int PRIORITY_USER_VISIBLE = 10;
+
+    // No limit
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    // The singleton instance
+    private static final ExecutionEngine INSTANCE = new ExecutionEngine();
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The waiting jobs, ordered by their priority
+    private final TreeSet<Job> queue = new TreeSet<>();
+
+    // The global limit
+    private int maxInFlight = UNLIMITED;
+
+    // The number of running jobs
+    private int inFlight;
+
+    // The order of the submitted jobs
+    private long sequence;
+
+    // The statistics of the started jobs
+    private long startedJobs;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Package constructor. Used by the tests - everyone else uses the singleton.
+     */
+    ExecutionEngine() {}
+
+    /**
+     * Returns the engine
+     *
+     * @return
+     */
+    public static ExecutionEngine getInstance() {
+        return INSTANCE;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Public methods
+    //
+
+    /**
+     * Sets the maximum number of requests running at the same time, across all buckets.
+     *
+     * @param maxInFlight
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        // Sanity check
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("The limit must be positive!");
+        }
+
+        synchronized (this) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        // A bigger limit might let some jobs start
+        startJobs(pollStartableJobs());
+    }
+
+    /**
+     * Returns the maximum number of requests running at the same time, across all buckets.
+     *
+     * @return
+     */
+    public synchronized int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Returns the number of running requests
+     *
+     * @return
+     */
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the number of requests waiting to be started
+     *
+     * @return
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of started requests
+     *
+     * @return
+     */
+    public synchronized long getStartedCount() {
+        return startedJobs;
+    }
+
+    /**
+     * Returns the average time the started requests waited in the queue
+     *
+     * @return
+     */
+    public synchronized long getAverageWaitMillis() {
+        return startedJobs == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / startedJobs);
+    }
+
+    /**
+     * Returns the longest time a started request waited in the queue
+     *
+     * @return
+     */
+    public synchronized long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    //
+    // endregion Public methods
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Creates a new group of jobs with its own limit (one per bucket)
+     *
+     * @return
+     */
+    Group newGroup() {
+        return new Group();
+    }
+
+    /**
+     * Creates a new job. It doesn't start before it is submitted.
+     *
+     * @param group
+     * @param priority
+     * @return
+     */
+    Job newJob(@NonNull Group group, int priority) {
+        return new Job(group, priority);
+    }
+
+    /**
+     * Submits the given job. It is started right away (from within this method) if the limits allow it,
+     * otherwise it waits in the queue.
+     *
+     * @param job
+     * @param start
+     *      starts the actual work. Must not block.
+     */
+    void submit(@NonNull Job job, @NonNull Runnable start) {
+        synchronized (this) {
+            // Sanity check
+            if (job.state != Job.STATE_NEW) {
+                return;
+            }
+            job.start = start;
+            job.state = Job.STATE_QUEUED;
+            job.sequence = sequence++;
+            job.submitNanos = System.nanoTime();
+            queue.add(job);
+            job.group.queued++;
+        }
+
+        startJobs(pollStartableJobs());
+    }
+
+    //
+    // endregion Package methods
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Takes the jobs that can be started out of the queue, and marks them as running
+     *
+     * @return
+     */
+    private synchronized List<Job> pollStartableJobs() {
+        List<Job> startable = null;
+        long now = System.nanoTime();
+
+        Iterator<Job> iterator = queue.iterator();
+        while (inFlight < maxInFlight && iterator.hasNext()) {
+            Job job = iterator.next();
+
+            // The bucket of the job is at its limit - try the next one
+            if (job.group.inFlight >= job.group.maxInFlight) {
+                continue;
+            }
+
+            // Mark it as running
+            iterator.remove();
+            job.state = Job.STATE_RUNNING;
+            job.group.queued--;
+            job.group.inFlight++;
+            inFlight++;
+
+            // The statistics
+            long waitNanos = now - job.submitNanos;
+            startedJobs++;
+            totalWaitNanos += waitNanos;
+            maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+
+            if (startable == null) {
+                startable = new ArrayList<>();
+            }
+            startable.add(job);
+        }
+
+        return startable;
+    }
+
+    /**
+     * Starts the given jobs. Called outside of the lock, because the jobs run user code.
+     *
+     * @param jobs
+     */
+    private void startJobs(List<Job> jobs) {
+        if (jobs == null) {
+            return;
+        }
+        for (Job job : jobs) {
+            job.start.run();
+        }
+    }
+
+    /**
+     * Finishes the given job, and starts the next ones (if any)
+     *
+     * @param job
+     */
+    private void finish(Job job) {
+        synchronized (this) {
+            if (job.state == Job.STATE_QUEUED) {
+                // It never started
+                queue.remove(job);
+                job.group.queued--;
+            } else if (job.state == Job.STATE_RUNNING) {
+                // It frees a slot
+                job.group.inFlight--;
+                inFlight--;
+            } else if (job.state == Job.STATE_FINISHED) {
+                // Already finished
+                return;
+            }
+            job.state = Job.STATE_FINISHED;
+        }
+
+        startJobs(pollStartableJobs());
+    }
+
+    //
+    // endregion Private methods
+    //
+
+    /**
+     * A group of jobs with its own limit. Every bucket has one.
+     */
+    final class Group {
+        // The limit of the group
+        private int maxInFlight = UNLIMITED;
+
+        // The number of running jobs of the group
+        private int inFlight;
+
+        // The number of waiting jobs of the group
+        private int queued;
+
+        /**
+         * Sets the maximum number of running jobs of this group
+         *
+         * @param maxInFlight
+         */
+        void setMaxInFlight(int maxInFlight) {
+            // Sanity check
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("The limit must be positive!");
+            }
+
+            synchronized (ExecutionEngine.this) {
+                this.maxInFlight = maxInFlight;
+            }
+
+            // A bigger limit might let some jobs start
+            startJobs(pollStartableJobs());
+        }
+
+        /**
+         * Returns the number of waiting jobs of this group
+         *
+         * @return
+         */
+        int getQueueDepth() {
+            synchronized (ExecutionEngine.this) {
+                return queued;
+            }
+        }
+    }
+
+    /**
+     * A submitted job
+     */
+    final class Job implements Comparable<Job> {
+        // The states
+        static final int STATE_NEW = 0;
+        static final int STATE_QUEUED = 1;
+        static final int STATE_RUNNING = 2;
+        static final int STATE_FINISHED = 3;
+
+        // The group
+        private final Group group;
+
+        // The priority
+        private final int priority;
+
+        // Starts the work - guarded by the engine
+        private Runnable start;
+
+        // The submit order - guarded by the engine
+        private long sequence;
+
+        // The submit time - guarded by the engine
+        private long submitNanos;
+
+        // The state - guarded by the engine
+        private int state = STATE_NEW;
+
+        Job(Group group, int priority) {
+            this.group = group;
+            this.priority = priority;
+        }
+
+        /**
+         * Called when the work is done, or is not needed anymore. Frees the slot of the job, or removes it
+         * from the queue if it never started. A job finished before it is submitted never starts.
+         * Can be called more than once.
+         */
+        void finish() {
+            ExecutionEngine.this.finish(this);
+        }
+
+        @Override
+        public int compareTo(@NonNull Job other) {
+            // The higher priority first
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            // Then the older one
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
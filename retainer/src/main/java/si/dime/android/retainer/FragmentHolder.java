@@ -3,6 +3,9 @@ package si.dime.android.retainer;
 import android.app.Fragment;
 import android.os.Bundle;
 
+import java.io.File;
+import java.util.UUID;
+
 /**
  * The [support] fragment that holds the Bucket
  *
@@ -16,6 +19,12 @@ public class FragmentHolder extends Fragment {
     // The EXTRA keys
     private static final String EXTRA_RETAIN_INSTANCE = "retainInstance";
 
+    // The saved state keys
+    private static final String STATE_SNAPSHOT_ID = "si.dime.android.retainer.SnapshotId";
+
+    // The directory of the snapshots, in the cache directory
+    private static final String SNAPSHOT_DIRECTORY = "retainer";
+
     //
     // endregion Static fields
     //
@@ -30,6 +39,12 @@ public class FragmentHolder extends Fragment {
     // Are we retaining the instance?
     private boolean retainInstance;
 
+    // The id of the bucket's snapshot file. Survives the process death, in the saved state.
+    private String snapshotId;
+
+    // True if the fragment was recreated from a saved state
+    private boolean restored;
+
     //
     // endregion Class fields
     //
@@ -46,10 +61,30 @@ public class FragmentHolder extends Fragment {
         retainInstance = getArguments().getBoolean(EXTRA_RETAIN_INSTANCE);
         setRetainInstance(retainInstance);
 
+        // The snapshot of the previous instance (if any)
+        restored = savedInstanceState != null;
+        if (restored) {
+            snapshotId = savedInstanceState.getString(STATE_SNAPSHOT_ID);
+        }
+        if (snapshotId == null) {
+            snapshotId = UUID.randomUUID().toString();
+        }
+
         // Register self with the retainer
         Retainer.registerFragment(this, retainInstance);
     }
 
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+
+        // Save the data in the background, in case the process gets killed
+        outState.putString(STATE_SNAPSHOT_ID, snapshotId);
+        if (bucket != null) {
+            bucket.saveSnapshot(getSnapshotFile());
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -64,7 +99,7 @@ public class FragmentHolder extends Fragment {
 
         // If we are retaining the instance
         // we must clear any references to the previous parent
-        if (retainInstance) {
+        if (retainInstance && bucket != null) {
             bucket.onOwnerDestroyed();
         }
     }
@@ -86,6 +121,16 @@ public class FragmentHolder extends Fragment {
         return bucket;
     }
 
+    /**
+     * Returns the snapshot file of the bucket, if this fragment was recreated from a saved state
+     * (e.g. after the process was killed). Null otherwise.
+     *
+     * @return
+     */
+    public File getRestoredSnapshotFile() {
+        return restored ? getSnapshotFile() : null;
+    }
+
 
     //
     // endregion Getters
@@ -110,6 +155,23 @@ public class FragmentHolder extends Fragment {
     //
 
 
+    //
+    // region Private methods
+    //
+
+    /**
+     * Returns the snapshot file of the bucket
+     *
+     * @return
+     */
+    private File getSnapshotFile() {
+        return new File(new File(getActivity().getCacheDir(), SNAPSHOT_DIRECTORY), snapshotId);
+    }
+
+    //
+    // endregion Private methods
+    //
+
     //
     // region Static methods
     //
@@ -0,0 +1,202 @@
+package si.dime.android.retainer;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * An operator that groups the emissions of a background observable
+ * and delivers them as lists on the main thread, at most once per frame.
+ *
+ * The first item is delivered as soon as possible, so the time to the first content stays low.
+ * The terminal event is delivered right after the last batch.
+ */
+final class FrameBatcher implements Observable.Operator<List, Object> {
+    // Posts the flushes
+    private final FrameScheduler frameScheduler;
+
+    FrameBatcher(FrameScheduler frameScheduler) {
+        this.frameScheduler = frameScheduler;
+    }
+
+    @Override
+    public Subscriber<? super Object> call(Subscriber<? super List> child) {
+        return new BatchingSubscriber(child, frameScheduler);
+    }
+
+    /**
+     * The background side of the operator
+     */
+    private static final class BatchingSubscriber extends Subscriber<Object> implements Runnable, Choreographer.FrameCallback {
+        //
+        // region Class fields
+        //
+
+        // The main thread subscriber
+        private final Subscriber<? super List> child;
+
+        // Posts the flushes
+        private final FrameScheduler frameScheduler;
+
+        // Guards the fields below
+        private final Object lock = new Object();
+
+        // The items waiting for the next flush
+        private List pending = new ArrayList();
+
+        // True if a flush is already scheduled
+        private boolean scheduled;
+
+        // True once the first item has been delivered
+        private boolean firstDelivered;
+
+        // Set when the upstream completes
+        private boolean completed;
+
+        // Set when the upstream fails
+        private Throwable error;
+
+        // True when this is posted only to wait for the next frame
+        private boolean waitForFrame;
+
+        //
+        // endregion Class fields
+        //
+
+        BatchingSubscriber(Subscriber<? super List> child, FrameScheduler frameScheduler) {
+            this.child = child;
+            this.frameScheduler = frameScheduler;
+            // Stop the upstream when the child unsubscribes
+            child.add(this);
+            // And drop the flush that is still pending
+            child.add(Subscriptions.create(new Action0() {
+                @Override
+                public void call() {
+                    BatchingSubscriber.this.frameScheduler.remove(BatchingSubscriber.this, BatchingSubscriber.this);
+                }
+            }));
+        }
+
+        //
+        // region Subscriber implementation (background)
+        //
+
+        @Override
+        public void onNext(Object o) {
+            synchronized (lock) {
+                pending.add(o);
+            }
+            schedule();
+        }
+
+        @Override
+        public void onCompleted() {
+            synchronized (lock) {
+                completed = true;
+            }
+            schedule();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            synchronized (lock) {
+                error = e;
+            }
+            schedule();
+        }
+
+        //
+        // endregion Subscriber implementation (background)
+        //
+
+        //
+        // region Main thread
+        //
+
+        @Override
+        public void run() {
+            // Either wait for the next frame or flush right away
+            boolean frame;
+            synchronized (lock) {
+                frame = waitForFrame && !completed && error == null;
+            }
+
+            if (frame) {
+                frameScheduler.postFrameCallback(this);
+            } else {
+                flush();
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flush();
+        }
+
+        //
+        // endregion Main thread
+        //
+
+        //
+        // region Private methods
+        //
+
+        /**
+         * Schedules a flush on the main thread, if there isn't one already
+         */
+        private void schedule() {
+            synchronized (lock) {
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+                // The first item and the terminal events don't wait for a frame
+                waitForFrame = firstDelivered && !completed && error == null;
+            }
+            frameScheduler.post(this);
+        }
+
+        /**
+         * Delivers the pending items and the terminal event (if any) to the child. Called on the main thread.
+         */
+        private void flush() {
+            List batch;
+            boolean isCompleted;
+            Throwable throwable;
+            synchronized (lock) {
+                batch = pending;
+                pending = new ArrayList();
+                isCompleted = completed;
+                throwable = error;
+                scheduled = false;
+                firstDelivered |= !batch.isEmpty();
+            }
+
+            if (child.isUnsubscribed()) {
+                return;
+            }
+
+            // Deliver the batch
+            if (!batch.isEmpty()) {
+                child.onNext(batch);
+            }
+
+            // And the terminal event
+            if (throwable != null) {
+                child.onError(throwable);
+            } else if (isCompleted) {
+                child.onCompleted();
+            }
+        }
+
+        //
+        // endregion Private methods
+        //
+    }
+}
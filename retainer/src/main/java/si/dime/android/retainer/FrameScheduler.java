@@ -0,0 +1,73 @@
+package si.dime.android.retainer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Posts the work of the frame aligned operators to the main thread and its Choreographer.
+ *
+ * Overridden by the tests, which run the posted work by hand.
+ */
+class FrameScheduler {
+    // The instance used by the buckets
+    static final FrameScheduler MAIN = new FrameScheduler();
+
+    // The main thread handler (created on the first use)
+    private volatile Handler mainHandler;
+
+    /**
+     * Runs the action on the main thread, as soon as possible. Can be called from any thread.
+     *
+     * @param action
+     */
+    void post(Runnable action) {
+        getMainHandler().post(action);
+    }
+
+    /**
+     * Runs the callback on the next frame. Called on the main thread.
+     *
+     * @param callback
+     */
+    void postFrameCallback(Choreographer.FrameCallback callback) {
+        Choreographer.getInstance().postFrameCallback(callback);
+    }
+
+    /**
+     * Drops the pending runs of the action and the callback. Can be called from any thread.
+     *
+     * @param action
+     * @param callback
+     */
+    void remove(Runnable action, final Choreographer.FrameCallback callback) {
+        Handler handler = getMainHandler();
+        handler.removeCallbacks(action);
+
+        // The Choreographer is per thread
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Choreographer.getInstance().removeFrameCallback(callback);
+        } else {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Choreographer.getInstance().removeFrameCallback(callback);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the main thread handler
+     *
+     * @return
+     */
+    private Handler getMainHandler() {
+        Handler handler = mainHandler;
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+            mainHandler = handler;
+        }
+        return handler;
+    }
+}
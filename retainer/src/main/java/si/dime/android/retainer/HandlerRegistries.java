@@ -0,0 +1,129 @@
+package si.dime.android.retainer;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the generated registries of the classes with fields annotated with BucketHandler.
+ *
+ * The registry of a class is looked up by its name ([TheClass]_HandlerRegistry) once per class - after that,
+ * e.g. when an activity is recreated on a configuration change, the registration is a direct call.
+ */
+final class HandlerRegistries {
+    //
+    // region Static fields
+    //
+
+    // The suffix of the generated classes
+    static final String SUFFIX = "_HandlerRegistry";
+
+    // The registries of the classes, from the class itself up to its super classes <Class, Registries>
+    private static final Map<Class<?>, HandlerRegistry[]> registries = new ConcurrentHashMap<>();
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Private constructor
+     */
+    private HandlerRegistries() {}
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Registers the annotated handlers of the given target (and of its super classes) in the given bucket
+     *
+     * @param bucket
+     * @param target
+     * @throws IllegalStateException
+     *      if the target has no annotated handlers
+     */
+    @SuppressWarnings("unchecked")
+    static void register(@NonNull Bucket bucket, @NonNull Object target) {
+        HandlerRegistry[] classRegistries = registriesOf(target.getClass());
+        if (classRegistries.length == 0) {
+            throw new IllegalStateException("No handler registry was generated for "
+                    + target.getClass().getName() + " - is the retainercompiler annotation processor set up?");
+        }
+
+        for (HandlerRegistry registry : classRegistries) {
+            registry.register(bucket, target);
+        }
+    }
+
+    //
+    // endregion Package methods
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Returns the registries of the given class and of its super classes
+     *
+     * @param type
+     * @return
+     */
+    private static HandlerRegistry[] registriesOf(Class<?> type) {
+        HandlerRegistry[] classRegistries = registries.get(type);
+        if (classRegistries != null) {
+            return classRegistries;
+        }
+
+        // The registries of the super classes first, like the fields are initialized
+        List<HandlerRegistry> found = new ArrayList<>();
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            String name = current.getName();
+            if (name.startsWith("android.") || name.startsWith("java.")) {
+                break;
+            }
+
+            HandlerRegistry registry = newRegistry(current);
+            if (registry != null) {
+                found.add(0, registry);
+            }
+        }
+
+        classRegistries = found.toArray(new HandlerRegistry[found.size()]);
+        registries.put(type, classRegistries);
+        return classRegistries;
+    }
+
+    /**
+     * Creates the generated registry of the given class
+     *
+     * @param type
+     * @return
+     *      the registry, or null if the class has no annotated handlers
+     */
+    private static HandlerRegistry newRegistry(Class<?> type) {
+        try {
+            Class<?> registryClass = Class.forName(type.getName() + SUFFIX, true, type.getClassLoader());
+            return (HandlerRegistry) registryClass.newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("Could not create the handler registry of " + type.getName(), e);
+        }
+    }
+
+    //
+    // endregion Private methods
+    //
+}
@@ -0,0 +1,20 @@
+package si.dime.android.retainer;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Registers the handlers of the fields annotated with BucketHandler, in a bucket.
+ * The implementations are generated by the retainercompiler annotation processor - don't implement it by hand.
+ *
+ * @param <T>
+ *      the class with the annotated fields
+ */
+public interface HandlerRegistry<T> {
+    /**
+     * Registers the handlers of the given target in the given bucket
+     *
+     * @param bucket
+     * @param target
+     */
+    void register(@NonNull Bucket bucket, @NonNull T target);
+}
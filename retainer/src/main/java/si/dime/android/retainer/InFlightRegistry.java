@@ -0,0 +1,150 @@
+package si.dime.android.retainer;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func0;
+
+/**
+ * The requests that are running right now, across all of the buckets, by their share key.
+ *
+ * A bucket subscribing to the observable of a handler with a share key joins the running request with the same key
+ * (if any) - it receives the items emitted so far and the rest of them, without running the source again.
+ * Every bucket still keeps its own copy of the list. The source is unsubscribed when all of the buckets cancel
+ * their requests. Once the request terminates, the next subscription runs the source again.
+ *
+ * Thread safe.
+ */
+final class InFlightRegistry {
+    //
+    // region Static fields
+    //
+
+    // The singleton instance
+    private static final InFlightRegistry INSTANCE = new InFlightRegistry();
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The running requests <Share key, Shared observable>
+    private final Map<String, Observable<Object>> requests = new HashMap<>();
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Private constructor
+     */
+    private InFlightRegistry() {}
+
+    /**
+     * Returns the registry shared by all of the buckets
+     *
+     * @return
+     */
+    static InFlightRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Returns an observable that, when subscribed, joins the running request with the given share key,
+     * or starts a new one from the given source
+     *
+     * @param shareKey
+     * @param source
+     * @return
+     */
+    @NonNull
+    Observable<Object> share(@NonNull final String shareKey, @NonNull final Observable<?> source) {
+        return Observable.defer(new Func0<Observable<Object>>() {
+            @Override
+            public Observable<Object> call() {
+                synchronized (requests) {
+                    Observable<Object> request = requests.get(shareKey);
+                    if (request == null) {
+                        request = newRequest(shareKey, source);
+                        requests.put(shareKey, request);
+                    }
+                    return request;
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of the running shared requests
+     *
+     * @return
+     */
+    int size() {
+        synchronized (requests) {
+            return requests.size();
+        }
+    }
+
+    //
+    // endregion Package methods
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Creates a new shared request. It's removed from the registry when it terminates,
+     * or when all of its subscribers unsubscribe.
+     *
+     * @param shareKey
+     * @param source
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private Observable<Object> newRequest(final String shareKey, Observable<?> source) {
+        final Observable[] request = new Observable[1];
+        final Action0 remove = new Action0() {
+            @Override
+            public void call() {
+                synchronized (requests) {
+                    // A newer request might be registered already
+                    if (requests.get(shareKey) == request[0]) {
+                        requests.remove(shareKey);
+                    }
+                }
+            }
+        };
+
+        // Replay the items emitted so far to the buckets that join later
+        request[0] = ((Observable<Object>) source)
+                .doOnTerminate(remove)
+                .doOnUnsubscribe(remove)
+                .replay()
+                .refCount();
+        return request[0];
+    }
+
+    //
+    // endregion Private methods
+    //
+}
@@ -0,0 +1,194 @@
+package si.dime.android.retainer;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+import si.dime.android.retainer.handlers.DataHandler;
+
+/**
+ * A running request of a single key.
+ *
+ * Holds the items that arrived so far and the handler that is attached to the request.
+ * Only the attached handler receives the live items. A handler that requests the key while it is running
+ * joins the request - it gets the items that arrived so far, and then the live ones.
+ * Always accessed from the thread the results are delivered on.
+ */
+final class InFlightRequest {
+    //
+    // region Class fields
+    //
+
+    // The items that arrived so far
+    private final List dataList;
+
+    // The handler attached to the request
+    private DataHandler attachedHandler;
+
+    // True while the attached handler waits for the replay of the items that arrived so far
+    private boolean joinPending;
+
+    // True when the observable completes
+    private boolean completed;
+
+    // The error of the observable
+    private Throwable error;
+
+    // True when the request is canceled
+    private boolean canceled;
+
+    // True if the observer receives the live items off the main thread (see DeliveryMode)
+    private final boolean detached;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Default constructor
+     *
+     * @param dataList
+     * @param dataHandler
+     *      the handler that started the request
+     * @param detached
+     *      true - if the observer receives the live items off the main thread
+     */
+    InFlightRequest(@NonNull List dataList, @NonNull DataHandler dataHandler, boolean detached) {
+        this.dataList = dataList;
+        this.attachedHandler = dataHandler;
+        this.detached = detached;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Attaches the given handler to this request.
+     *
+     * @param dataHandler
+     * @return
+     *      true - if a replay of the items that arrived so far must be scheduled
+     *      false - if the handler is already attached or a replay is already scheduled
+     */
+    boolean join(@NonNull DataHandler dataHandler) {
+        // Already receiving the live items
+        if (dataHandler == attachedHandler && !joinPending) {
+            return false;
+        }
+
+        // The replay goes to the handler that is attached when it runs
+        attachedHandler = dataHandler;
+        if (joinPending) {
+            return false;
+        }
+        joinPending = true;
+        return true;
+    }
+
+    /**
+     * Attaches the given handler to this request, without a replay of the items that arrived so far.
+     * Used for the handlers that receive the whole result once the request finishes.
+     *
+     * @param dataHandler
+     */
+    void attach(@NonNull DataHandler dataHandler) {
+        attachedHandler = dataHandler;
+        joinPending = false;
+    }
+
+    /**
+     * Returns true if the observer receives the live items off the main thread
+     *
+     * @return
+     */
+    boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * Replays the items that arrived so far to the attached handler.
+     * If the request is already finished - replays the whole result.
+     */
+    void replayJoin() {
+        // Sanity check
+        if (!joinPending || canceled) {
+            return;
+        }
+        joinPending = false;
+
+        // The handler might be gone
+        DataHandler dataHandler = attachedHandler;
+        if (dataHandler == null) {
+            return;
+        }
+
+        if (error != null) {
+            ReplayDispatcher.replay(dataHandler, null, error);
+        } else if (completed) {
+            ReplayDispatcher.replay(dataHandler, dataList, null);
+        } else {
+            ReplayDispatcher.replayItems(dataHandler, dataList);
+        }
+    }
+
+    /**
+     * Returns the handler that should receive the live events,
+     * or null if the current handler isn't attached or is still waiting for its replay.
+     *
+     * @param currentHandler
+     *      the handler currently registered with the key
+     * @return
+     */
+    @Nullable
+    DataHandler liveHandler(@Nullable DataHandler currentHandler) {
+        if (currentHandler == null || joinPending || currentHandler != attachedHandler) {
+            return null;
+        }
+        return currentHandler;
+    }
+
+    /**
+     * Detaches the handler, e.g. because its owner is being destroyed
+     */
+    void detach() {
+        attachedHandler = null;
+    }
+
+    /**
+     * Called when the observable completes
+     */
+    void onCompleted() {
+        completed = true;
+    }
+
+    /**
+     * Called when the observable fails
+     *
+     * @param e
+     */
+    void onError(Throwable e) {
+        error = e;
+    }
+
+    /**
+     * Called when the request is canceled
+     */
+    void cancel() {
+        canceled = true;
+        attachedHandler = null;
+    }
+
+    //
+    // endregion Package methods
+    //
+}
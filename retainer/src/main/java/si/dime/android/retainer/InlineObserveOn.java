@@ -0,0 +1,197 @@
+package si.dime.android.retainer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Func0;
+
+/**
+ * Like observeOn(), but the events produced on the target thread are delivered directly - without a message hop,
+ * as long as no earlier event is still waiting to be delivered. The rest are delivered on the given scheduler, in order.
+ */
+final class InlineObserveOn implements Observable.Operator<Object, Object> {
+    //
+    // region Class fields
+    //
+
+    // The scheduler of the target thread
+    private final Scheduler scheduler;
+
+    // Returns true on the target thread
+    private final Func0<Boolean> onTargetThread;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Default constructor
+     *
+     * @param scheduler
+     * @param onTargetThread
+     */
+    InlineObserveOn(Scheduler scheduler, Func0<Boolean> onTargetThread) {
+        this.scheduler = scheduler;
+        this.onTargetThread = onTargetThread;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    @Override
+    public Subscriber<? super Object> call(Subscriber<? super Object> child) {
+        return new InlineSubscriber(child, scheduler.createWorker(), onTargetThread);
+    }
+
+    /**
+     * The producer side of the operator
+     */
+    private static final class InlineSubscriber extends Subscriber<Object> implements Action0 {
+        //
+        // region Class fields
+        //
+
+        // Stands for the completion in the queue
+        private static final Object COMPLETED = new Object();
+
+        // The subscriber on the target thread
+        private final Subscriber<? super Object> child;
+
+        // Runs the drain on the target thread
+        private final Scheduler.Worker worker;
+
+        // Returns true on the target thread
+        private final Func0<Boolean> onTargetThread;
+
+        // The events waiting to be delivered (the errors are wrapped)
+        private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+
+        // The number of the scheduled drains that haven't finished yet
+        private final AtomicInteger pending = new AtomicInteger();
+
+        //
+        // endregion Class fields
+        //
+
+        InlineSubscriber(Subscriber<? super Object> child, Scheduler.Worker worker, Func0<Boolean> onTargetThread) {
+            this.child = child;
+            this.worker = worker;
+            this.onTargetThread = onTargetThread;
+            // Stop the upstream and the drains when the child unsubscribes
+            child.add(this);
+            child.add(worker);
+        }
+
+        //
+        // region Subscriber implementation (producer)
+        //
+
+        @Override
+        public void onNext(Object o) {
+            if (canDeliverInline()) {
+                child.onNext(o);
+            } else {
+                enqueue(o);
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            if (canDeliverInline()) {
+                child.onCompleted();
+            } else {
+                enqueue(COMPLETED);
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            if (canDeliverInline()) {
+                child.onError(e);
+            } else {
+                enqueue(new Failure(e));
+            }
+        }
+
+        //
+        // endregion Subscriber implementation (producer)
+        //
+
+        //
+        // region Drain (target thread)
+        //
+
+        @Override
+        public void call() {
+            do {
+                Object event = queue.poll();
+                if (event == null || child.isUnsubscribed()) {
+                    continue;
+                }
+                if (event == COMPLETED) {
+                    child.onCompleted();
+                } else if (event instanceof Failure) {
+                    child.onError(((Failure) event).error);
+                } else {
+                    child.onNext(event);
+                }
+            } while (pending.decrementAndGet() > 0);
+        }
+
+        //
+        // endregion Drain (target thread)
+        //
+
+        //
+        // region Private methods
+        //
+
+        /**
+         * Returns true if the event can be delivered on this thread, right away.
+         * The drain only runs on the target thread too, so nothing can be delivered in between.
+         *
+         * @return
+         */
+        private boolean canDeliverInline() {
+            return pending.get() == 0 && onTargetThread.call();
+        }
+
+        /**
+         * Queues the given event and schedules its delivery (unless a drain is already scheduled)
+         *
+         * @param event
+         */
+        private void enqueue(Object event) {
+            queue.offer(event);
+            if (pending.getAndIncrement() == 0) {
+                worker.schedule(this);
+            }
+        }
+
+        //
+        // endregion Private methods
+        //
+    }
+
+    /**
+     * Wraps an error in the queue
+     */
+    private static final class Failure {
+        // The error
+        final Throwable error;
+
+        Failure(Throwable error) {
+            this.error = error;
+        }
+    }
+}
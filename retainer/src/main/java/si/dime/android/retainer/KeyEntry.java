@@ -0,0 +1,421 @@
+package si.dime.android.retainer;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+import rx.Subscriber;
+import si.dime.android.retainer.handlers.DataHandler;
+import si.dime.android.retainer.handlers.Destroyer;
+import si.dime.android.retainer.handlers.FreshnessPolicy;
+
+/**
+ * Everything a bucket holds for a single key - the handler, the data (or the error) and the running request.
+ *
+ * The data moves through an explicit state machine:
+ *
+ *      EMPTY ---startFetch()---> FETCHING ---completeFetch() / failFetch()---> FETCHED
+ *      FETCHING ---cancel()---> CANCELED (the items that arrived so far are kept)
+ *      FETCHED ---startRefresh()---> REFRESHING ---completeRefresh() / endRefresh() / cancel()---> FETCHED
+ *      EMPTY ---restore()---> FETCHED
+ *      any state, but FETCHING and REFRESHING ---clear()---> EMPTY
+ *
+ * The transitions are made on the thread the results are delivered on. The handler, the data and its state
+ * can be read from any thread (see readInto()).
+ */
+final class KeyEntry {
+    //
+    // region Static fields
+    //
+
+    // The states of the data
+    static final int EMPTY = 0;
+    static final int FETCHING = 1;
+    static final int FETCHED = 2;
+    static final int REFRESHING = 3;
+    static final int CANCELED = 4;
+
+    // The fetch time of the data that was never fetched
+    static final long NEVER = Long.MIN_VALUE;
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The key
+    final String key;
+
+    // The registered handler (or null)
+    volatile DataHandler handler;
+
+    // The destroyer of the last registered handler (or null). Kept when the handler is unregistered.
+    volatile Destroyer destroyer;
+
+    // The priority of the requests
+    volatile int priority = ExecutionEngine.PRIORITY_NORMAL;
+
+    // The owner that registered the handler in a shared bucket (or null)
+    volatile Object owner;
+
+    // The keys the handler depends on (or null)
+    volatile String[] dependencies;
+
+    // True once the entry is removed from the bucket
+    volatile boolean removed;
+
+    // The state of the data
+    private volatile int state = EMPTY;
+
+    // Incremented before and after every transition - odd while a transition is in progress
+    private volatile int version;
+
+    // The data - complete in the FETCHED and REFRESHING states, partial in the FETCHING and CANCELED states
+    private volatile List data;
+
+    // The error of the fetch (FETCHED state only)
+    private volatile Throwable error;
+
+    // When the data (or the error) was fetched (elapsed realtime)
+    private volatile long fetchedAt = NEVER;
+
+    // The subscriber of the running request (FETCHING and REFRESHING states only)
+    Subscriber subscriber;
+
+    // The running request the handlers can join (FETCHING state only)
+    InFlightRequest request;
+
+    // The futures waiting for the data (or null)
+    List<DataFuture> waiters;
+
+    // The latest progress of the running request (or null). Only valid while the request is running.
+    volatile Object progress;
+
+    // The entry accounted in the memory budget (or null)
+    MemoryBudget.Entry budgetEntry;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Default constructor
+     *
+     * @param key
+     */
+    KeyEntry(@NonNull String key) {
+        this.key = key;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Getters
+    //
+
+    /**
+     * Returns the state of the data
+     *
+     * @return
+     */
+    int state() {
+        return state;
+    }
+
+    /**
+     * Returns the data (or null)
+     *
+     * @return
+     */
+    List data() {
+        return data;
+    }
+
+    /**
+     * Returns the error (or null)
+     *
+     * @return
+     */
+    Throwable error() {
+        return error;
+    }
+
+    /**
+     * Returns when the data (or the error) was fetched
+     *
+     * @return
+     *      the elapsed realtime, or NEVER
+     */
+    long fetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * Returns true if there is any data (or error) - even a partial one
+     *
+     * @return
+     */
+    boolean hasData() {
+        return state != EMPTY;
+    }
+
+    /**
+     * Returns true if a request is running (including the background refresh)
+     *
+     * @return
+     */
+    boolean isRunning() {
+        int state = this.state;
+        return state == FETCHING || state == REFRESHING;
+    }
+
+    /**
+     * Returns the freshness of the data, by the given policy
+     *
+     * @param policy
+     * @param now
+     *      the current time
+     * @return
+     *      FreshnessPolicy.FRESH if the data was never fetched
+     */
+    int freshness(@NonNull FreshnessPolicy policy, long now) {
+        return freshnessOf(policy, fetchedAt, now);
+    }
+
+    /**
+     * Completes the given future with the complete data (or error), if there is any. Can be called from any thread.
+     *
+     * @param future
+     * @param now
+     *      the current time, for the freshness of the data
+     * @return
+     *      true - if the future was completed
+     */
+    boolean readInto(DataFuture future, long now) {
+        while (true) {
+            int version = this.version;
+            if ((version & 1) != 0) {
+                // A transition is in progress
+                Thread.yield();
+                continue;
+            }
+
+            int state = this.state;
+            List data = this.data;
+            Throwable error = this.error;
+            long fetchedAt = this.fetchedAt;
+            DataHandler handler = this.handler;
+            if (version != this.version) {
+                continue;
+            }
+
+            // The data must not be in the middle of the fetching, nor too old to be returned
+            if (state != FETCHED && state != REFRESHING) {
+                return false;
+            }
+            FreshnessPolicy policy = handler == null ? null : handler.getFreshnessPolicy();
+            if (policy != null && freshnessOf(policy, fetchedAt, now) == FreshnessPolicy.EXPIRED) {
+                return false;
+            }
+
+            if (data != null) {
+                future.complete(Collections.unmodifiableList(data));
+            } else {
+                future.fail(error);
+            }
+            return true;
+        }
+    }
+
+    //
+    // endregion Getters
+    //
+
+    //
+    // region Transitions
+    //
+
+    /**
+     * EMPTY -> FETCHING
+     *
+     * @param dataList
+     *      the list the items are collected in
+     * @param request
+     * @param subscriber
+     */
+    void startFetch(List dataList, InFlightRequest request, Subscriber subscriber) {
+        begin(EMPTY, EMPTY);
+        this.data = dataList;
+        this.request = request;
+        this.subscriber = subscriber;
+        this.progress = null;
+        end(FETCHING);
+    }
+
+    /**
+     * FETCHING -> FETCHED
+     *
+     * @param now
+     */
+    void completeFetch(long now) {
+        begin(FETCHING, FETCHING);
+        this.fetchedAt = now;
+        this.request = null;
+        this.subscriber = null;
+        end(FETCHED);
+    }
+
+    /**
+     * FETCHING -> FETCHED, with the given error instead of the data
+     *
+     * @param error
+     * @param now
+     */
+    void failFetch(Throwable error, long now) {
+        begin(FETCHING, FETCHING);
+        this.data = null;
+        this.error = error;
+        this.fetchedAt = now;
+        this.request = null;
+        this.subscriber = null;
+        end(FETCHED);
+    }
+
+    /**
+     * FETCHED -> REFRESHING. The fetched data is kept until the fresh data arrives.
+     *
+     * @param subscriber
+     */
+    void startRefresh(Subscriber subscriber) {
+        begin(FETCHED, FETCHED);
+        this.subscriber = subscriber;
+        this.progress = null;
+        end(REFRESHING);
+    }
+
+    /**
+     * REFRESHING -> FETCHED, with the given fresh data
+     *
+     * @param freshData
+     * @param now
+     */
+    void completeRefresh(List freshData, long now) {
+        begin(REFRESHING, REFRESHING);
+        this.data = freshData;
+        this.error = null;
+        this.fetchedAt = now;
+        this.subscriber = null;
+        end(FETCHED);
+    }
+
+    /**
+     * REFRESHING -> FETCHED, keeping the old data (the refresh failed)
+     */
+    void endRefresh() {
+        begin(REFRESHING, REFRESHING);
+        this.subscriber = null;
+        end(FETCHED);
+    }
+
+    /**
+     * FETCHING -> CANCELED, or REFRESHING -> FETCHED.
+     * The caller unsubscribes the subscriber and cancels the request.
+     */
+    void cancel() {
+        int state = begin(FETCHING, REFRESHING);
+        this.request = null;
+        this.subscriber = null;
+        end(state == FETCHING ? CANCELED : FETCHED);
+    }
+
+    /**
+     * EMPTY -> FETCHED, with the data restored from a snapshot
+     *
+     * @param items
+     * @param fetchTime
+     */
+    void restore(List items, long fetchTime) {
+        begin(EMPTY, EMPTY);
+        this.data = items;
+        this.fetchedAt = fetchTime;
+        end(FETCHED);
+    }
+
+    /**
+     * Any state, but FETCHING and REFRESHING -> EMPTY
+     */
+    void clear() {
+        if (isRunning()) {
+            throw new IllegalStateException("The key " + key + " is running!");
+        }
+        version++;
+        this.data = null;
+        this.error = null;
+        this.fetchedAt = NEVER;
+        end(EMPTY);
+    }
+
+    //
+    // endregion Transitions
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Returns the freshness of the data fetched at the given time, by the given policy
+     *
+     * @param policy
+     * @param fetchedAt
+     * @param now
+     * @return
+     */
+    private static int freshnessOf(FreshnessPolicy policy, long fetchedAt, long now) {
+        if (fetchedAt == NEVER) {
+            return FreshnessPolicy.FRESH;
+        }
+        return policy.stateOf(now - fetchedAt);
+    }
+
+    /**
+     * Starts a transition from one of the given states
+     *
+     * @param from
+     * @param orFrom
+     * @return
+     *      the current state
+     */
+    private int begin(int from, int orFrom) {
+        int state = this.state;
+        if (state != from && state != orFrom) {
+            throw new IllegalStateException("Invalid transition of the key " + key + " from the state " + state);
+        }
+        version++;
+        return state;
+    }
+
+    /**
+     * Ends the transition in the given state
+     *
+     * @param state
+     */
+    private void end(int state) {
+        this.state = state;
+        version++;
+    }
+
+    //
+    // endregion Private methods
+    //
+}
@@ -0,0 +1,161 @@
+package si.dime.android.retainer;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Finds the entries of the typed keys of a bucket, by the identity of the key.
+ *
+ * An open addressing table with linear probing - a lookup is a few reads of an array, without any hashing
+ * or comparing of strings. It only caches the entries of the bucket: the removed entries are skipped,
+ * and dropped when the table grows.
+ * The lookups can be made from any thread, without locking.
+ */
+final class KeyTable {
+    //
+    // region Static fields
+    //
+
+    // The initial number of the slots (a power of two)
+    private static final int INITIAL_CAPACITY = 16;
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The slots - at most half of them are used, so every probe ends on an empty one
+    private volatile AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+    // The number of the used slots
+    private int size;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Returns the entry of the given key
+     *
+     * @param key
+     * @return
+     *      the entry, or null if it is not in the table (or it was removed from the bucket)
+     */
+    KeyEntry get(BucketKey<?> key) {
+        AtomicReferenceArray<Slot> slots = this.slots;
+        int mask = slots.length() - 1;
+        for (int index = key.hash & mask; ; index = (index + 1) & mask) {
+            Slot slot = slots.get(index);
+            if (slot == null) {
+                return null;
+            }
+            if (slot.key == key) {
+                KeyEntry entry = slot.entry;
+                return entry.removed ? null : entry;
+            }
+        }
+    }
+
+    /**
+     * Puts the entry of the given key in the table, replacing the old one
+     *
+     * @param key
+     * @param entry
+     */
+    synchronized void put(BucketKey<?> key, KeyEntry entry) {
+        if ((size + 1) << 1 > slots.length()) {
+            resize();
+        }
+        if (insert(slots, new Slot(key, entry))) {
+            size++;
+        }
+    }
+
+    //
+    // endregion Package methods
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Copies the slots of the entries that are still in the bucket to a new array, with enough room for one more
+     */
+    private void resize() {
+        AtomicReferenceArray<Slot> oldSlots = slots;
+        int live = 0;
+        for (int i = 0; i < oldSlots.length(); i++) {
+            Slot slot = oldSlots.get(i);
+            if (slot != null && !slot.entry.removed) {
+                live++;
+            }
+        }
+
+        int capacity = INITIAL_CAPACITY;
+        while ((live + 1) << 1 > capacity) {
+            capacity <<= 1;
+        }
+
+        AtomicReferenceArray<Slot> newSlots = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < oldSlots.length(); i++) {
+            Slot slot = oldSlots.get(i);
+            if (slot != null && !slot.entry.removed) {
+                insert(newSlots, slot);
+            }
+        }
+        slots = newSlots;
+        size = live;
+    }
+
+    /**
+     * Inserts the given slot in the given array
+     *
+     * @param slots
+     * @param slot
+     * @return
+     *      true - if a new slot was used, false - if the slot of the same key was replaced
+     */
+    private static boolean insert(AtomicReferenceArray<Slot> slots, Slot slot) {
+        int mask = slots.length() - 1;
+        for (int index = slot.key.hash & mask; ; index = (index + 1) & mask) {
+            Slot current = slots.get(index);
+            if (current == null || current.key == slot.key) {
+                slots.set(index, slot);
+                return current == null;
+            }
+        }
+    }
+
+    //
+    // endregion Private methods
+    //
+
+    /**
+     * A key and its entry
+     */
+    private static final class Slot {
+        // The key
+        final BucketKey<?> key;
+
+        // The entry of the key
+        final KeyEntry entry;
+
+        /**
+         * Default constructor
+         *
+         * @param key
+         * @param entry
+         */
+        Slot(BucketKey<?> key, KeyEntry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+}
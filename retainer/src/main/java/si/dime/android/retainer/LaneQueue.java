@@ -0,0 +1,158 @@
+package si.dime.android.retainer;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.functions.Func0;
+
+/**
+ * The requests waiting in the execution lanes, across all of the buckets, by their lane and share key.
+ *
+ * A bucket subscribing to a request with a share key that is already waiting in the same lane joins the waiting
+ * request, instead of queueing the work once more. The handlers opt in with their share key - the keys alone
+ * don't identify the work, as unrelated buckets may use the same key names. Once the request starts running, it leaves the queue - the next request
+ * of the key waits for a run of its own. The work is unsubscribed when all of the joined requests are canceled.
+ *
+ * Thread safe.
+ */
+final class LaneQueue {
+    //
+    // region Static fields
+    //
+
+    // The singleton instance
+    private static final LaneQueue INSTANCE = new LaneQueue();
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The waiting requests <Lane + share key, Shared observable>
+    private final Map<String, Observable<Object>> requests = new HashMap<>();
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Private constructor
+     */
+    private LaneQueue() {}
+
+    /**
+     * Returns the queue shared by all of the buckets
+     *
+     * @return
+     */
+    static LaneQueue getInstance() {
+        return INSTANCE;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Returns an observable that, when subscribed, joins the request with the given share key waiting in the given lane,
+     * or queues a new one that subscribes to the given source on the scheduler of the lane
+     *
+     * @param lane
+     * @param shareKey
+     * @param source
+     * @param scheduler
+     * @return
+     */
+    @NonNull
+    Observable<Object> enqueue(@NonNull String lane, @NonNull String shareKey, @NonNull final Observable<?> source,
+                               @NonNull final Scheduler scheduler) {
+        final String id = lane + '\u0000' + shareKey;
+        return Observable.defer(new Func0<Observable<Object>>() {
+            @Override
+            public Observable<Object> call() {
+                synchronized (requests) {
+                    Observable<Object> request = requests.get(id);
+                    if (request == null) {
+                        request = newRequest(id, source, scheduler);
+                        requests.put(id, request);
+                    }
+                    return request;
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of the waiting requests
+     *
+     * @return
+     */
+    int size() {
+        synchronized (requests) {
+            return requests.size();
+        }
+    }
+
+    //
+    // endregion Package methods
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Creates a new waiting request. It leaves the queue when it starts running,
+     * or when all of its subscribers unsubscribe.
+     *
+     * @param id
+     * @param source
+     * @param scheduler
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private Observable<Object> newRequest(final String id, Observable<?> source, Scheduler scheduler) {
+        final Observable[] request = new Observable[1];
+        final Action0 remove = new Action0() {
+            @Override
+            public void call() {
+                synchronized (requests) {
+                    // A newer request might be waiting already
+                    if (requests.get(id) == request[0]) {
+                        requests.remove(id);
+                    }
+                }
+            }
+        };
+
+        // The subscription runs in the lane - that's when the request starts.
+        // Replay the items to the requests that join while it's starting.
+        request[0] = ((Observable<Object>) source)
+                .doOnSubscribe(remove)
+                .subscribeOn(scheduler)
+                .doOnUnsubscribe(remove)
+                .replay()
+                .refCount();
+        return request[0];
+    }
+
+    //
+    // endregion Private methods
+    //
+}
@@ -0,0 +1,147 @@
+package si.dime.android.retainer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import rx.functions.Func0;
+
+/**
+ * Raw data that is computed on the given executor, when it is needed for the first time (or right away, if it's eager).
+ * It is also the future of the raw data - waiting for it starts the computation.
+ * Thread safe.
+ */
+class LazyRawData<T> extends FutureTask<T> {
+    //
+    // region Class fields
+    //
+
+    // Computes the raw data
+    private final Executor executor;
+
+    // True once the computation is handed to the executor
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Default constructor
+     *
+     * @param supplier
+     * @param executor
+     */
+    LazyRawData(final Func0<? extends T> supplier, Executor executor) {
+        super(new Callable<T>() {
+            @Override
+            public T call() {
+                return supplier.call();
+            }
+        });
+        this.executor = executor;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Future implementation
+    //
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        start();
+        return super.get();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        start();
+        return super.get(timeout, unit);
+    }
+
+    //
+    // endregion Future implementation
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Hands the computation to the executor (once)
+     */
+    void start() {
+        if (started.compareAndSet(false, true)) {
+            executor.execute(this);
+        }
+    }
+
+    /**
+     * Returns the computed raw data without waiting for it
+     *
+     * @return
+     *      the raw data, or null if it isn't computed yet (or the computation failed)
+     */
+    T peek() {
+        if (!isDone()) {
+            return null;
+        }
+        try {
+            return super.get();
+        } catch (InterruptedException | ExecutionException | CancellationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts the computation (if needed), and waits for it
+     *
+     * @return
+     * @throws CancellationException
+     *      if the raw data was removed before it was computed
+     */
+    T await() {
+        start();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return super.get();
+                } catch (InterruptedException e) {
+                    // Keep waiting, and restore the interruption afterwards
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            // Rethrow the failure of the supplier
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    //
+    // endregion Package methods
+    //
+}
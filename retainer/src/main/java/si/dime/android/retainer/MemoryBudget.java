@@ -0,0 +1,350 @@
+package si.dime.android.retainer;
+
+import android.content.ComponentCallbacks2;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A memory budget shared by buckets.
+ *
+ * Every entry with a known size (the data of a handler with a size estimator, or raw data put with a size)
+ * is accounted in the budget. When the budget is exceeded, the least recently requested entries are evicted,
+ * across all of the buckets - as if removeData() / removeRawData() was called for them.
+ *
+ * All of the buckets created by the Retainer share the singleton instance. Its default limit is 1/8 of the heap.
+ * Thread safe.
+ */
+public final class MemoryBudget {
+    //
+    // region Static fields
+    //
+
+    // The singleton instance
+    private static final MemoryBudget INSTANCE = new MemoryBudget(Runtime.getRuntime().maxMemory() / 8);
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The limit
+    private long maxBytes;
+
+    // The size of all the entries
+    private long usedBytes;
+
+    // The number of evicted entries
+    private long evictionCount;
+
+    // The most and the least recently requested entry
+    private Entry head;
+    private Entry tail;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Package constructor. Used by the tests - everyone else uses the singleton.
+     *
+     * @param maxBytes
+     */
+    MemoryBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the budget shared by the buckets of the Retainer
+     *
+     * @return
+     */
+    public static MemoryBudget getInstance() {
+        return INSTANCE;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Public methods
+    //
+
+    /**
+     * Sets the limit, and evicts the entries over it
+     *
+     * @param maxBytes
+     */
+    public void setMaxBytes(long maxBytes) {
+        // Sanity check
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("The limit must not be negative!");
+        }
+
+        List<Entry> evicted;
+        synchronized (this) {
+            this.maxBytes = maxBytes;
+            evicted = trimTo(maxBytes, null);
+        }
+        evict(evicted);
+    }
+
+    /**
+     * Returns the limit
+     *
+     * @return
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the size of all the accounted entries
+     *
+     * @return
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Returns the number of evicted entries
+     *
+     * @return
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Evicts entries according to the level of the memory pressure.
+     * The Retainer calls it from the application's ComponentCallbacks2.
+     *
+     * @param level
+     *      one of the ComponentCallbacks2.TRIM_MEMORY_... levels
+     */
+    public void onTrimMemory(int level) {
+        List<Entry> evicted;
+        synchronized (this) {
+            evicted = trimTo(trimmedSize(level), null);
+        }
+        evict(evicted);
+    }
+
+    /**
+     * Evicts all of the entries
+     */
+    public void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    //
+    // endregion Public methods
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Accounts a new entry as the most recently requested one, and evicts the entries over the limit.
+     * The new entry itself is never evicted here, even if it alone is over the limit.
+     *
+     * @param bucket
+     * @param key
+     * @param raw
+     *      true - for raw data
+     * @param size
+     * @return
+     */
+    Entry add(@NonNull Bucket bucket, @NonNull String key, boolean raw, long size) {
+        Entry entry = new Entry(bucket, key, raw, size);
+        List<Entry> evicted;
+        synchronized (this) {
+            link(entry);
+            usedBytes += size;
+            evicted = trimTo(maxBytes, entry);
+        }
+        evict(evicted);
+        return entry;
+    }
+
+    /**
+     * Marks the entry as the most recently requested one
+     *
+     * @param entry
+     */
+    synchronized void touch(@NonNull Entry entry) {
+        if (entry.linked && entry != head) {
+            unlink(entry);
+            link(entry);
+        }
+    }
+
+    /**
+     * Stops accounting the entry. Can be called more than once.
+     *
+     * @param entry
+     */
+    synchronized void remove(@NonNull Entry entry) {
+        if (entry.linked) {
+            unlink(entry);
+            usedBytes -= entry.size;
+        }
+    }
+
+    //
+    // endregion Package methods
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Returns the size the entries should be trimmed to, for the given trim level
+     *
+     * @param level
+     * @return
+     */
+    private long trimmedSize(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // We are next to be killed, or the system is about to kill the others
+            return 0;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return maxBytes / 4;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return maxBytes / 2;
+        }
+        // UI hidden, running moderate
+        return maxBytes - maxBytes / 4;
+    }
+
+    /**
+     * Unlinks the least recently requested entries until the used size drops to the given size
+     *
+     * @param size
+     * @param keep
+     *      the entry that must not be evicted (or null)
+     * @return
+     *      the unlinked entries, to be evicted outside of the lock (or null)
+     */
+    private List<Entry> trimTo(long size, Entry keep) {
+        List<Entry> evicted = null;
+        Entry entry = tail;
+        while (usedBytes > size && entry != null) {
+            Entry previous = entry.previous;
+            if (entry != keep) {
+                unlink(entry);
+                usedBytes -= entry.size;
+                evictionCount++;
+
+                if (evicted == null) {
+                    evicted = new ArrayList<>();
+                }
+                evicted.add(entry);
+            }
+            entry = previous;
+        }
+        return evicted;
+    }
+
+    /**
+     * Removes the evicted entries from their buckets. Called outside of the lock, because the destroyers run.
+     *
+     * @param evicted
+     */
+    private void evict(List<Entry> evicted) {
+        if (evicted == null) {
+            return;
+        }
+        for (Entry entry : evicted) {
+            entry.bucket.evict(entry);
+        }
+    }
+
+    /**
+     * Links the entry as the head of the list
+     *
+     * @param entry
+     */
+    private void link(Entry entry) {
+        entry.previous = null;
+        entry.next = head;
+        if (head != null) {
+            head.previous = entry;
+        }
+        head = entry;
+        if (tail == null) {
+            tail = entry;
+        }
+        entry.linked = true;
+    }
+
+    /**
+     * Unlinks the entry from the list
+     *
+     * @param entry
+     */
+    private void unlink(Entry entry) {
+        if (entry.previous != null) {
+            entry.previous.next = entry.next;
+        } else {
+            head = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.previous = entry.previous;
+        } else {
+            tail = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+        entry.linked = false;
+    }
+
+    //
+    // endregion Private methods
+    //
+
+    /**
+     * An accounted entry of a bucket
+     */
+    static final class Entry {
+        // The bucket of the entry
+        final Bucket bucket;
+
+        // The key of the entry
+        final String key;
+
+        // True for raw data
+        final boolean raw;
+
+        // The size in bytes
+        final long size;
+
+        // The neighbours in the list - guarded by the budget
+        private Entry previous;
+        private Entry next;
+        private boolean linked;
+
+        Entry(Bucket bucket, String key, boolean raw, long size) {
+            this.bucket = bucket;
+            this.key = key;
+            this.raw = raw;
+            this.size = size;
+        }
+    }
+}
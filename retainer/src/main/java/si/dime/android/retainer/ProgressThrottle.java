@@ -0,0 +1,158 @@
+package si.dime.android.retainer;
+
+import android.view.Choreographer;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.subscriptions.Subscriptions;
+import si.dime.android.retainer.handlers.ProgressUpdate;
+
+/**
+ * An operator that takes the progress updates out of a background observable
+ * and delivers the latest one to the given callback on the main thread, at most once per frame.
+ *
+ * All of the other emissions (and the terminal events) pass through unchanged.
+ */
+final class ProgressThrottle implements Observable.Operator<Object, Object> {
+    //
+    // region Class fields
+    //
+
+    // Receives the latest progress on the main thread
+    private final Action1<Object> callback;
+
+    // Posts the deliveries
+    private final FrameScheduler frameScheduler;
+
+    //
+    // endregion Class fields
+    //
+
+    /**
+     * Default constructor
+     *
+     * @param callback
+     * @param frameScheduler
+     */
+    ProgressThrottle(Action1<Object> callback, FrameScheduler frameScheduler) {
+        this.callback = callback;
+        this.frameScheduler = frameScheduler;
+    }
+
+    @Override
+    public Subscriber<? super Object> call(Subscriber<? super Object> child) {
+        return new ThrottlingSubscriber(child, callback, frameScheduler);
+    }
+
+    /**
+     * The background side of the operator
+     */
+    private static final class ThrottlingSubscriber extends Subscriber<Object>
+            implements Runnable, Choreographer.FrameCallback {
+        //
+        // region Class fields
+        //
+
+        // The downstream subscriber
+        private final Subscriber<? super Object> child;
+
+        // The callback of the progress
+        private final Action1<Object> callback;
+
+        // Posts the deliveries
+        private final FrameScheduler frameScheduler;
+
+        // Guards the fields below
+        private final Object lock = new Object();
+
+        // The latest progress waiting for the next frame
+        private Object latest;
+
+        // True if a delivery is already scheduled
+        private boolean scheduled;
+
+        //
+        // endregion Class fields
+        //
+
+        ThrottlingSubscriber(Subscriber<? super Object> child, Action1<Object> callback,
+                             FrameScheduler frameScheduler) {
+            super(child);
+            this.child = child;
+            this.callback = callback;
+            this.frameScheduler = frameScheduler;
+            // Drop the delivery that is still pending when the child unsubscribes
+            child.add(Subscriptions.create(new Action0() {
+                @Override
+                public void call() {
+                    ThrottlingSubscriber.this.frameScheduler.remove(ThrottlingSubscriber.this, ThrottlingSubscriber.this);
+                }
+            }));
+        }
+
+        //
+        // region Subscriber implementation (background)
+        //
+
+        @Override
+        public void onNext(Object o) {
+            if (!(o instanceof ProgressUpdate)) {
+                child.onNext(o);
+                return;
+            }
+
+            // Keep only the latest progress
+            synchronized (lock) {
+                latest = ((ProgressUpdate) o).getProgress();
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            frameScheduler.post(this);
+        }
+
+        @Override
+        public void onCompleted() {
+            child.onCompleted();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            child.onError(e);
+        }
+
+        //
+        // endregion Subscriber implementation (background)
+        //
+
+        //
+        // region Main thread
+        //
+
+        @Override
+        public void run() {
+            frameScheduler.postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            Object progress;
+            synchronized (lock) {
+                progress = latest;
+                latest = null;
+                scheduled = false;
+            }
+
+            if (!child.isUnsubscribed()) {
+                callback.call(progress);
+            }
+        }
+
+        //
+        // endregion Main thread
+        //
+    }
+}
@@ -0,0 +1,108 @@
+package si.dime.android.retainer;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A running computation of the raw data of a single key.
+ *
+ * The thread that claims the key computes the value - the other threads that need the key wait for it here,
+ * and receive the value (or the failure) as soon as it is ready.
+ * Thread safe.
+ */
+final class RawDataComputation {
+    //
+    // region Class fields
+    //
+
+    // The thread computing the value
+    private final Thread thread = Thread.currentThread();
+
+    // Released when the computation is done
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    // The computed value
+    private volatile Object value;
+
+    // The failure of the computation
+    private volatile Throwable error;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Waits for the computation and returns the computed value
+     *
+     * @return
+     * @throws IllegalStateException
+     *      if the computation waits for itself (the raw data of a key is computed from the same key)
+     */
+    Object await() {
+        join();
+
+        // Rethrow the failure to every waiter
+        Throwable throwable = error;
+        if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        return value;
+    }
+
+    /**
+     * Waits for the computation, without looking at its result
+     *
+     * @throws IllegalStateException
+     *      if the computation waits for itself (the raw data of a key is computed from the same key)
+     */
+    void join() {
+        // Sanity check
+        if (thread == Thread.currentThread()) {
+            throw new IllegalStateException("The raw data is computed from itself!");
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                // The value is coming - keep waiting, and restore the interruption afterwards
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Finishes the computation with the given value
+     *
+     * @param value
+     */
+    void complete(Object value) {
+        this.value = value;
+        done.countDown();
+    }
+
+    /**
+     * Finishes the computation with the given failure
+     *
+     * @param error
+     */
+    void fail(Throwable error) {
+        this.error = error;
+        done.countDown();
+    }
+
+    //
+    // endregion Package methods
+    //
+}
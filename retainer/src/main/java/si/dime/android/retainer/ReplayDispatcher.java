@@ -0,0 +1,283 @@
+package si.dime.android.retainer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+import si.dime.android.retainer.handlers.BatchObserver;
+import si.dime.android.retainer.handlers.DataHandler;
+
+/**
+ * Replays cached data to the handlers at the end of the event loop.
+ *
+ * There is one dispatcher per Looper, shared by all the buckets. The pending replays are kept in a ring buffer
+ * and drained with a single posted message, so a cache hit doesn't allocate anything once the buffer is big enough.
+ * A dispatcher is confined to the thread of its looper.
+ */
+final class ReplayDispatcher implements Runnable {
+    //
+    // region Static fields
+    //
+
+    // The initial capacity of the ring buffer. Must be a power of two.
+    private static final int INITIAL_CAPACITY = 16;
+
+    // The dispatchers of the looper threads
+    private static final ThreadLocal<ReplayDispatcher> DISPATCHERS = new ThreadLocal<ReplayDispatcher>() {
+        @Override
+        protected ReplayDispatcher initialValue() {
+            return new ReplayDispatcher(new Handler(Looper.myLooper()));
+        }
+    };
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The handler of the looper
+    private final Handler handler;
+
+    // The ring buffer of pending replays
+    private DataHandler[] handlers = new DataHandler[INITIAL_CAPACITY];
+    private List[] data = new List[INITIAL_CAPACITY];
+    private Throwable[] errors = new Throwable[INITIAL_CAPACITY];
+    private InFlightRequest[] joins = new InFlightRequest[INITIAL_CAPACITY];
+    private Runnable[] actions = new Runnable[INITIAL_CAPACITY];
+
+    // The index of the first pending replay
+    private int head;
+
+    // The number of pending replays
+    private int size;
+
+    // True if the drain is already posted
+    private boolean posted;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Default constructor
+     *
+     * @param handler
+     */
+    private ReplayDispatcher(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Returns the dispatcher of the current thread's looper
+     *
+     * @return
+     */
+    static ReplayDispatcher forCurrentLooper() {
+        return DISPATCHERS.get();
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Public methods
+    //
+
+    /**
+     * Schedules the replay of the given data (or error) to the handler at the end of the event loop.
+     *
+     * @param dataHandler
+     * @param items
+     *      the data to replay, or null if this is an error replay
+     * @param error
+     *      the error to replay, or null if this is a data replay
+     */
+    void schedule(@NonNull DataHandler dataHandler, @Nullable List items, @Nullable Throwable error) {
+        enqueue(dataHandler, items, error, null, null);
+    }
+
+    /**
+     * Schedules the replay of the items that arrived so far to the handler that joins the running request.
+     *
+     * @param request
+     */
+    void scheduleJoin(@NonNull InFlightRequest request) {
+        enqueue(null, null, null, request, null);
+    }
+
+    /**
+     * Schedules the given action at the end of the event loop, after the replays scheduled so far.
+     *
+     * @param action
+     */
+    void scheduleAction(@NonNull Runnable action) {
+        enqueue(null, null, null, null, action);
+    }
+
+    /**
+     * Replays the given data (or error) to the handler immediately.
+     *
+     * @param dataHandler
+     * @param items
+     * @param error
+     */
+    static void replay(@NonNull DataHandler dataHandler, @Nullable List items, @Nullable Throwable error) {
+        // Emit the error
+        if (items == null) {
+            dataHandler.getObserver().onError(error);
+            return;
+        }
+
+        // Emit the elements and finish the emission
+        replayItems(dataHandler, items);
+        dataHandler.getObserver().onCompleted();
+    }
+
+    /**
+     * Emits the given items to the handler, without finishing the emission.
+     *
+     * @param dataHandler
+     * @param items
+     */
+    static void replayItems(@NonNull DataHandler dataHandler, @NonNull List items) {
+        // Emit the elements to the subscriber - all at once, if it is batching
+        if (dataHandler.isBatching()) {
+            if (!items.isEmpty()) {
+                ((BatchObserver) dataHandler.getObserver()).onNextBatch(items);
+            }
+        } else {
+            // Indexed loop - no iterator allocation
+            for (int i = 0, count = items.size(); i < count; i++) {
+                dataHandler.getObserver().onNext(items.get(i));
+            }
+        }
+    }
+
+    //
+    // endregion Public methods
+    //
+
+    //
+    // region Runnable implementation
+    //
+
+    @Override
+    public void run() {
+        posted = false;
+
+        // Drain only the replays scheduled so far.
+        // The ones scheduled from within the observers will be drained with the next message.
+        int count = size;
+        int mask = handlers.length - 1;
+        for (int i = 0; i < count; i++) {
+            // Take it out of the buffer first, in case the observer schedules new replays
+            int index = head;
+            DataHandler dataHandler = handlers[index];
+            List items = data[index];
+            Throwable error = errors[index];
+            InFlightRequest join = joins[index];
+            Runnable action = actions[index];
+            handlers[index] = null;
+            data[index] = null;
+            errors[index] = null;
+            joins[index] = null;
+            actions[index] = null;
+            head = (head + 1) & mask;
+            size--;
+
+            if (action != null) {
+                action.run();
+            } else if (join != null) {
+                join.replayJoin();
+            } else {
+                replay(dataHandler, items, error);
+            }
+
+            // The buffer might have grown
+            mask = handlers.length - 1;
+        }
+    }
+
+    //
+    // endregion Runnable implementation
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Puts the replay at the tail of the ring buffer and posts the drain (if needed)
+     *
+     * @param dataHandler
+     * @param items
+     * @param error
+     * @param join
+     * @param action
+     */
+    private void enqueue(DataHandler dataHandler, List items, Throwable error, InFlightRequest join, Runnable action) {
+        // Make room if needed
+        if (size == handlers.length) {
+            grow();
+        }
+
+        // Put it at the tail
+        int tail = (head + size) & (handlers.length - 1);
+        handlers[tail] = dataHandler;
+        data[tail] = items;
+        errors[tail] = error;
+        joins[tail] = join;
+        actions[tail] = action;
+        size++;
+
+        // Post the drain - only once for all of the pending replays
+        if (!posted) {
+            posted = true;
+            handler.post(this);
+        }
+    }
+
+    /**
+     * Doubles the capacity of the ring buffer
+     */
+    private void grow() {
+        int capacity = handlers.length;
+        DataHandler[] newHandlers = new DataHandler[capacity << 1];
+        List[] newData = new List[capacity << 1];
+        Throwable[] newErrors = new Throwable[capacity << 1];
+        InFlightRequest[] newJoins = new InFlightRequest[capacity << 1];
+        Runnable[] newActions = new Runnable[capacity << 1];
+
+        // Copy the pending replays from the head
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) & (capacity - 1);
+            newHandlers[i] = handlers[index];
+            newData[i] = data[index];
+            newErrors[i] = errors[index];
+            newJoins[i] = joins[index];
+            newActions[i] = actions[index];
+        }
+
+        handlers = newHandlers;
+        data = newData;
+        errors = newErrors;
+        joins = newJoins;
+        actions = newActions;
+        head = 0;
+    }
+
+    //
+    // endregion Private methods
+    //
+}
@@ -3,10 +3,17 @@ package si.dime.android.retainer;
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.Fragment;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Configuration;
 import android.os.Build;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
+import java.util.UUID;
+
 import si.dime.android.retainer.managers.ActivityBucketManager;
 import si.dime.android.retainer.managers.FragActivityBucketManager;
 import si.dime.android.retainer.managers.FragmentBucketManager;
@@ -30,6 +37,12 @@ public class Retainer {
     // The log tag
     public static final String LOG_TAG = "Retainer";
 
+    // The name of the application bucket, for acquiring it with getSharedBucket(...)
+    public static final String APPLICATION_BUCKET = SharedBuckets.APPLICATION_BUCKET;
+
+    // The intent extra with the launch token of a warm bucket (see warmUp())
+    public static final String EXTRA_LAUNCH_TOKEN = "si.dime.android.retainer.LaunchToken";
+
     //
     // endregion Static fields
     //
@@ -46,6 +59,15 @@ public class Retainer {
     private BucketManager supportFragBucketManager;
     private BucketManager fragActivityBucketManager;
 
+    // Forwards the memory pressure to the memory budget
+    private boolean componentCallbacksRegistered;
+
+    // The shared buckets
+    private final SharedBuckets sharedBuckets = new SharedBuckets();
+
+    // The warm buckets of the activities being launched
+    private final WarmStarts warmStarts = new WarmStarts();
+
     //
     // endregion Class fields
     //
@@ -161,6 +183,57 @@ public class Retainer {
         }
     }
     
+    /**
+     * Registers the application wide callbacks that forward the memory pressure to the memory budget (only once)
+     *
+     * @param context
+     */
+    private synchronized void registerComponentCallbacks(@NonNull Context context) {
+        // Already registered
+        if (componentCallbacksRegistered) {
+            return;
+        }
+        componentCallbacksRegistered = true;
+
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                MemoryBudget.getInstance().onTrimMemory(level);
+            }
+
+            @Override
+            public void onLowMemory() {
+                MemoryBudget.getInstance().onLowMemory();
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+                // Nothing to do
+            }
+        });
+    }
+
+    /**
+     * Creates the bucket of a newly created activity. If the activity was launched with a launch token,
+     * its warm bucket is adopted instead (see warmUp()). Called by the bucket managers.
+     *
+     * @param intent
+     *      the intent of the activity
+     * @return
+     */
+    public static @NonNull Bucket newActivityBucket(@Nullable Intent intent) {
+        String token = intent == null ? null : intent.getStringExtra(EXTRA_LAUNCH_TOKEN);
+        if (token != null) {
+            // Adopted only once - a recreated activity gets a new bucket
+            intent.removeExtra(EXTRA_LAUNCH_TOKEN);
+            Bucket bucket = INSTANCE.warmStarts.adopt(token);
+            if (bucket != null) {
+                return bucket;
+            }
+        }
+        return new Bucket(MemoryBudget.getInstance());
+    }
+
     //
     // endregion 'Library' methods. Not for external use
     //
@@ -181,6 +254,7 @@ public class Retainer {
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
     @SuppressWarnings("unused")
     public static @NonNull Bucket getBucket(@NonNull Fragment fragment) {
+        INSTANCE.registerComponentCallbacks(fragment.getActivity());
         return INSTANCE.fragmentBucketManager.getBucket(fragment);
     }
 
@@ -192,6 +266,7 @@ public class Retainer {
      */
     @SuppressWarnings("unused")
     public static @NonNull Bucket getBucket(@NonNull android.support.v4.app.Fragment fragment) {
+        INSTANCE.registerComponentCallbacks(fragment.getActivity());
         return INSTANCE.supportFragBucketManager.getBucket(fragment);
     }
 
@@ -203,6 +278,7 @@ public class Retainer {
      */
     @SuppressWarnings("unused")
     public static @NonNull Bucket getBucket(@NonNull Activity activity) {
+        INSTANCE.registerComponentCallbacks(activity);
         return INSTANCE.activityBucketManager.getBucket(activity);
     }
 
@@ -214,9 +290,165 @@ public class Retainer {
      */
     @SuppressWarnings("unused")
     public static @NonNull Bucket getBucket(@NonNull android.support.v4.app.FragmentActivity activity) {
+        INSTANCE.registerComponentCallbacks(activity);
         return INSTANCE.fragActivityBucketManager.getBucket(activity);
     }
     
+    /**
+     * Returns the application bucket. It lives as long as the process - only its data can be evicted
+     * by the memory budget. Use it for handlers that don't reference an Activity/Fragment, or for the raw data.
+     * Handlers that reference their owner should be registered after acquiring the bucket with
+     * getSharedBucket(Retainer.APPLICATION_BUCKET, owner), so they are unregistered when the owner is gone.
+     *
+     * @return
+     */
+    @SuppressWarnings("unused")
+    public static @NonNull Bucket getApplicationBucket() {
+        return INSTANCE.sharedBuckets.get(APPLICATION_BUCKET);
+    }
+
+    /**
+     * Acquires the shared bucket with the given name for the given Activity. The bucket is created by the first owner,
+     * and destroyed when the last owner releases it (or is destroyed). A configuration change doesn't release it.
+     * The handlers registered after this call belong to the activity - they replace the handlers of the other owners
+     * with the same keys, and are unregistered when the activity is gone.
+     *
+     * @param name
+     * @param activity
+     * @return
+     */
+    @SuppressWarnings("unused")
+    public static @NonNull Bucket getSharedBucket(@NonNull String name, @NonNull Activity activity) {
+        return INSTANCE.sharedBuckets.acquire(name, getBucket(activity));
+    }
+
+    /**
+     * Acquires the shared bucket with the given name for the given v4 support FragmentActivity.
+     * See getSharedBucket(String, Activity).
+     *
+     * @param name
+     * @param activity
+     * @return
+     */
+    @SuppressWarnings("unused")
+    public static @NonNull Bucket getSharedBucket(@NonNull String name,
+                                                  @NonNull android.support.v4.app.FragmentActivity activity) {
+        return INSTANCE.sharedBuckets.acquire(name, getBucket(activity));
+    }
+
+    /**
+     * Acquires the shared bucket with the given name for the given Fragment.
+     * See getSharedBucket(String, Activity).
+     *
+     * @param name
+     * @param fragment
+     * @return
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    @SuppressWarnings("unused")
+    public static @NonNull Bucket getSharedBucket(@NonNull String name, @NonNull Fragment fragment) {
+        return INSTANCE.sharedBuckets.acquire(name, getBucket(fragment));
+    }
+
+    /**
+     * Acquires the shared bucket with the given name for the given v4 support Fragment.
+     * See getSharedBucket(String, Activity).
+     *
+     * @param name
+     * @param fragment
+     * @return
+     */
+    @SuppressWarnings("unused")
+    public static @NonNull Bucket getSharedBucket(@NonNull String name,
+                                                  @NonNull android.support.v4.app.Fragment fragment) {
+        return INSTANCE.sharedBuckets.acquire(name, getBucket(fragment));
+    }
+
+    /**
+     * Releases the shared bucket with the given name before the Activity is destroyed
+     *
+     * @param name
+     * @param activity
+     */
+    @SuppressWarnings("unused")
+    public static void releaseSharedBucket(@NonNull String name, @NonNull Activity activity) {
+        INSTANCE.sharedBuckets.release(name, getBucket(activity));
+    }
+
+    /**
+     * Releases the shared bucket with the given name before the v4 support FragmentActivity is destroyed
+     *
+     * @param name
+     * @param activity
+     */
+    @SuppressWarnings("unused")
+    public static void releaseSharedBucket(@NonNull String name,
+                                           @NonNull android.support.v4.app.FragmentActivity activity) {
+        INSTANCE.sharedBuckets.release(name, getBucket(activity));
+    }
+
+    /**
+     * Releases the shared bucket with the given name before the Fragment is destroyed
+     *
+     * @param name
+     * @param fragment
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    @SuppressWarnings("unused")
+    public static void releaseSharedBucket(@NonNull String name, @NonNull Fragment fragment) {
+        INSTANCE.sharedBuckets.release(name, getBucket(fragment));
+    }
+
+    /**
+     * Releases the shared bucket with the given name before the v4 support Fragment is destroyed
+     *
+     * @param name
+     * @param fragment
+     */
+    @SuppressWarnings("unused")
+    public static void releaseSharedBucket(@NonNull String name, @NonNull android.support.v4.app.Fragment fragment) {
+        INSTANCE.sharedBuckets.release(name, getBucket(fragment));
+    }
+
+    /**
+     * Starts the bucket of the activity that is about to be launched with the given intent, before the activity exists.
+     * The launching component (the previous activity, the application...) registers the handlers and requests the data
+     * right away, and the launched activity adopts the bucket when it calls getBucket() - so the requests overlap
+     * with its startup. The handlers of the launching component are unregistered then, and the activity gets the data
+     * (or joins the running requests) when it registers its own handlers and requests the data.
+     *
+     * The launch token is put in the intent. A bucket that isn't adopted within 30 seconds is destroyed.
+     * Must be called on the main thread.
+     *
+     * @param intent
+     *      the intent that launches the activity
+     * @return
+     *      the warm bucket
+     */
+    @SuppressWarnings("unused")
+    public static @NonNull Bucket warmUp(@NonNull Intent intent) {
+        // Replace the bucket of a previous launch with the same intent
+        cancelWarmUp(intent);
+
+        String token = UUID.randomUUID().toString();
+        intent.putExtra(EXTRA_LAUNCH_TOKEN, token);
+        return INSTANCE.warmStarts.start(token);
+    }
+
+    /**
+     * Destroys the warm bucket started with the given intent (if any) - e.g. when the activity won't be launched
+     *
+     * @param intent
+     */
+    @SuppressWarnings("unused")
+    public static void cancelWarmUp(@NonNull Intent intent) {
+        String token = intent.getStringExtra(EXTRA_LAUNCH_TOKEN);
+        if (token != null) {
+            intent.removeExtra(EXTRA_LAUNCH_TOKEN);
+            INSTANCE.warmStarts.cancel(token);
+        }
+    }
+
     //
     // endregion Public static methods
     //
@@ -0,0 +1,189 @@
+package si.dime.android.retainer;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds the buckets shared by many owners, by name.
+ *
+ * The owners are the buckets of the Activities/Fragments that acquire a shared bucket, so a configuration change
+ * doesn't release it. A shared bucket is destroyed when the last owner releases it, or when the last owner's bucket
+ * is destroyed. The application bucket is never destroyed.
+ * Confined to the main thread.
+ */
+class SharedBuckets implements Bucket.OwnerListener {
+    //
+    // region Static fields
+    //
+
+    // The name of the application bucket
+    static final String APPLICATION_BUCKET = "si.dime.android.retainer.ApplicationBucket";
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The shared buckets <Name, Bucket>
+    private final Map<String, Bucket> buckets = new HashMap<>();
+
+    // The owners of the shared buckets <Name, Owners>
+    private final Map<String, Set<Bucket>> owners = new HashMap<>();
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Returns the shared bucket with the given name, without acquiring it. Creates it if needed.
+     * The handlers registered after this call have no owner - they stay registered until they are replaced.
+     *
+     * @param name
+     * @return
+     */
+    @NonNull
+    Bucket get(@NonNull String name) {
+        Bucket bucket = bucketOf(name);
+        bucket.setCurrentOwner(null);
+        return bucket;
+    }
+
+    /**
+     * Acquires the shared bucket with the given name for the given owner. Creates it if needed.
+     * The handlers registered after this call belong to the owner.
+     * Acquiring it more than once for the same owner counts as once.
+     *
+     * @param name
+     * @param owner
+     *      the bucket of the owner
+     * @return
+     */
+    @NonNull
+    Bucket acquire(@NonNull String name, @NonNull Bucket owner) {
+        Bucket bucket = bucketOf(name);
+        owners.get(name).add(owner);
+        owner.addOwnerListener(this);
+        bucket.setCurrentOwner(owner);
+        return bucket;
+    }
+
+    /**
+     * Releases the shared bucket with the given name for the given owner.
+     * The handlers of the owner are unregistered, and the bucket is destroyed if this was the last owner.
+     *
+     * @param name
+     * @param owner
+     *      the bucket of the owner
+     */
+    void release(@NonNull String name, @NonNull Bucket owner) {
+        Set<Bucket> bucketOwners = owners.get(name);
+        if (bucketOwners == null || !bucketOwners.remove(owner)) {
+            return;
+        }
+
+        Bucket bucket = buckets.get(name);
+        bucket.removeHandlersOf(owner);
+
+        // The last owner is gone
+        if (bucketOwners.isEmpty() && !APPLICATION_BUCKET.equals(name)) {
+            buckets.remove(name);
+            owners.remove(name);
+            bucket.destroy();
+        }
+    }
+
+    /**
+     * Returns the number of owners of the shared bucket with the given name
+     *
+     * @param name
+     * @return
+     */
+    int getOwnerCount(@NonNull String name) {
+        Set<Bucket> bucketOwners = owners.get(name);
+        return bucketOwners == null ? 0 : bucketOwners.size();
+    }
+
+    /**
+     * Creates a new shared bucket. Overridden by the tests.
+     *
+     * @return
+     */
+    Bucket newBucket() {
+        return new Bucket(MemoryBudget.getInstance());
+    }
+
+    //
+    // endregion Package methods
+    //
+
+    //
+    // region Bucket.OwnerListener implementation
+    //
+
+    @Override
+    public void onOwnerDestroyed(Bucket owner) {
+        // The handlers reference the old owner - the new one registers its own
+        for (Map.Entry<String, Set<Bucket>> entry : owners.entrySet()) {
+            if (entry.getValue().contains(owner)) {
+                buckets.get(entry.getKey()).removeHandlersOf(owner);
+            }
+        }
+    }
+
+    @Override
+    public void onDestroyed(Bucket owner) {
+        // Release everything the owner acquired
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, Set<Bucket>> entry : owners.entrySet()) {
+            if (entry.getValue().contains(owner)) {
+                names.add(entry.getKey());
+            }
+        }
+        for (String name : names) {
+            release(name, owner);
+        }
+    }
+
+    //
+    // endregion Bucket.OwnerListener implementation
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Returns the shared bucket with the given name. Creates it if needed.
+     *
+     * @param name
+     * @return
+     */
+    @NonNull
+    private Bucket bucketOf(@NonNull String name) {
+        Bucket bucket = buckets.get(name);
+        if (bucket == null) {
+            bucket = newBucket();
+            bucket.makeShared();
+            buckets.put(name, bucket);
+            owners.put(name, new HashSet<Bucket>());
+        }
+        return bucket;
+    }
+
+    //
+    // endregion Private methods
+    //
+}
@@ -0,0 +1,130 @@
+package si.dime.android.retainer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds the buckets of the activities that are being launched, by their launch tokens.
+ *
+ * A warm bucket is created by the launching component (the previous activity, the application...), which registers
+ * the handlers and requests the data right away. The launched activity adopts the bucket as its own when it
+ * asks for it, so the requests overlap with the startup of the activity. A warm bucket that isn't adopted in time
+ * is destroyed.
+ * Confined to the main thread.
+ */
+class WarmStarts {
+    //
+    // region Static fields
+    //
+
+    // How long a warm bucket waits for its activity
+    static final long TIMEOUT_MILLIS = 30000;
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The warm buckets <Launch token, Bucket>
+    private final Map<String, Bucket> buckets = new HashMap<>();
+
+    // Destroys the buckets that weren't adopted in time (created lazily)
+    private Handler handler;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Creates the warm bucket for the given launch token.
+     * An existing warm bucket with the same token is destroyed.
+     *
+     * @param token
+     * @return
+     */
+    @NonNull
+    Bucket start(@NonNull final String token) {
+        cancel(token);
+
+        final Bucket bucket = newBucket();
+        buckets.put(token, bucket);
+
+        // Destroy it if the activity doesn't come in time
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (buckets.get(token) == bucket) {
+                    cancel(token);
+                }
+            }
+        }, TIMEOUT_MILLIS);
+        return bucket;
+    }
+
+    /**
+     * Hands the warm bucket of the given launch token over to the launched activity.
+     * The handlers of the launching component are unregistered - the running requests and the data are kept,
+     * and the activity gets them when it registers its own handlers and requests the data.
+     *
+     * @param token
+     * @return
+     *      the warm bucket, or null if there isn't one (never started, already adopted or expired)
+     */
+    @Nullable
+    Bucket adopt(@NonNull String token) {
+        Bucket bucket = buckets.remove(token);
+        if (bucket != null) {
+            bucket.onOwnerDestroyed();
+        }
+        return bucket;
+    }
+
+    /**
+     * Destroys the warm bucket of the given launch token (if any) - e.g. when the launch is aborted
+     *
+     * @param token
+     */
+    void cancel(@NonNull String token) {
+        Bucket bucket = buckets.remove(token);
+        if (bucket != null) {
+            bucket.destroy();
+        }
+    }
+
+    /**
+     * Returns the number of warm buckets waiting for their activities
+     *
+     * @return
+     */
+    int size() {
+        return buckets.size();
+    }
+
+    /**
+     * Creates a new warm bucket. Overridden by the tests.
+     *
+     * @return
+     */
+    Bucket newBucket() {
+        return new Bucket(MemoryBudget.getInstance());
+    }
+
+    //
+    // endregion Package methods
+    //
+}
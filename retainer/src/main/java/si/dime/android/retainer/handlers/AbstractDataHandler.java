@@ -0,0 +1,201 @@
+package si.dime.android.retainer.handlers;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import rx.Observable;
+import si.dime.android.retainer.persistence.Codec;
+
+/**
+ * The base of the data handlers. Holds the optional configuration of the handler.
+ * The setters return the handler itself, so they can be chained after the constructor.
+ */
+public abstract class AbstractDataHandler<H extends AbstractDataHandler<H>> implements DataHandler {
+    //
+    // region Class fields
+    //
+
+    // Where the work is executed. Null means the bucket's default.
+    private ExecutionClass executionClass;
+
+    // Where the observer receives the results. Null means the main thread.
+    private DeliveryMode deliveryMode;
+
+    // How long the data stays usable. Null means forever.
+    private FreshnessPolicy freshnessPolicy;
+
+    // Estimates the size of the items. Null means the data is not accounted in the memory budget.
+    private SizeEstimator sizeEstimator;
+
+    // Encodes the items into the snapshot. Null means the data is not persisted.
+    private Codec codec;
+
+    // The identity of the request across the buckets. Null means the request is not shared.
+    private String shareKey;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Setters
+    //
+
+    /**
+     * Sets where the work of this handler is executed.
+     * If not set, the bucket's default execution class is used.
+     *
+     * @param executionClass
+     * @return
+     */
+    public H setExecutionClass(@NonNull ExecutionClass executionClass) {
+        this.executionClass = executionClass;
+        return self();
+    }
+
+    /**
+     * Sets where the observer of this handler receives the results.
+     * If not set, the results are delivered on the main thread.
+     *
+     * @param deliveryMode
+     * @return
+     */
+    public H setDeliveryMode(@NonNull DeliveryMode deliveryMode) {
+        this.deliveryMode = deliveryMode;
+        return self();
+    }
+
+    /**
+     * Sets how long the data of this handler stays usable.
+     * If not set, the data is kept until it is removed or refreshed.
+     *
+     * @param freshnessPolicy
+     * @return
+     */
+    public H setFreshnessPolicy(@NonNull FreshnessPolicy freshnessPolicy) {
+        this.freshnessPolicy = freshnessPolicy;
+        return self();
+    }
+
+    /**
+     * Sets the estimator of the size of the items. Only the data of the handlers with a size estimator
+     * is accounted in the memory budget (and evicted when the budget is exceeded).
+     *
+     * @param sizeEstimator
+     * @return
+     */
+    public H setSizeEstimator(@NonNull SizeEstimator<?> sizeEstimator) {
+        this.sizeEstimator = sizeEstimator;
+        return self();
+    }
+
+    /**
+     * Sets the codec of the items. Only the data of the handlers with a codec is written to the snapshot
+     * of the bucket, and restored from it after the process is recreated.
+     *
+     * @param codec
+     * @return
+     */
+    public H setCodec(@NonNull Codec<?> codec) {
+        this.codec = codec;
+        return self();
+    }
+
+    /**
+     * Sets the identity of the request across the buckets. While a request with the same share key is running
+     * in any bucket, the request of this handler joins it instead of subscribing to the observable again
+     * (the same goes for a request waiting in an execution lane).
+     * Every bucket keeps its own copy of the data, but the items are the same instances - a destroyer
+     * shouldn't destroy items that other buckets still use.
+     *
+     * @param shareKey
+     * @return
+     */
+    public H setShareKey(@NonNull String shareKey) {
+        this.shareKey = shareKey;
+        return self();
+    }
+
+    //
+    // endregion Setters
+    //
+
+    //
+    // region DataHandler implementation
+    //
+
+    @NonNull
+    @Override
+    public Observable getObservable(@NonNull Dependencies dependencies) {
+        // The dependencies are not used by default
+        return getObservable();
+    }
+
+    @Nullable
+    @Override
+    public ExecutionClass getExecutionClass() {
+        return executionClass;
+    }
+
+    @Nullable
+    @Override
+    public DeliveryMode getDeliveryMode() {
+        return deliveryMode;
+    }
+
+    @Nullable
+    @Override
+    public FreshnessPolicy getFreshnessPolicy() {
+        return freshnessPolicy;
+    }
+
+    @Nullable
+    @Override
+    public SizeEstimator getSizeEstimator() {
+        return sizeEstimator;
+    }
+
+    @Nullable
+    @Override
+    public Codec getCodec() {
+        return codec;
+    }
+
+    @Nullable
+    @Override
+    public String getShareKey() {
+        return shareKey;
+    }
+
+    @Override
+    public boolean hasProgress() {
+        return false;
+    }
+
+    @Override
+    public void onProgressUpdate(@Nullable Object progress) {
+        // No progress by default
+    }
+
+    //
+    // endregion DataHandler implementation
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Returns this handler
+     *
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private H self() {
+        return (H) this;
+    }
+
+    //
+    // endregion Private methods
+    //
+}
@@ -0,0 +1,22 @@
+package si.dime.android.retainer.handlers;
+
+import java.util.List;
+
+import rx.Observer;
+
+/**
+ * An observer that receives the emitted items in groups.
+ *
+ * Used by the BatchingRxHandler. The items emitted while the main thread renders a frame are grouped
+ * and handed to onNextBatch() with a single main thread callback. The onNext() method is never called
+ * for batching handlers.
+ */
+public interface BatchObserver<T> extends Observer<T> {
+    /**
+     * Called on the main thread with the next group of items.
+     * The list is owned by the bucket and must not be modified.
+     *
+     * @param items
+     */
+    void onNextBatch(List<T> items);
+}
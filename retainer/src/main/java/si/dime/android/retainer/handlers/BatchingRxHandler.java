@@ -0,0 +1,56 @@
+package si.dime.android.retainer.handlers;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import rx.Observable;
+
+/**
+ * A RxJava handler that delivers the emissions in batches.
+ *
+ * The first item is delivered right away, the following ones are grouped in the background
+ * and delivered to the BatchObserver once per frame.
+ */
+public class BatchingRxHandler extends RxHandler {
+    //
+    // region Constructors
+    //
+
+    /**
+     * Default constructor
+     *
+     * @param observable
+     * @param observer
+     * @param destroyer
+     */
+    public BatchingRxHandler(@NonNull Observable observable, @NonNull BatchObserver observer, @Nullable Destroyer destroyer) {
+        super(observable, observer, destroyer);
+    }
+
+    /**
+     * Constructor without a destroyer
+     *
+     * @param observable
+     * @param observer
+     */
+    public BatchingRxHandler(@NonNull Observable observable, @NonNull BatchObserver observer) {
+        this(observable, observer, null);
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region DataHandler implementation
+    //
+
+    @Override
+    public boolean isBatching() {
+        return true;
+    }
+
+    //
+    // endregion DataHandler implementation
+    //
+}
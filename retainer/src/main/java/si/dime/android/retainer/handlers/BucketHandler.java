@@ -0,0 +1,33 @@
+package si.dime.android.retainer.handlers;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import si.dime.android.retainer.ExecutionEngine;
+
+/**
+ * Marks a Task, TaskHandler or RxHandler field of an Activity or Fragment that is registered with the given key
+ * by Bucket.registerHandlers(). The field must not be private nor static.
+ *
+ * The registration code is generated at compile time by the retainercompiler annotation processor - a class
+ * named [TheClass]_HandlerRegistry, next to the annotated class. It declares a BucketKey for every annotated field.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface BucketHandler {
+    /**
+     * The key the handler is registered with
+     *
+     * @return
+     */
+    String value();
+
+    /**
+     * The priority of the requests of the key (e.g. ExecutionEngine.PRIORITY_USER_VISIBLE)
+     *
+     * @return
+     */
+    int priority() default ExecutionEngine.PRIORITY_NORMAL;
+}
@@ -0,0 +1,31 @@
+package si.dime.android.retainer.handlers;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A task that stops its work when its request is canceled.
+ *
+ * The token is canceled - and the thread interrupted - as soon as the request is canceled.
+ * The result of a canceled task is dropped, and neither onPostExecute() nor onError() is called.
+ */
+public abstract class CancellableTask<T> implements Task<T> {
+
+    /**
+     * Called in a background thread. Should check the token between the steps of the work,
+     * and return (or throw) as soon as it is canceled.
+     *
+     * @param token
+     * @return
+     */
+    public abstract T doInBackground(@NonNull CancellationToken token);
+
+    /**
+     * Runs the task with a token that is never canceled
+     *
+     * @return
+     */
+    @Override
+    public final T doInBackground() {
+        return doInBackground(CancellationToken.NONE);
+    }
+}
@@ -0,0 +1,131 @@
+package si.dime.android.retainer.handlers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the work of the cancellable tasks that was wasted after their requests were canceled.
+ * Only the tasks that were running when the request was canceled are counted.
+ *
+ * Singleton. Thread safe.
+ */
+public final class CancellationMetrics {
+    //
+    // region Static fields
+    //
+
+    // The singleton instance
+    private static final CancellationMetrics INSTANCE = new CancellationMetrics();
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The number of the tasks canceled while running
+    private long canceledTasks;
+
+    // The number of them that still returned a result
+    private long wastedTasks;
+
+    // The time the canceled tasks kept running
+    private long wastedNanos;
+    private long maxWastedNanos;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Private constructor
+     */
+    private CancellationMetrics() {}
+
+    /**
+     * Returns the metrics of all of the cancellable tasks
+     *
+     * @return
+     */
+    public static CancellationMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Public methods
+    //
+
+    /**
+     * Returns the number of the tasks that were canceled while running
+     *
+     * @return
+     */
+    public synchronized long getCanceledCount() {
+        return canceledTasks;
+    }
+
+    /**
+     * Returns the number of the canceled tasks that ignored the cancellation and still returned a result
+     *
+     * @return
+     */
+    public synchronized long getWastedCount() {
+        return wastedTasks;
+    }
+
+    /**
+     * Returns the total time the canceled tasks kept running after the cancellation
+     *
+     * @return
+     */
+    public synchronized long getWastedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(wastedNanos);
+    }
+
+    /**
+     * Returns the longest time a canceled task kept running after the cancellation
+     *
+     * @return
+     */
+    public synchronized long getMaxWastedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWastedNanos);
+    }
+
+    //
+    // endregion Public methods
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Called when a canceled task finishes
+     *
+     * @param completed
+     *      true - if the task still returned a result
+     * @param nanosAfterCancel
+     *      how long the task kept running after the cancellation
+     */
+    synchronized void onCanceledTaskFinished(boolean completed, long nanosAfterCancel) {
+        canceledTasks++;
+        if (completed) {
+            wastedTasks++;
+        }
+        wastedNanos += nanosAfterCancel;
+        maxWastedNanos = Math.max(maxWastedNanos, nanosAfterCancel);
+    }
+
+    //
+    // endregion Package methods
+    //
+}
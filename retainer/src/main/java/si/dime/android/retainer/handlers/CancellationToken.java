@@ -0,0 +1,128 @@
+package si.dime.android.retainer.handlers;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tells a running CancellableTask that nobody waits for its result anymore.
+ *
+ * The token is canceled when the request is canceled (cancelRequest(), requestRefreshedData(), the owner
+ * is destroyed...). The thread of the task is interrupted at the same time, so the blocking calls
+ * (sleeps, waits, interruptible IO) return early. Between the blocking calls, the task should check the token.
+ *
+ * Thread safe.
+ */
+public final class CancellationToken {
+    //
+    // region Static fields
+    //
+
+    // A token that is never canceled - e.g. for the tasks called directly
+    public static final CancellationToken NONE = new CancellationToken(null);
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The thread running the task (null once the task finishes)
+    private Thread thread;
+
+    // True once the token is canceled
+    private volatile boolean canceled;
+
+    // When the token was canceled
+    private long canceledAtNanos;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Default constructor
+     *
+     * @param thread
+     *      the thread running the task
+     */
+    CancellationToken(Thread thread) {
+        this.thread = thread;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Public methods
+    //
+
+    /**
+     * Returns true if the task is canceled
+     *
+     * @return
+     */
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Throws a CancellationException if the task is canceled
+     *
+     * @throws CancellationException
+     */
+    public void throwIfCanceled() {
+        if (canceled) {
+            throw new CancellationException("The task is canceled");
+        }
+    }
+
+    //
+    // endregion Public methods
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Cancels the token and interrupts the thread of the task (if it is still running)
+     */
+    synchronized void cancel() {
+        if (canceled || thread == null) {
+            return;
+        }
+        canceled = true;
+        canceledAtNanos = System.nanoTime();
+        thread.interrupt();
+    }
+
+    /**
+     * Called on the thread of the task, when the task finishes. From then on the thread isn't interrupted anymore.
+     *
+     * @param completed
+     *      true - if the task returned a result
+     * @return
+     *      true - if the token was canceled (the result must be dropped)
+     */
+    synchronized boolean finish(boolean completed) {
+        thread = null;
+        if (!canceled) {
+            return false;
+        }
+
+        // The interrupt was meant for the task only - the thread goes back to its pool
+        Thread.interrupted();
+        CancellationMetrics.getInstance().onCanceledTaskFinished(completed, System.nanoTime() - canceledAtNanos);
+        return true;
+    }
+
+    //
+    // endregion Package methods
+    //
+}
@@ -5,6 +5,7 @@ import android.support.annotation.Nullable;
 
 import rx.Observable;
 import rx.Observer;
+import si.dime.android.retainer.persistence.Codec;
 
 /**
  * The DataHandler abstraction
@@ -20,6 +21,15 @@ public interface DataHandler {
     @NonNull
     Observable getObservable();
 
+    /**
+     * Returns the observable that uses the data of the keys this handler depends on
+     *
+     * @param dependencies
+     * @return
+     */
+    @NonNull
+    Observable getObservable(@NonNull Dependencies dependencies);
+
     /**
      * Returns the observer
      *
@@ -42,4 +52,73 @@ public interface DataHandler {
      * @return
      */
     boolean hasDestroyer();
+
+    /**
+     * Returns true if the observer is a BatchObserver that receives the emissions in batches.
+     *
+     * @return
+     */
+    boolean isBatching();
+
+    /**
+     * Returns where the work of this handler is executed, or null for the bucket's default
+     *
+     * @return
+     */
+    @Nullable
+    ExecutionClass getExecutionClass();
+
+    /**
+     * Returns where the observer of this handler receives the results, or null for the main thread
+     *
+     * @return
+     */
+    @Nullable
+    DeliveryMode getDeliveryMode();
+
+    /**
+     * Returns how long the data of this handler stays usable, or null if it never gets old
+     *
+     * @return
+     */
+    @Nullable
+    FreshnessPolicy getFreshnessPolicy();
+
+    /**
+     * Returns the estimator of the size of the items, or null if the data is not accounted in the memory budget
+     *
+     * @return
+     */
+    @Nullable
+    SizeEstimator getSizeEstimator();
+
+    /**
+     * Returns the codec of the items, or null if the data is not persisted
+     *
+     * @return
+     */
+    @Nullable
+    Codec getCodec();
+
+    /**
+     * Returns the identity of the request across the buckets, or null if the request is not shared
+     *
+     * @return
+     */
+    @Nullable
+    String getShareKey();
+
+    /**
+     * Returns true if the observable of this handler reports its progress (see ProgressTask)
+     *
+     * @return
+     */
+    boolean hasProgress();
+
+    /**
+     * Called on the main thread with the latest progress of the running request
+     *
+     * @param progress
+     */
+    void onProgressUpdate(@Nullable Object progress);
 }
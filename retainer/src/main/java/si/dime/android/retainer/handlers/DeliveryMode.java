@@ -0,0 +1,113 @@
+package si.dime.android.retainer.handlers;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Declares where the observer of a handler receives the results.
+ *
+ * MAIN_THREAD - the default. The results are delivered on the main thread - directly, if they are produced on it.
+ * BACKGROUND - the results are delivered on the background thread that produced them, without any thread hop.
+ * Any other executor or scheduler can be supplied with the on(...) methods.
+ *
+ * The observers of the handlers that aren't delivered on the main thread must not touch the UI.
+ * The bucket records the finished result on the main thread either way - with a single message,
+ * instead of one per emission.
+ */
+public final class DeliveryMode {
+    //
+    // region Static fields
+    //
+
+    // The main thread
+    public static final DeliveryMode MAIN_THREAD = new DeliveryMode("MAIN_THREAD", null);
+
+    // The background thread that produced the results
+    public static final DeliveryMode BACKGROUND = new DeliveryMode("BACKGROUND", null);
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The name, for debugging
+    private final String name;
+
+    // The scheduler the results are delivered on (null for the main thread and the background thread)
+    private final Scheduler scheduler;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Private constructor
+     *
+     * @param name
+     * @param scheduler
+     */
+    private DeliveryMode(String name, Scheduler scheduler) {
+        this.name = name;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns a delivery mode that delivers the results on the given executor, in order
+     *
+     * @param executor
+     * @return
+     */
+    public static DeliveryMode on(@NonNull Executor executor) {
+        return new DeliveryMode("Executor " + executor, Schedulers.from(executor));
+    }
+
+    /**
+     * Returns a delivery mode that delivers the results on the given scheduler, in order
+     *
+     * @param scheduler
+     * @return
+     */
+    public static DeliveryMode on(@NonNull Scheduler scheduler) {
+        return new DeliveryMode("Scheduler " + scheduler, scheduler);
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Getters
+    //
+
+    /**
+     * Returns the scheduler the results are delivered on,
+     * or null for the main thread and for the background thread that produced them
+     *
+     * @return
+     */
+    @Nullable
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    //
+    // endregion Getters
+    //
+}
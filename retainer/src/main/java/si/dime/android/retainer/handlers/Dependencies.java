@@ -0,0 +1,92 @@
+package si.dime.android.retainer.handlers;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import si.dime.android.retainer.BucketKey;
+
+/**
+ * The results of the keys a DependentTask depends on. Passed to the task on its background thread.
+ *
+ * Immutable.
+ */
+public final class Dependencies {
+    //
+    // region Static fields
+    //
+
+    // No dependencies - e.g. for the tasks called directly
+    public static final Dependencies NONE = new Dependencies(Collections.<String, List>emptyMap());
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The data of the dependencies, by their keys
+    private final Map<String, List> results;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Creates the dependencies with the given data of their keys (e.g. to test a DependentTask)
+     *
+     * @param results
+     */
+    public Dependencies(@NonNull Map<String, List> results) {
+        this.results = Collections.unmodifiableMap(results);
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Public methods
+    //
+
+    /**
+     * Returns the data of the given key
+     *
+     * @param key
+     * @return
+     * @throws IllegalArgumentException
+     *      if the task doesn't depend on the given key
+     */
+    @NonNull
+    public List get(String key) {
+        List data = results.get(key);
+        if (data == null) {
+            throw new IllegalArgumentException("There is no dependency on the key " + key + "!");
+        }
+        return data;
+    }
+
+    /**
+     * Returns the data of the given typed key (see get(String))
+     *
+     * @param key
+     * @return
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(BucketKey<T> key) {
+        return get(key.getName());
+    }
+
+    //
+    // endregion Public methods
+    //
+}
@@ -0,0 +1,32 @@
+package si.dime.android.retainer.handlers;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A task that uses the data of other keys of its bucket (see Bucket.registerDependentTask()).
+ *
+ * The task starts once all of the keys it depends on have their data - the bucket fetches the missing ones
+ * in parallel, and reuses the ones it already has. If any of them fails, the task fails with the same error.
+ */
+public abstract class DependentTask<T> extends CancellableTask<T> {
+
+    /**
+     * Called in a background thread, with the data of the keys this task depends on
+     *
+     * @param dependencies
+     * @param token
+     * @return
+     */
+    public abstract T doInBackground(@NonNull Dependencies dependencies, @NonNull CancellationToken token);
+
+    /**
+     * Runs the task without any dependencies
+     *
+     * @param token
+     * @return
+     */
+    @Override
+    public final T doInBackground(@NonNull CancellationToken token) {
+        return doInBackground(Dependencies.NONE, token);
+    }
+}
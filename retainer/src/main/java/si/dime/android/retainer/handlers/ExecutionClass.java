@@ -0,0 +1,174 @@
+package si.dime.android.retainer.handlers;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Declares where the work of a handler is executed.
+ *
+ * IO - for blocking work (network, disk). Runs on an unbounded pool of threads.
+ * CPU - for computations (parsing, sorting...). Runs on a pool sized to the number of cores.
+ * Any other executor or scheduler can be supplied with the of(...) methods.
+ *
+ * A lane runs its work one at a time, in order - e.g. the work writing to the same database or file.
+ * The lanes run on a shared pool, in parallel with each other. A request waiting in a lane is merged with
+ * the requests with the same share key that are queued after it (in any bucket) - they all receive its result.
+ * A lane serializes the work done while subscribing: the tasks, and the observables that run synchronously.
+ */
+public final class ExecutionClass {
+    //
+    // region Static fields
+    //
+
+    // The blocking work
+    public static final ExecutionClass IO = new ExecutionClass("IO", Schedulers.io());
+
+    // The CPU bound work
+    public static final ExecutionClass CPU = new ExecutionClass("CPU", Schedulers.computation());
+
+    // The pool the lanes run on
+    private static final Executor LANE_POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "Retainer-Lane");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // The lanes by their names <Name, Lane>
+    private static final Map<String, ExecutionClass> lanes = new ConcurrentHashMap<>();
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The name, for debugging
+    private final String name;
+
+    // The scheduler the work is subscribed on
+    private final Scheduler scheduler;
+
+    // The name of the lane (or null if this isn't a lane)
+    private final String lane;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Private constructor
+     *
+     * @param name
+     * @param scheduler
+     */
+    private ExecutionClass(String name, Scheduler scheduler) {
+        this(name, scheduler, null);
+    }
+
+    /**
+     * Private constructor
+     *
+     * @param name
+     * @param scheduler
+     * @param lane
+     */
+    private ExecutionClass(String name, Scheduler scheduler, String lane) {
+        this.name = name;
+        this.scheduler = scheduler;
+        this.lane = lane;
+    }
+
+    /**
+     * Returns an execution class that runs the work on the given executor
+     *
+     * @param executor
+     * @return
+     */
+    public static ExecutionClass of(@NonNull Executor executor) {
+        return new ExecutionClass("Executor " + executor, Schedulers.from(executor));
+    }
+
+    /**
+     * Returns an execution class that runs the work on the given scheduler
+     *
+     * @param scheduler
+     * @return
+     */
+    public static ExecutionClass of(@NonNull Scheduler scheduler) {
+        return new ExecutionClass("Scheduler " + scheduler, scheduler);
+    }
+
+    /**
+     * Returns the lane with the given name. The handlers in the same lane run one at a time, in order.
+     *
+     * @param name
+     * @return
+     */
+    public static ExecutionClass lane(@NonNull String name) {
+        ExecutionClass lane = lanes.get(name);
+        if (lane == null) {
+            ExecutionClass newLane = new ExecutionClass("Lane " + name,
+                    Schedulers.from(new SerialExecutor(LANE_POOL)), name);
+            lane = lanes.putIfAbsent(name, newLane);
+            if (lane == null) {
+                lane = newLane;
+            }
+        }
+        return lane;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Getters
+    //
+
+    /**
+     * Returns the scheduler the work is subscribed on
+     *
+     * @return
+     */
+    @NonNull
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Returns the name of the lane, or null if this isn't a lane
+     *
+     * @return
+     */
+    @Nullable
+    public String getLane() {
+        return lane;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    //
+    // endregion Getters
+    //
+}
@@ -0,0 +1,127 @@
+package si.dime.android.retainer.handlers;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Declares how long the data of a handler stays usable.
+ *
+ * Up to maxAge the data is fresh, and it is simply replayed.
+ * During the stale window after that, the data is replayed right away and refreshed in the background.
+ * Once the stale window passes the data is expired - it is removed and fetched again, as if it was never there.
+ */
+public final class FreshnessPolicy {
+    //
+    // region Static fields
+    //
+
+    // The states of the data
+    public static final int FRESH = 0;
+    public static final int STALE = 1;
+    public static final int EXPIRED = 2;
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // How long the data is fresh
+    private final long maxAgeMillis;
+
+    // How long the data is stale (after maxAge)
+    private final long staleWindowMillis;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Private constructor
+     *
+     * @param maxAgeMillis
+     * @param staleWindowMillis
+     */
+    private FreshnessPolicy(long maxAgeMillis, long staleWindowMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+        this.staleWindowMillis = staleWindowMillis;
+    }
+
+    /**
+     * Returns a policy with the given max age and stale window
+     *
+     * @param maxAge
+     *      how long the data is fresh
+     * @param staleWindow
+     *      how long the data is served while it is being refreshed, after maxAge. Zero for no stale window.
+     * @param unit
+     * @return
+     */
+    public static FreshnessPolicy of(long maxAge, long staleWindow, @NonNull TimeUnit unit) {
+        // Sanity check
+        if (maxAge < 0 || staleWindow < 0) {
+            throw new IllegalArgumentException("The max age and the stale window must not be negative!");
+        }
+
+        return new FreshnessPolicy(unit.toMillis(maxAge), unit.toMillis(staleWindow));
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Getters
+    //
+
+    /**
+     * Returns the state of data with the given age
+     *
+     * @param ageMillis
+     * @return
+     *      FRESH, STALE or EXPIRED
+     */
+    public int stateOf(long ageMillis) {
+        if (ageMillis <= maxAgeMillis) {
+            return FRESH;
+        }
+        if (ageMillis - maxAgeMillis <= staleWindowMillis) {
+            return STALE;
+        }
+        return EXPIRED;
+    }
+
+    /**
+     * Returns how long the data is fresh
+     *
+     * @return
+     */
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * Returns how long the data is stale (after maxAge)
+     *
+     * @return
+     */
+    public long getStaleWindowMillis() {
+        return staleWindowMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "FreshnessPolicy{maxAge=" + maxAgeMillis + "ms, staleWindow=" + staleWindowMillis + "ms}";
+    }
+
+    //
+    // endregion Getters
+    //
+}
@@ -0,0 +1,90 @@
+package si.dime.android.retainer.handlers;
+
+import android.support.annotation.Nullable;
+
+import rx.Subscriber;
+
+/**
+ * Publishes the progress of a single run of a ProgressTask into the stream of its request.
+ *
+ * Every run gets its own reporter - the progress of a canceled run never reaches the request that replaced it.
+ * Thread safe.
+ */
+public final class ProgressReporter<P> {
+    //
+    // region Static fields
+    //
+
+    // A reporter that drops the progress - e.g. for the tasks called directly
+    private static final ProgressReporter NONE = new ProgressReporter<>(null, CancellationToken.NONE);
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The stream of the request (or null)
+    private final Subscriber<? super Object> subscriber;
+
+    // The token of the run
+    private final CancellationToken token;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Default constructor
+     *
+     * @param subscriber
+     *      the stream of the request
+     * @param token
+     *      the token of the run
+     */
+    ProgressReporter(@Nullable Subscriber<? super Object> subscriber, CancellationToken token) {
+        this.subscriber = subscriber;
+        this.token = token;
+    }
+
+    /**
+     * Returns a reporter that drops the progress
+     *
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    static <P> ProgressReporter<P> none() {
+        return (ProgressReporter<P>) NONE;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Public methods
+    //
+
+    /**
+     * Publishes the progress of the work. Must be called from doInBackground(), on its thread.
+     * Does nothing once the run is canceled.
+     *
+     * @param progress
+     */
+    public void publish(@Nullable P progress) {
+        if (subscriber == null || token.isCanceled() || subscriber.isUnsubscribed()) {
+            return;
+        }
+        subscriber.onNext(new ProgressUpdate(progress));
+    }
+
+    //
+    // endregion Public methods
+    //
+}
@@ -0,0 +1,42 @@
+package si.dime.android.retainer.handlers;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A cancellable task that reports the progress of its work.
+ *
+ * The updates published with the reporter passed to doInBackground() are merged - onProgressUpdate() gets
+ * the latest one, at most once per frame, on the main thread. The bucket keeps the latest progress of the running
+ * request, so a task registered again (e.g. after a configuration change) gets it as soon as it requests the data.
+ */
+public abstract class ProgressTask<T, P> extends CancellableTask<T> {
+
+    /**
+     * Called in a background thread, with the reporter of this run's progress
+     *
+     * @param token
+     * @param progress
+     * @return
+     */
+    public abstract T doInBackground(@NonNull CancellationToken token, @NonNull ProgressReporter<P> progress);
+
+    /**
+     * Runs the task without reporting the progress
+     *
+     * @param token
+     * @return
+     */
+    @Override
+    public final T doInBackground(@NonNull CancellationToken token) {
+        return doInBackground(token, ProgressReporter.<P>none());
+    }
+
+    /**
+     * Called on the main thread with the latest progress of the work
+     *
+     * @param progress
+     */
+    public void onProgressUpdate(P progress) {
+        // Nothing by default
+    }
+}
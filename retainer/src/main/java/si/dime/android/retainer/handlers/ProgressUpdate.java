@@ -0,0 +1,55 @@
+package si.dime.android.retainer.handlers;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Carries the progress of a ProgressTask through the stream of its handler.
+ * The bucket takes it out of the stream - the observers never receive it.
+ */
+public final class ProgressUpdate {
+    //
+    // region Class fields
+    //
+
+    // The progress
+    private final Object progress;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Default constructor
+     *
+     * @param progress
+     */
+    ProgressUpdate(@Nullable Object progress) {
+        this.progress = progress;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Getters
+    //
+
+    /**
+     * Returns the progress
+     *
+     * @return
+     */
+    @Nullable
+    public Object getProgress() {
+        return progress;
+    }
+
+    //
+    // endregion Getters
+    //
+}
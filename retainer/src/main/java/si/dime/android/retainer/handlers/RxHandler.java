@@ -11,7 +11,7 @@ import rx.Observer;
  *
  * Created by dime on 30/11/15.
  */
-public class RxHandler implements DataHandler {
+public class RxHandler extends AbstractDataHandler<RxHandler> {
 
     //
     // region Class fields
@@ -87,6 +87,11 @@ public class RxHandler implements DataHandler {
     public boolean hasDestroyer() {
         return destroyer != null;
     }
+
+    @Override
+    public boolean isBatching() {
+        return false;
+    }
     
     //
     // endregion DataHandler implementation
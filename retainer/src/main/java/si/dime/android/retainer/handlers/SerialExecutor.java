@@ -0,0 +1,90 @@
+package si.dime.android.retainer.handlers;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the given tasks one at a time, in the order they were submitted, on the threads of a shared executor.
+ * Holds no thread of its own - an idle serial executor costs nothing.
+ */
+final class SerialExecutor implements Executor {
+    //
+    // region Class fields
+    //
+
+    // The shared executor the tasks run on
+    private final Executor executor;
+
+    // The tasks waiting for their turn
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    // The task running right now (or null)
+    private Runnable active;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Default constructor
+     *
+     * @param executor
+     */
+    SerialExecutor(@NonNull Executor executor) {
+        this.executor = executor;
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Executor implementation
+    //
+
+    @Override
+    public synchronized void execute(@NonNull final Runnable command) {
+        tasks.offer(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    command.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    //
+    // endregion Executor implementation
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Hands the next task (if any) to the shared executor
+     */
+    private synchronized void scheduleNext() {
+        active = tasks.poll();
+        if (active != null) {
+            executor.execute(active);
+        }
+    }
+
+    //
+    // endregion Private methods
+    //
+}
@@ -0,0 +1,16 @@
+package si.dime.android.retainer.handlers;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Estimates the memory taken by the items of a handler. Used by the memory budget.
+ */
+public interface SizeEstimator<T> {
+    /**
+     * Returns the approximate size of the given item in bytes
+     *
+     * @param item
+     * @return
+     */
+    long sizeOf(@NonNull T item);
+}
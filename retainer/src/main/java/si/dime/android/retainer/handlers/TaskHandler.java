@@ -6,13 +6,15 @@ import android.support.annotation.Nullable;
 import rx.Observable;
 import rx.Observer;
 import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
 
 /**
  * A task handler
  *
  * Created by dime on 30/11/15.
  */
-public class TaskHandler implements DataHandler {
+public class TaskHandler extends AbstractDataHandler<TaskHandler> {
     //
     // region Class fields
     //
@@ -38,7 +40,8 @@ public class TaskHandler implements DataHandler {
     //
 
     /**
-     * Default constructor
+     * Default constructor. A CancellableTask stops when its request is canceled, and a ProgressTask
+     * reports its progress to the bucket.
      *
      * @param task
      */
@@ -49,6 +52,11 @@ public class TaskHandler implements DataHandler {
         this.observable = Observable.create(new Observable.OnSubscribe<Object>() {
             @Override
             public void call(Subscriber<? super Object> subscriber) {
+                if (task instanceof CancellableTask) {
+                    runCancellable((CancellableTask) task, Dependencies.NONE, subscriber);
+                    return;
+                }
+
                 try {
                     // Call the tasks doInBackground()
                     Object data = task.doInBackground();
@@ -111,6 +119,21 @@ public class TaskHandler implements DataHandler {
         return observable;
     }
 
+    @NonNull
+    @Override
+    public Observable getObservable(@NonNull final Dependencies dependencies) {
+        if (!(task instanceof DependentTask)) {
+            return observable;
+        }
+
+        return Observable.create(new Observable.OnSubscribe<Object>() {
+            @Override
+            public void call(Subscriber<? super Object> subscriber) {
+                runCancellable((CancellableTask) task, dependencies, subscriber);
+            }
+        });
+    }
+
     @NonNull
     @Override
     public Observer getObserver() {
@@ -128,7 +151,82 @@ public class TaskHandler implements DataHandler {
         return true;
     }
 
+    @Override
+    public boolean isBatching() {
+        return false;
+    }
+
+    @Override
+    public boolean hasProgress() {
+        return task instanceof ProgressTask;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onProgressUpdate(@Nullable Object progress) {
+        if (task instanceof ProgressTask) {
+            ((ProgressTask) task).onProgressUpdate(progress);
+        }
+    }
+
     //
     // endregion DataHandler implementation
     //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Runs the given cancellable task on the current thread. The task is canceled as soon as
+     * the given subscriber unsubscribes.
+     *
+     * @param task
+     * @param dependencies
+     *      the data of the keys a DependentTask depends on
+     * @param subscriber
+     */
+    private static void runCancellable(CancellableTask task, Dependencies dependencies,
+                                       Subscriber<? super Object> subscriber) {
+        // Canceled before it started
+        if (subscriber.isUnsubscribed()) {
+            return;
+        }
+
+        final CancellationToken token = new CancellationToken(Thread.currentThread());
+        subscriber.add(Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                token.cancel();
+            }
+        }));
+
+        Object data;
+        try {
+            if (task instanceof DependentTask) {
+                data = ((DependentTask) task).doInBackground(dependencies, token);
+            } else if (task instanceof ProgressTask) {
+                // The progress of this run goes through the same stream as its result
+                data = ((ProgressTask) task).doInBackground(token, new ProgressReporter(subscriber, token));
+            } else {
+                data = task.doInBackground(token);
+            }
+        } catch (Throwable t) {
+            // Nobody waits for the error of a canceled task
+            if (!token.finish(false)) {
+                subscriber.onError(t);
+            }
+            return;
+        }
+
+        // Nobody waits for the result of a canceled task
+        if (!token.finish(true)) {
+            subscriber.onNext(data);
+            subscriber.onCompleted();
+        }
+    }
+
+    //
+    // endregion Private methods
+    //
 }
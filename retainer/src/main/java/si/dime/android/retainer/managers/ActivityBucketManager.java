@@ -2,9 +2,13 @@ package si.dime.android.retainer.managers;
 
 import android.app.Activity;
 
+import java.io.File;
+
 import si.dime.android.retainer.Bucket;
 import si.dime.android.retainer.BucketManager;
 import si.dime.android.retainer.FragmentHolder;
+import si.dime.android.retainer.MemoryBudget;
+import si.dime.android.retainer.Retainer;
 
 /**
  * Created by dime on 29/11/15.
@@ -28,10 +32,19 @@ public class ActivityBucketManager implements BucketManager<Activity, FragmentHo
                     .commit();
             parent.getFragmentManager().executePendingTransactions();
 
-            // Create a brand new bucket
-            Bucket newBucket = new Bucket();
+            // Create a brand new bucket (or adopt the warm one started by the launching component)
+            Bucket newBucket = Retainer.newActivityBucket(parent.getIntent());
             // Inject it in the newly created fragment holder
             fragmentHolder.setBucket(newBucket);
+        } else if (fragmentHolder.getBucket() == null) {
+            // The process was killed, and the system recreated the holder fragment.
+            // Recreate the bucket, and restore its data from the snapshot
+            Bucket newBucket = new Bucket(MemoryBudget.getInstance());
+            File snapshotFile = fragmentHolder.getRestoredSnapshotFile();
+            if (snapshotFile != null) {
+                newBucket.restoreSnapshot(snapshotFile);
+            }
+            fragmentHolder.setBucket(newBucket);
         }
 
         // Return it
@@ -45,7 +58,10 @@ public class ActivityBucketManager implements BucketManager<Activity, FragmentHo
 
     @Override
     public void unregisterFragment(FragmentHolder fragment) {
-        // Inform the bucket that it's being destroyed
-        fragment.getBucket().destroy();
+        // Inform the bucket that it's being destroyed.
+        // There is no bucket if the holder was recreated after the process was killed, and nobody asked for it.
+        if (fragment.getBucket() != null) {
+            fragment.getBucket().destroy();
+        }
     }
 }
@@ -11,6 +11,7 @@ import java.util.Map;
 import si.dime.android.retainer.Bucket;
 import si.dime.android.retainer.BucketManager;
 import si.dime.android.retainer.FragmentHolder;
+import si.dime.android.retainer.MemoryBudget;
 import si.dime.android.retainer.SupportFragmentHolder;
 
 /**
@@ -64,7 +65,7 @@ public class FragmentBucketManager implements BucketManager<Fragment, FragmentHo
         parent.getChildFragmentManager().executePendingTransactions();
 
         // Create a brand new bucket
-        Bucket newBucket = new Bucket();
+        Bucket newBucket = new Bucket(MemoryBudget.getInstance());
         // Inject it in the newly created fragment holder
         fragmentHolder.setBucket(newBucket);
         // Put it in our internal map
@@ -95,6 +96,13 @@ public class FragmentBucketManager implements BucketManager<Fragment, FragmentHo
             fragment.setBucket(bucket);
             // Save it to our internal map
             buckets.put(fragment.getParentFragment(), bucket);
+        } else if (fragment.getBucket() == null && fragment.getRestoredSnapshotFile() != null) {
+            // The process was killed, and the system recreated the holder fragment.
+            // Recreate the bucket, and restore its data from the snapshot
+            Bucket bucket = new Bucket(MemoryBudget.getInstance());
+            bucket.restoreSnapshot(fragment.getRestoredSnapshotFile());
+            fragment.setBucket(bucket);
+            buckets.put(fragment.getParentFragment(), bucket);
         }
     }
 
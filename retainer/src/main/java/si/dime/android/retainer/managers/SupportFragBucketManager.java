@@ -8,6 +8,7 @@ import java.util.Map;
 
 import si.dime.android.retainer.Bucket;
 import si.dime.android.retainer.BucketManager;
+import si.dime.android.retainer.MemoryBudget;
 import si.dime.android.retainer.SupportFragmentHolder;
 
 /**
@@ -60,7 +61,7 @@ public class SupportFragBucketManager implements BucketManager<Fragment, Support
         parent.getChildFragmentManager().executePendingTransactions();
 
         // Create a brand new bucket
-        Bucket newBucket = new Bucket();
+        Bucket newBucket = new Bucket(MemoryBudget.getInstance());
         // Inject it in the newly created fragment holder
         fragmentHolder.setBucket(newBucket);
         // Put it in our internal map
@@ -91,6 +92,13 @@ public class SupportFragBucketManager implements BucketManager<Fragment, Support
             fragment.setBucket(bucket);
             // Save it to our internal map
             buckets.put(fragment.getParentFragment(), bucket);
+        } else if (fragment.getBucket() == null && fragment.getRestoredSnapshotFile() != null) {
+            // The process was killed, and the system recreated the holder fragment.
+            // Recreate the bucket, and restore its data from the snapshot
+            Bucket bucket = new Bucket(MemoryBudget.getInstance());
+            bucket.restoreSnapshot(fragment.getRestoredSnapshotFile());
+            fragment.setBucket(bucket);
+            buckets.put(fragment.getParentFragment(), bucket);
         }
     }
 
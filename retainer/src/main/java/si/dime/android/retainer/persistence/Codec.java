@@ -0,0 +1,39 @@
+package si.dime.android.retainer.persistence;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encodes the items of a handler into the snapshot, and decodes them back after the process is recreated.
+ */
+public interface Codec<T> {
+    /**
+     * Returns the version of the encoding. It is kept in the snapshot, and the entries written with another version
+     * are fetched again - so change it whenever the encoding changes (e.g. the model gets a new field).
+     *
+     * @return
+     */
+    int getVersion();
+
+    /**
+     * Writes the given item
+     *
+     * @param item
+     * @param out
+     * @throws IOException
+     */
+    void encode(@NonNull T item, @NonNull DataOutput out) throws IOException;
+
+    /**
+     * Reads an item written by encode()
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    @NonNull
+    T decode(@NonNull DataInput in) throws IOException;
+}
@@ -0,0 +1,77 @@
+package si.dime.android.retainer.persistence;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The codecs of the common types
+ */
+public final class Codecs {
+    //
+    // region Static fields
+    //
+
+    // Strings
+    public static final Codec<String> STRING = new Codec<String>() {
+        @Override
+        public int getVersion() {
+            return 1;
+        }
+
+        @Override
+        public void encode(String item, DataOutput out) throws IOException {
+            out.writeUTF(item);
+        }
+
+        @Override
+        public String decode(DataInput in) throws IOException {
+            return in.readUTF();
+        }
+    };
+
+    // Integers
+    public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+        @Override
+        public int getVersion() {
+            return 1;
+        }
+
+        @Override
+        public void encode(Integer item, DataOutput out) throws IOException {
+            out.writeInt(item);
+        }
+
+        @Override
+        public Integer decode(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    // Longs
+    public static final Codec<Long> LONG = new Codec<Long>() {
+        @Override
+        public int getVersion() {
+            return 1;
+        }
+
+        @Override
+        public void encode(Long item, DataOutput out) throws IOException {
+            out.writeLong(item);
+        }
+
+        @Override
+        public Long decode(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    //
+    // endregion Static fields
+    //
+
+    /**
+     * Private constructor
+     */
+    private Codecs() {}
+}
@@ -0,0 +1,480 @@
+package si.dime.android.retainer.persistence;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A binary snapshot of the data of a bucket.
+ *
+ * The file starts with an index of the entries (key, codec version, fetch time, number of items, size), followed by the encoded items
+ * of every entry. A snapshot is opened by memory-mapping the file and reading the index only - the items of an entry
+ * are decoded when the entry is read.
+ *
+ * The snapshots are written (and deleted) in the background, one at a time, in the order they were requested.
+ */
+public final class Snapshot {
+    //
+    // region Static fields
+    //
+
+    // The start of every snapshot file
+    private static final int MAGIC = 0x52544E53;
+
+    // The version of the format (the versions of the codecs are in the index)
+    private static final int VERSION = 2;
+
+    // Writes the snapshots, one at a time
+    private static final Executor WRITER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "Retainer-Snapshot");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The mapped file
+    private final ByteBuffer buffer;
+
+    // The index <Key, Entry>
+    private final Map<String, IndexEntry> index;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Private constructor
+     *
+     * @param buffer
+     * @param index
+     */
+    private Snapshot(ByteBuffer buffer, Map<String, IndexEntry> index) {
+        this.buffer = buffer;
+        this.index = index;
+    }
+
+    /**
+     * Opens the given snapshot file. Only the index is read.
+     *
+     * @param file
+     * @return
+     *      the snapshot, or null if the file doesn't exist
+     * @throws IOException
+     *      if the file can't be read or it is not a valid snapshot
+     */
+    @Nullable
+    public static Snapshot open(@NonNull File file) throws IOException {
+        // Nothing to restore
+        if (!file.isFile()) {
+            return null;
+        }
+
+        // Map the file. The mapping stays valid after the channel is closed.
+        MappedByteBuffer buffer;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+
+        // Read the index
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer.duplicate()));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a snapshot: " + file);
+        }
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Not a snapshot: " + file);
+        }
+        Map<String, IndexEntry> index = new HashMap<>(count * 2);
+        List<IndexEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            IndexEntry entry = new IndexEntry(in.readInt(), in.readLong(), in.readInt(), in.readInt());
+            index.put(key, entry);
+            entries.add(entry);
+        }
+
+        // The items follow the index
+        int offset = buffer.capacity() - in.available();
+        for (IndexEntry entry : entries) {
+            entry.offset = offset;
+            offset += entry.length;
+        }
+        if (offset > buffer.capacity()) {
+            throw new IOException("Truncated snapshot: " + file);
+        }
+
+        return new Snapshot(buffer, index);
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Public methods
+    //
+
+    /**
+     * Returns true if the snapshot has an entry for the given key
+     *
+     * @param key
+     * @return
+     */
+    public boolean contains(@NonNull String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Returns when the data of the given key was fetched (SystemClock.elapsedRealtime() at the time)
+     *
+     * @param key
+     * @return
+     */
+    public long getFetchedAt(@NonNull String key) {
+        IndexEntry entry = index.get(key);
+        return entry == null ? 0 : entry.fetchedAt;
+    }
+
+    /**
+     * Decodes the items of the given key
+     *
+     * @param key
+     * @param codec
+     * @return
+     *      the items, or null if there is no entry for the key
+     * @throws IOException
+     *      if the entry was written with another version of the codec, or the codec can't decode it
+     */
+    @Nullable
+    public <T> List<T> read(@NonNull String key, @NonNull Codec<T> codec) throws IOException {
+        IndexEntry entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.codecVersion != codec.getVersion()) {
+            throw new IOException("Stale entry: " + key);
+        }
+
+        // Read only the bytes of the entry
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(entry.offset);
+        slice.limit(entry.offset + entry.length);
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(slice));
+
+        List<T> items = new ArrayList<>(entry.itemCount);
+        try {
+            for (int i = 0; i < entry.itemCount; i++) {
+                items.add(codec.decode(in));
+            }
+        } catch (RuntimeException e) {
+            // The codec doesn't match the data
+            throw new IOException("Cannot decode " + key, e);
+        }
+        return items;
+    }
+
+    /**
+     * Forgets the entry of the given key, e.g. because it was restored or removed from the bucket
+     *
+     * @param key
+     */
+    public void remove(@NonNull String key) {
+        index.remove(key);
+    }
+
+    /**
+     * Returns true if all of the entries were forgotten
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /**
+     * Adds the entries that are not forgotten yet to the given builder, as they are (without decoding them)
+     *
+     * @param builder
+     */
+    public void copyTo(@NonNull Builder builder) {
+        for (Map.Entry<String, IndexEntry> entry : index.entrySet()) {
+            IndexEntry indexEntry = entry.getValue();
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(indexEntry.offset);
+            slice.limit(indexEntry.offset + indexEntry.length);
+            builder.addEncoded(entry.getKey(), indexEntry.codecVersion, indexEntry.fetchedAt, indexEntry.itemCount,
+                    slice.slice());
+        }
+    }
+
+    /**
+     * Writes a snapshot with the given entries to the given file, in the background.
+     * The file is replaced atomically - it either has the old or the new snapshot.
+     *
+     * @param file
+     * @param builder
+     */
+    public static void writeAsync(@NonNull final File file, @NonNull final Builder builder) {
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(file, builder);
+                } catch (IOException | RuntimeException e) {
+                    // A snapshot is only a cache - the data will be fetched again
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes the given snapshot file, in the background (after the pending writes)
+     *
+     * @param file
+     */
+    public static void deleteAsync(@NonNull final File file) {
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                file.delete();
+            }
+        });
+    }
+
+    //
+    // endregion Public methods
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Writes the snapshot
+     *
+     * @param file
+     * @param builder
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    private static void write(File file, Builder builder) throws IOException {
+        // Encode the items of every entry first - the index needs their sizes
+        int count = builder.keys.size();
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream payloadOut = new DataOutputStream(payload);
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            int start = payloadOut.size();
+            Object items = builder.items.get(i);
+            if (items instanceof ByteBuffer) {
+                // Already encoded
+                ByteBuffer encoded = ((ByteBuffer) items).duplicate();
+                byte[] bytes = new byte[encoded.remaining()];
+                encoded.get(bytes);
+                payloadOut.write(bytes);
+            } else {
+                List list = (List) items;
+                Codec codec = builder.codecs.get(i);
+                try {
+                    for (int j = 0, size = list.size(); j < size; j++) {
+                        codec.encode(list.get(j), payloadOut);
+                    }
+                } catch (RuntimeException e) {
+                    throw new IOException("Cannot encode " + builder.keys.get(i), e);
+                }
+            }
+            lengths[i] = payloadOut.size() - start;
+        }
+
+        // Write the index and the items in a temporary file
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeUTF(builder.keys.get(i));
+                out.writeInt(builder.codecVersions.get(i));
+                out.writeLong(builder.fetchedAt.get(i));
+                out.writeInt(builder.itemCounts.get(i));
+                out.writeInt(lengths[i]);
+            }
+            payload.writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        // And replace the old snapshot
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot write " + file);
+        }
+    }
+
+    //
+    // endregion Private methods
+    //
+
+    /**
+     * Collects the entries of a snapshot. The items are encoded in the background,
+     * so they must not be modified after they are added.
+     */
+    public static final class Builder {
+        // The entries
+        private final List<String> keys = new ArrayList<>();
+        private final List<Long> fetchedAt = new ArrayList<>();
+        private final List<Integer> itemCounts = new ArrayList<>();
+        private final List<Object> items = new ArrayList<>(); // A List, or an already encoded ByteBuffer
+        private final List<Codec> codecs = new ArrayList<>();
+        private final List<Integer> codecVersions = new ArrayList<>();
+
+        /**
+         * Adds an entry
+         *
+         * @param key
+         * @param fetchedAt
+         *      SystemClock.elapsedRealtime() when the data was fetched
+         * @param items
+         * @param codec
+         * @return
+         */
+        public Builder add(@NonNull String key, long fetchedAt, @NonNull List items, @NonNull Codec codec) {
+            this.keys.add(key);
+            this.fetchedAt.add(fetchedAt);
+            this.itemCounts.add(items.size());
+            this.items.add(items);
+            this.codecs.add(codec);
+            this.codecVersions.add(codec.getVersion());
+            return this;
+        }
+
+        /**
+         * Adds an already encoded entry
+         *
+         * @param key
+         * @param codecVersion
+         * @param fetchedAt
+         * @param itemCount
+         * @param encoded
+         */
+        private void addEncoded(String key, int codecVersion, long fetchedAt, int itemCount, ByteBuffer encoded) {
+            this.keys.add(key);
+            this.fetchedAt.add(fetchedAt);
+            this.itemCounts.add(itemCount);
+            this.items.add(encoded);
+            this.codecs.add(null);
+            this.codecVersions.add(codecVersion);
+        }
+
+        /**
+         * Returns true if there are no entries
+         *
+         * @return
+         */
+        public boolean isEmpty() {
+            return keys.isEmpty();
+        }
+    }
+
+    /**
+     * An entry of the index
+     */
+    private static final class IndexEntry {
+        // The version of the codec the items were encoded with
+        private final int codecVersion;
+
+        // When the data was fetched
+        private final long fetchedAt;
+
+        // The number of items
+        private final int itemCount;
+
+        // The size of the encoded items
+        private final int length;
+
+        // The position of the encoded items
+        private int offset;
+
+        IndexEntry(int codecVersion, long fetchedAt, int itemCount, int length) {
+            this.codecVersion = codecVersion;
+            this.fetchedAt = fetchedAt;
+            this.itemCount = itemCount;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Reads a ByteBuffer as a stream
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        // The buffer
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import rx.Observer;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the futures of the data, for the callers that don't observe the key.
+ */
+public class BlockingGetTest {
+    // The source of the data
+    private PublishSubject<Integer> subject;
+
+    // The number of subscriptions to the source
+    private int subscriptions;
+
+    // The items received by the registered observer
+    private List<Integer> observed;
+
+    // The bucket
+    private Bucket bucket;
+
+    @Before
+    public void setUp() {
+        // The dispatcher needs a looper for its handler
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        subject = PublishSubject.create();
+        subscriptions = 0;
+        observed = new ArrayList<>();
+        bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate());
+        bucket.registerRxHandler("key", new RxHandler(subject.doOnSubscribe(new Action0() {
+            @Override
+            public void call() {
+                subscriptions++;
+            }
+        }), new Observer<Integer>() {
+            @Override
+            public void onCompleted() {}
+
+            @Override
+            public void onError(Throwable e) {}
+
+            @Override
+            public void onNext(Integer integer) {
+                observed.add(integer);
+            }
+        }));
+    }
+
+    @Test
+    public void get_returnsTheCachedDataOnTheCallingThread() throws Exception {
+        bucket.requestData("key");
+        subject.onNext(1);
+        subject.onCompleted();
+        observed.clear();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List data = executor.submit(new Callable<List>() {
+                @Override
+                public List call() throws Exception {
+                    return bucket.get("key", 1, TimeUnit.SECONDS);
+                }
+            }).get();
+
+            assertEquals(Arrays.asList(1), data);
+            assertTrue(observed.isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void getAsync_joinsTheRunningRequest() throws Exception {
+        bucket.requestData("key");
+        subject.onNext(1);
+        Future<List> future = bucket.getAsync("key");
+        assertFalse(future.isDone());
+
+        subject.onNext(2);
+        subject.onCompleted();
+        assertEquals(Arrays.asList(1, 2), future.get(1, TimeUnit.SECONDS));
+        assertEquals(1, subscriptions);
+    }
+
+    @Test
+    public void getAsync_startsTheRequest() throws Exception {
+        Future<List> future = bucket.getAsync("key");
+        assertEquals(1, subscriptions);
+
+        subject.onNext(1);
+        subject.onCompleted();
+        assertEquals(Arrays.asList(1), future.get(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1), observed);
+    }
+
+    @Test
+    public void get_failsWithTheErrorOfTheRequest() throws Exception {
+        Future<List> future = bucket.getAsync("key");
+        IllegalArgumentException error = new IllegalArgumentException();
+        subject.onError(error);
+
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() == error);
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void get_timesOut() throws Exception {
+        bucket.requestData("key");
+        bucket.get("key", 20, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void get_onTheDeliveryThread() throws Exception {
+        bucket.enableConcurrentAccess();
+        bucket.get("key", 1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void get_onTheDeliveryThreadDoesNotRequestTheData() throws Exception {
+        bucket.enableConcurrentAccess();
+        try {
+            bucket.get("key", 1, TimeUnit.SECONDS);
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        try {
+            bucket.get(BucketKey.<Integer>of("key"), 1, TimeUnit.SECONDS);
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        assertEquals(0, subscriptions);
+        assertFalse(bucket.isRunning("key"));
+    }
+
+    @Test
+    public void get_onTheMainThread() throws Exception {
+        Bucket mainBucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate()) {
+            @Override
+            boolean isMainThread() {
+                return true;
+            }
+        };
+        mainBucket.registerRxHandler("key", new RxHandler(subject.doOnSubscribe(new Action0() {
+            @Override
+            public void call() {
+                subscriptions++;
+            }
+        }), new Observer<Integer>() {
+            @Override
+            public void onCompleted() {}
+
+            @Override
+            public void onError(Throwable e) {}
+
+            @Override
+            public void onNext(Integer integer) {}
+        }));
+
+        // Waiting would block the looper the data is delivered on
+        try {
+            mainBucket.get("key", 5, TimeUnit.SECONDS);
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals(0, subscriptions);
+
+        // The data that is already there is returned
+        mainBucket.requestData("key");
+        subject.onNext(1);
+        subject.onCompleted();
+        assertEquals(Arrays.asList(1), mainBucket.get("key", 5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void getAsync_fetchesTheCanceledDataAgain() throws Exception {
+        bucket.requestData("key");
+        subject.onNext(1);
+        bucket.cancelRequest("key");
+
+        Future<List> future = bucket.getAsync("key");
+        assertEquals(2, subscriptions);
+        subject.onNext(2);
+        subject.onCompleted();
+        assertEquals(Arrays.asList(2), future.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelRequest_cancelsTheFutures() {
+        Future<List> future = bucket.getAsync("key");
+        bucket.cancelRequest("key");
+
+        assertTrue(future.isCancelled());
+    }
+}
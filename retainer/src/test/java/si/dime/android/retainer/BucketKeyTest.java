@@ -0,0 +1,141 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Observer;
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the typed keys, and the table their entries are found in.
+ */
+public class BucketKeyTest {
+    // The key under test
+    private static final BucketKey<Integer> NUMBERS = BucketKey.of("numbers");
+
+    // The items received by the registered observer
+    private List<Integer> observed;
+
+    // The bucket
+    private Bucket bucket;
+
+    @Before
+    public void setUp() {
+        // The dispatcher needs a looper for its handler
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        observed = new ArrayList<>();
+        bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate());
+    }
+
+    @Test
+    public void typedKey_refersToTheDataOfItsName() throws Exception {
+        bucket.registerRxHandler(NUMBERS, handler(Observable.just(1, 2)));
+        bucket.requestImmediateData(NUMBERS);
+
+        assertTrue(bucket.dataExists("numbers"));
+        assertFalse(bucket.isRunning(NUMBERS));
+        List<Integer> numbers = bucket.get(NUMBERS, 1, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(1, 2), numbers);
+        assertEquals(Arrays.asList(1, 2), observed);
+    }
+
+    @Test
+    public void typedKey_findsTheKeyRegisteredByName() throws Exception {
+        bucket.registerRxHandler("numbers", handler(Observable.just(1)));
+
+        assertFalse(bucket.dataExists(NUMBERS));
+        assertFalse(bucket.requestImmediateData(NUMBERS));
+        assertTrue(bucket.requestImmediateData(NUMBERS));
+    }
+
+    @Test
+    public void typedKey_findsTheNewEntryAfterUnregister() throws Exception {
+        bucket.registerRxHandler(NUMBERS, handler(Observable.just(1)));
+        bucket.requestData(NUMBERS);
+        bucket.unregisterKey(NUMBERS);
+        assertFalse(bucket.dataExists(NUMBERS));
+
+        bucket.registerRxHandler("numbers", handler(Observable.just(2)));
+        bucket.requestData("numbers");
+        assertEquals(Arrays.asList(2), bucket.get(NUMBERS, 1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void typedKey_rawData() {
+        BucketKey<String> name = BucketKey.of("name");
+        bucket.putRawData(name, "value");
+
+        String value = bucket.getRawData(name);
+        assertEquals("value", value);
+        assertTrue(bucket.rawDataExists("name"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void typedKey_notRegistered() {
+        bucket.requestData(BucketKey.of("missing"));
+    }
+
+    @Test
+    public void keyTable_dropsTheRemovedEntriesWhenItGrows() {
+        KeyTable table = new KeyTable();
+        List<BucketKey<Object>> keys = new ArrayList<>();
+        List<KeyEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            BucketKey<Object> key = BucketKey.of("key" + i);
+            KeyEntry entry = new KeyEntry(key.getName());
+            table.put(key, entry);
+            keys.add(key);
+            entries.add(entry);
+
+            // Only the last one is kept
+            if (i > 0) {
+                entries.get(i - 1).removed = true;
+            }
+        }
+
+        for (int i = 0; i < 99; i++) {
+            assertNull(table.get(keys.get(i)));
+        }
+        assertTrue(table.get(keys.get(99)) == entries.get(99));
+        assertNull(table.get(BucketKey.of("key99")));
+    }
+
+    /**
+     * Returns a handler of the given observable, that collects the items in the observed list
+     *
+     * @param observable
+     * @return
+     */
+    private RxHandler handler(Observable<Integer> observable) {
+        return new RxHandler(observable, new Observer<Integer>() {
+            @Override
+            public void onCompleted() {}
+
+            @Override
+            public void onError(Throwable e) {}
+
+            @Override
+            public void onNext(Integer integer) {
+                observed.add(integer);
+            }
+        });
+    }
+}
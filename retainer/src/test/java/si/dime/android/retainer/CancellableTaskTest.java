@@ -0,0 +1,181 @@
+package si.dime.android.retainer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.CancellableTask;
+import si.dime.android.retainer.handlers.CancellationMetrics;
+import si.dime.android.retainer.handlers.CancellationToken;
+import si.dime.android.retainer.handlers.ExecutionClass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the canceled requests reach the running cancellable tasks, and that the wasted work is counted.
+ */
+public class CancellableTaskTest {
+    // The thread the tasks run on
+    private ExecutorService worker;
+
+    private Bucket bucket;
+    private CancellationMetrics metrics;
+
+    @Before
+    public void setUp() {
+        worker = Executors.newSingleThreadExecutor();
+        bucket = new Bucket(ExecutionClass.of(worker), Schedulers.immediate());
+        metrics = CancellationMetrics.getInstance();
+    }
+
+    @After
+    public void tearDown() {
+        worker.shutdownNow();
+    }
+
+    @Test
+    public void cancelRequest_interruptsTheRunningTask() throws Exception {
+        long canceled = metrics.getCanceledCount();
+        long wasted = metrics.getWastedCount();
+        RecordingTask task = new RecordingTask() {
+            @Override
+            public Object doInBackground(CancellationToken token) {
+                started.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                token.throwIfCanceled();
+                return "done";
+            }
+        };
+        bucket.registerTask("key", task);
+        bucket.requestData("key");
+        assertTrue(task.started.await(5, TimeUnit.SECONDS));
+
+        bucket.cancelRequest("key");
+
+        assertTrue(task.interrupted.await(5, TimeUnit.SECONDS));
+        assertFalse(threadIsInterrupted());
+        assertEquals(0, task.callbacks.get());
+        assertEquals(canceled + 1, metrics.getCanceledCount());
+        assertEquals(wasted, metrics.getWastedCount());
+    }
+
+    @Test
+    public void requestRefreshedData_cancelsTheRunningTask() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        RecordingTask task = new RecordingTask() {
+            @Override
+            public Object doInBackground(CancellationToken token) {
+                int run = runs.incrementAndGet();
+                if (run == 1) {
+                    started.countDown();
+                    while (!token.isCanceled()) {
+                        Thread.yield();
+                    }
+                    interrupted.countDown();
+                    return null;
+                }
+                return run;
+            }
+        };
+        bucket.registerTask("key", task);
+        bucket.requestData("key");
+        assertTrue(task.started.await(5, TimeUnit.SECONDS));
+
+        bucket.requestRefreshedData("key");
+
+        assertTrue(task.interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(2, bucket.get("key", 5, TimeUnit.SECONDS).get(0));
+    }
+
+    @Test
+    public void cancelRequest_countsTheWorkOfTheTasksIgnoringTheToken() throws Exception {
+        long wasted = metrics.getWastedCount();
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingTask task = new RecordingTask() {
+            @Override
+            public Object doInBackground(CancellationToken token) {
+                started.countDown();
+                // Ignores the token (and the interrupt)
+                while (release.getCount() > 0) {
+                    Thread.yield();
+                }
+                return "done";
+            }
+        };
+        bucket.registerTask("key", task);
+        bucket.requestData("key");
+        assertTrue(task.started.await(5, TimeUnit.SECONDS));
+
+        bucket.cancelRequest("key");
+        release.countDown();
+
+        assertFalse(threadIsInterrupted());
+        assertEquals(wasted + 1, metrics.getWastedCount());
+        assertEquals(0, task.callbacks.get());
+        assertFalse(bucket.isRunning("key"));
+    }
+
+    @Test
+    public void doInBackground_withoutARequestTheTokenIsNeverCanceled() {
+        RecordingTask task = new RecordingTask() {
+            @Override
+            public Object doInBackground(CancellationToken token) {
+                token.throwIfCanceled();
+                return token.isCanceled();
+            }
+        };
+
+        assertEquals(false, task.doInBackground());
+    }
+
+    /**
+     * Returns true if the thread of the tasks is still interrupted, once it finished the running task
+     *
+     * @return
+     * @throws Exception
+     */
+    private boolean threadIsInterrupted() throws Exception {
+        return worker.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return Thread.currentThread().isInterrupted();
+            }
+        }).get();
+    }
+
+    /**
+     * Counts the calls of the callbacks
+     */
+    private abstract static class RecordingTask extends CancellableTask<Object> {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicInteger callbacks = new AtomicInteger();
+
+        @Override
+        public void onPostExecute(Object o) {
+            callbacks.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            callbacks.incrementAndGet();
+        }
+
+        @Override
+        public void destroy(Object o) {}
+    }
+}
@@ -0,0 +1,290 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stresses a bucket in the concurrent mode from many threads at once.
+ * Every test repeats a race many times and checks the invariants that must hold after each of them.
+ */
+public class ConcurrentBucketTest {
+    // The number of the racing threads
+    private static final int THREADS = 4;
+
+    // The number of times a race is repeated
+    private static final int ROUNDS = 200;
+
+    // The delivery ("main") thread
+    private ExecutorService delivery;
+    private Thread deliveryThread;
+
+    // The racing threads
+    private ExecutorService racers;
+
+    @Before
+    public void setUp() throws Exception {
+        delivery = Executors.newSingleThreadExecutor();
+        deliveryThread = delivery.submit(new Callable<Thread>() {
+            @Override
+            public Thread call() {
+                // The dispatcher needs a looper for its handler
+                Looper.prepare();
+                return Thread.currentThread();
+            }
+        }).get();
+        racers = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        racers.shutdownNow();
+        delivery.shutdownNow();
+    }
+
+    @Test
+    public void rawData_racingPutsLeaveNoAccountedLeftovers() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(1000);
+        final Bucket bucket = newBucket(budget);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            race(new Runnable() {
+                private final AtomicInteger next = new AtomicInteger();
+
+                @Override
+                public void run() {
+                    int id = next.getAndIncrement();
+                    for (int i = 0; i < 50; i++) {
+                        String key = "key" + (i % 8);
+                        if ((i + id) % 3 == 0) {
+                            bucket.removeRawData(key);
+                        } else {
+                            bucket.putRawData(key, id, 40);
+                            Object value = bucket.getRawData(key);
+                            assertTrue(value == null || value instanceof Integer);
+                        }
+                    }
+                }
+            });
+
+            // Every accounted entry belongs to raw data that is still in the bucket
+            for (int i = 0; i < 8; i++) {
+                bucket.removeRawData("key" + i);
+            }
+            assertEquals(0, budget.getUsedBytes());
+        }
+    }
+
+    @Test
+    public void rawData_nullIsKept() {
+        Bucket bucket = newBucket(null);
+        bucket.putRawData("key", null);
+
+        assertTrue(bucket.rawDataExists("key"));
+        assertNull(bucket.getRawData("key"));
+    }
+
+    @Test
+    public void register_racingRegistrationsKeepTheFirstHandler() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            final Bucket bucket = newBucket(null);
+            final Set<Integer> registered = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+            final AtomicInteger next = new AtomicInteger();
+            race(new Runnable() {
+                @Override
+                public void run() {
+                    final int id = next.getAndIncrement();
+                    bucket.registerRxHandler("key", new RxHandler(Observable.just(id), new Observer<Integer>() {
+                        @Override
+                        public void onCompleted() {}
+
+                        @Override
+                        public void onError(Throwable e) {}
+
+                        @Override
+                        public void onNext(Integer integer) {
+                            registered.add(integer);
+                        }
+                    }));
+                }
+            });
+
+            // Only one of the handlers is registered - its own item is delivered to it
+            requestAndWait(bucket, "key");
+            assertEquals(1, registered.size());
+        }
+    }
+
+    @Test
+    public void requestData_racingRequestsFetchOnceOnTheDeliveryThread() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            final Bucket bucket = newBucket(null);
+            final AtomicInteger subscriptions = new AtomicInteger();
+            final List<Thread> callbackThreads = new ArrayList<>();
+            bucket.registerRxHandler("key", new RxHandler(Observable.just(1, 2).doOnSubscribe(new Action0() {
+                @Override
+                public void call() {
+                    subscriptions.incrementAndGet();
+                }
+            }), new Observer<Integer>() {
+                @Override
+                public void onCompleted() {
+                    callbackThreads.add(Thread.currentThread());
+                }
+
+                @Override
+                public void onError(Throwable e) {}
+
+                @Override
+                public void onNext(Integer integer) {
+                    callbackThreads.add(Thread.currentThread());
+                }
+            }));
+
+            race(new Runnable() {
+                @Override
+                public void run() {
+                    assertFalse(bucket.requestImmediateData("key"));
+                }
+            });
+            awaitDelivery();
+
+            assertEquals(1, subscriptions.get());
+            assertTrue(bucket.dataExists("key"));
+            assertFalse(callbackThreads.isEmpty());
+            for (Thread thread : callbackThreads) {
+                assertTrue(thread == deliveryThread);
+            }
+        }
+    }
+
+    @Test
+    public void removeData_fromAnotherThreadIsHandledOnTheDeliveryThread() throws Exception {
+        Bucket bucket = newBucket(null);
+        bucket.registerRxHandler("key", new RxHandler(Observable.just(1), new Observer<Integer>() {
+            @Override
+            public void onCompleted() {}
+
+            @Override
+            public void onError(Throwable e) {}
+
+            @Override
+            public void onNext(Integer integer) {}
+        }));
+        requestAndWait(bucket, "key");
+        assertTrue(bucket.dataExists("key"));
+
+        bucket.removeData("key");
+        awaitDelivery();
+        assertFalse(bucket.dataExists("key"));
+    }
+
+    /**
+     * Creates a bucket in the concurrent mode, on the delivery thread
+     *
+     * @param budget
+     * @return
+     */
+    private Bucket newBucket(final MemoryBudget budget) {
+        try {
+            return delivery.submit(new Callable<Bucket>() {
+                @Override
+                public Bucket call() {
+                    Bucket bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.from(delivery),
+                            new ExecutionEngine(), budget);
+                    bucket.enableConcurrentAccess();
+                    return bucket;
+                }
+            }).get();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Runs the given runnable on all of the racing threads at once, and waits for them
+     *
+     * @param runnable
+     * @throws Exception
+     */
+    private void race(final Runnable runnable) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(racers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    runnable.run();
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+
+        // Rethrows the failures of the racers
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Requests the data from another thread, and waits for it to be delivered
+     *
+     * @param bucket
+     * @param key
+     * @throws Exception
+     */
+    private void requestAndWait(final Bucket bucket, final String key) throws Exception {
+        racers.submit(new Runnable() {
+            @Override
+            public void run() {
+                bucket.requestImmediateData(key);
+            }
+        }).get();
+        awaitDelivery();
+    }
+
+    /**
+     * Waits for the delivery thread to run everything handed to it so far (and what that schedules in turn)
+     *
+     * @throws Exception
+     */
+    private void awaitDelivery() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            delivery.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // Nothing to do
+                }
+            }).get();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package si.dime.android.retainer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Observer;
+import rx.schedulers.Schedulers;
+import rx.schedulers.TestScheduler;
+import si.dime.android.retainer.handlers.DeliveryMode;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks where the observers receive the results, depending on the delivery mode of the handler.
+ */
+public class DeliveryModeTest {
+    // The "main" thread - its messages run only when the test triggers them
+    private TestScheduler mainScheduler;
+
+    // The thread the work runs on, and a thread the results can be delivered on
+    private ExecutorService worker;
+    private ExecutorService receiver;
+
+    @Before
+    public void setUp() {
+        mainScheduler = new TestScheduler();
+        worker = Executors.newSingleThreadExecutor(named("worker"));
+        receiver = Executors.newSingleThreadExecutor(named("receiver"));
+    }
+
+    @After
+    public void tearDown() {
+        worker.shutdownNow();
+        receiver.shutdownNow();
+    }
+
+    @Test
+    public void background_deliversOnTheWorkerThreadWithoutTheMainThread() throws Exception {
+        Bucket bucket = new Bucket(ExecutionClass.of(worker), mainScheduler);
+        RecordingObserver observer = new RecordingObserver();
+        bucket.registerRxHandler("key", new RxHandler(Observable.just(1, 2), observer)
+                .setDeliveryMode(DeliveryMode.BACKGROUND));
+
+        bucket.requestData("key");
+        observer.await();
+
+        assertEquals(Arrays.asList(1, 2), observer.items);
+        assertEquals(Arrays.asList("worker", "worker", "worker"), observer.threads);
+
+        // The result is recorded on the main thread, with a single message
+        idle(worker);
+        assertTrue(bucket.isRunning("key"));
+        mainScheduler.triggerActions();
+        assertFalse(bucket.isRunning("key"));
+        assertTrue(bucket.dataExists("key"));
+        assertEquals(3, observer.threads.size());
+    }
+
+    @Test
+    public void executor_deliversOnTheExecutorInOrder() throws Exception {
+        Bucket bucket = new Bucket(ExecutionClass.of(worker), mainScheduler);
+        RecordingObserver observer = new RecordingObserver();
+        bucket.registerRxHandler("key", new RxHandler(Observable.range(0, 100), observer)
+                .setDeliveryMode(DeliveryMode.on(receiver)));
+
+        bucket.requestData("key");
+        observer.await();
+
+        assertEquals(100, observer.items.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, observer.items.get(i));
+            assertEquals("receiver", observer.threads.get(i));
+        }
+    }
+
+    @Test
+    public void background_replaysTheCachedDataOffTheMainThread() throws Exception {
+        Bucket bucket = new Bucket(ExecutionClass.of(worker), mainScheduler);
+        RecordingObserver observer = new RecordingObserver(2);
+        bucket.registerRxHandler("key", new RxHandler(Observable.just(1), observer)
+                .setDeliveryMode(DeliveryMode.BACKGROUND));
+        bucket.requestData("key");
+        idle(worker);
+        mainScheduler.triggerActions();
+
+        // Request it again
+        assertTrue(bucket.requestImmediateData("key"));
+        observer.await();
+
+        assertEquals(Arrays.asList(1, 1), observer.items);
+        assertEquals(Arrays.asList("worker", "worker", "worker", "worker"), observer.threads);
+    }
+
+    @Test
+    public void mainThread_deliversTheResultsProducedOnItDirectly() {
+        Bucket bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), mainScheduler);
+        bucket.enableConcurrentAccess();
+        RecordingObserver observer = new RecordingObserver();
+        bucket.registerRxHandler("key", new RxHandler(Observable.just(1, 2), observer));
+
+        // Without any message of the main thread
+        bucket.requestData("key");
+
+        assertEquals(Arrays.asList(1, 2), observer.items);
+        assertEquals(0, observer.done.getCount());
+        assertTrue(bucket.dataExists("key"));
+    }
+
+    @Test
+    public void mainThread_postsTheResultsProducedElsewhere() throws Exception {
+        Bucket bucket = new Bucket(ExecutionClass.of(worker), mainScheduler);
+        bucket.enableConcurrentAccess();
+        RecordingObserver observer = new RecordingObserver();
+        bucket.registerRxHandler("key", new RxHandler(Observable.just(1, 2), observer));
+
+        bucket.requestData("key");
+        idle(worker);
+        assertTrue(observer.items.isEmpty());
+
+        mainScheduler.triggerActions();
+        assertEquals(Arrays.asList(1, 2), observer.items);
+        assertEquals(Thread.currentThread().getName(), observer.threads.get(0));
+    }
+
+    /**
+     * Waits until the given executor runs everything submitted so far
+     *
+     * @param executor
+     * @throws Exception
+     */
+    private static void idle(ExecutorService executor) throws Exception {
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {}
+        }).get();
+    }
+
+    /**
+     * Returns a thread factory of the threads with the given name
+     *
+     * @param name
+     * @return
+     */
+    private static ThreadFactory named(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, name);
+            }
+        };
+    }
+
+    /**
+     * Records the items and the threads of the events
+     */
+    private static class RecordingObserver implements Observer<Object> {
+        final List<Object> items = new CopyOnWriteArrayList<>();
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        final CountDownLatch done;
+
+        RecordingObserver() {
+            this(1);
+        }
+
+        RecordingObserver(int completions) {
+            done = new CountDownLatch(completions);
+        }
+
+        @Override
+        public void onCompleted() {
+            threads.add(Thread.currentThread().getName());
+            done.countDown();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            threads.add(Thread.currentThread().getName());
+            done.countDown();
+        }
+
+        @Override
+        public void onNext(Object o) {
+            items.add(o);
+            threads.add(Thread.currentThread().getName());
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package si.dime.android.retainer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.CancellationToken;
+import si.dime.android.retainer.handlers.Dependencies;
+import si.dime.android.retainer.handlers.DependentTask;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the keys with dependencies get the data of the keys they depend on, fetched in parallel and reused.
+ */
+public class DependentTaskTest {
+    // The threads the tasks run on
+    private ExecutorService workers;
+
+    private Bucket bucket;
+
+    @Before
+    public void setUp() {
+        workers = Executors.newFixedThreadPool(4);
+        bucket = new Bucket(ExecutionClass.of(workers), Schedulers.immediate());
+    }
+
+    @After
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    public void requestData_runsTheIndependentKeysInParallel() throws Exception {
+        // Both of the keys must be running at the same time to pass the barrier
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        bucket.registerTask("user", new ValueTask() {
+            @Override
+            public Object doInBackground() {
+                await(barrier);
+                return "dime";
+            }
+        });
+        bucket.registerTask("settings", new ValueTask() {
+            @Override
+            public Object doInBackground() {
+                await(barrier);
+                return "dark";
+            }
+        });
+        bucket.registerDependentTask("screen", new JoiningTask() {
+            @Override
+            public Object doInBackground(Dependencies dependencies, CancellationToken token) {
+                return dependencies.get("user").get(0) + "/" + dependencies.get("settings").get(0);
+            }
+        }, "user", "settings");
+
+        assertEquals("dime/dark", bucket.get("screen", 5, TimeUnit.SECONDS).get(0));
+        assertTrue(bucket.dataExists("user"));
+        assertTrue(bucket.dataExists("settings"));
+    }
+
+    @Test
+    public void requestData_reusesTheDataOfTheChain() throws Exception {
+        final AtomicInteger userRuns = new AtomicInteger();
+        final Thread testThread = Thread.currentThread();
+        final Thread[] ordersThread = new Thread[1];
+        bucket.registerTask("user", new ValueTask() {
+            @Override
+            public Object doInBackground() {
+                return "user-" + userRuns.incrementAndGet();
+            }
+        });
+        bucket.registerDependentTask("orders", new JoiningTask() {
+            @Override
+            public Object doInBackground(Dependencies dependencies, CancellationToken token) {
+                ordersThread[0] = Thread.currentThread();
+                return dependencies.get("user").get(0) + ":orders";
+            }
+        }, "user");
+        bucket.registerDependentTask("details", new JoiningTask() {
+            @Override
+            public Object doInBackground(Dependencies dependencies, CancellationToken token) {
+                return dependencies.get("orders").get(0) + ":details";
+            }
+        }, "orders");
+
+        assertEquals("user-1:orders:details", bucket.get("details", 5, TimeUnit.SECONDS).get(0));
+        assertEquals("user-1:orders", bucket.get("orders", 5, TimeUnit.SECONDS).get(0));
+
+        // Only the refreshed key runs again
+        bucket.requestRefreshedData("details");
+        assertEquals("user-1:orders:details", bucket.get("details", 5, TimeUnit.SECONDS).get(0));
+        assertEquals(1, userRuns.get());
+        assertNotSame(testThread, ordersThread[0]);
+    }
+
+    @Test
+    public void requestData_failsWithTheErrorOfTheDependency() throws Exception {
+        final RuntimeException error = new RuntimeException("offline");
+        final AtomicInteger runs = new AtomicInteger();
+        bucket.registerTask("user", new ValueTask() {
+            @Override
+            public Object doInBackground() {
+                throw error;
+            }
+        });
+        bucket.registerDependentTask("orders", new JoiningTask() {
+            @Override
+            public Object doInBackground(Dependencies dependencies, CancellationToken token) {
+                runs.incrementAndGet();
+                return "orders";
+            }
+        }, "user");
+
+        try {
+            bucket.get("orders", 5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+        assertEquals(0, runs.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registerDependentTask_rejectsCycles() {
+        bucket.registerDependentTask("a", new JoiningTask(), "b");
+        bucket.registerDependentTask("b", new JoiningTask(), "c");
+        bucket.registerDependentTask("c", new JoiningTask(), "a");
+    }
+
+    /**
+     * Waits for the other party of the given barrier
+     *
+     * @param barrier
+     */
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException("The keys didn't run in parallel", e);
+        }
+    }
+
+    /**
+     * A task without callbacks
+     */
+    private abstract static class ValueTask implements Task<Object> {
+        @Override
+        public void onPostExecute(Object o) {}
+
+        @Override
+        public void onError(Throwable e) {}
+
+        @Override
+        public void destroy(Object o) {}
+    }
+
+    /**
+     * A dependent task without callbacks
+     */
+    private static class JoiningTask extends DependentTask<Object> {
+        @Override
+        public Object doInBackground(Dependencies dependencies, CancellationToken token) {
+            return null;
+        }
+
+        @Override
+        public void onPostExecute(Object o) {}
+
+        @Override
+        public void onError(Throwable e) {}
+
+        @Override
+        public void destroy(Object o) {}
+    }
+}
@@ -0,0 +1,124 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.Observable;
+import rx.Observer;
+import rx.Scheduler;
+import rx.android.plugins.RxAndroidPlugins;
+import rx.android.plugins.RxAndroidSchedulersHook;
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.Destroyer;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the destroyers of the handlers get the data that is removed.
+ */
+public class DestroyerTest {
+    // The destroyed items
+    private List<Object> destroyed;
+
+    // The number of destroyCompleted() calls
+    private int completed;
+
+    // The bucket
+    private Bucket bucket;
+
+    @Before
+    public void setUp() {
+        // The dispatcher needs a looper for its handler
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        // There is no main looper in the tests - deliver right away instead
+        RxAndroidPlugins.getInstance().reset();
+        RxAndroidPlugins.getInstance().registerSchedulersHook(new RxAndroidSchedulersHook() {
+            @Override
+            public Scheduler getMainThreadScheduler() {
+                return Schedulers.immediate();
+            }
+        });
+
+        destroyed = new ArrayList<>();
+        completed = 0;
+        bucket = new Bucket();
+    }
+
+    @After
+    public void tearDown() {
+        RxAndroidPlugins.getInstance().reset();
+    }
+
+    @Test
+    public void removeData_callsTheDestroyer() throws Exception {
+        bucket.registerRxHandler("key", new RxHandler(Observable.just("a", "b"), new EmptyObserver(),
+                new Destroyer<Object>() {
+                    @Override
+                    public void destroy(Object o) {
+                        destroyed.add(o);
+                    }
+
+                    @Override
+                    public void destroyCompleted() {
+                        completed++;
+                    }
+                }));
+        bucket.requestData("key");
+        awaitData("key");
+
+        bucket.removeData("key");
+        assertEquals(Arrays.<Object>asList("a", "b"), destroyed);
+        assertEquals(1, completed);
+    }
+
+    @Test
+    public void removeData_withoutADestroyer() throws Exception {
+        bucket.registerRxHandler("key", new RxHandler(Observable.just("a"), new EmptyObserver()));
+        bucket.requestData("key");
+        awaitData("key");
+
+        bucket.removeData("key");
+        assertFalse(bucket.dataExists("key"));
+        assertTrue(destroyed.isEmpty());
+    }
+
+    /**
+     * Waits until the request of the given key, running in the background, is finished
+     *
+     * @param key
+     * @throws InterruptedException
+     */
+    private void awaitData(String key) throws InterruptedException {
+        for (int i = 0; i < 500 && (bucket.isRunning(key) || !bucket.dataExists(key)); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(bucket.dataExists(key));
+    }
+
+    /**
+     * Ignores the data
+     */
+    private static final class EmptyObserver implements Observer<Object> {
+        @Override
+        public void onCompleted() {}
+
+        @Override
+        public void onError(Throwable e) {}
+
+        @Override
+        public void onNext(Object o) {}
+    }
+}
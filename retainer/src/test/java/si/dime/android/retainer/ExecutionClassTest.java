@@ -0,0 +1,147 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the work of the handlers is subscribed on the scheduler of their execution class.
+ */
+public class ExecutionClassTest {
+    // The thread of the custom executor
+    private static final String EXECUTOR_THREAD = "Test-Executor";
+
+    // The custom executor
+    private ExecutorService executor;
+
+    // The thread the source was subscribed on
+    private volatile Thread subscribeThread;
+
+    // Released once the source is subscribed
+    private CountDownLatch subscribed;
+
+    @Before
+    public void setUp() {
+        // The dispatcher needs a looper for its handler
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, EXECUTOR_THREAD);
+            }
+        });
+        subscribed = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void io_subscribesOnTheIoScheduler() throws Exception {
+        request(newBucket(), ExecutionClass.IO);
+
+        assertTrue(subscribeThread.getName().startsWith("RxCachedThreadScheduler"));
+    }
+
+    @Test
+    public void cpu_subscribesOnTheComputationScheduler() throws Exception {
+        request(newBucket(), ExecutionClass.CPU);
+
+        assertTrue(subscribeThread.getName().startsWith("RxComputationThreadPool"));
+    }
+
+    @Test
+    public void ofExecutor_subscribesOnTheExecutor() throws Exception {
+        request(newBucket(), ExecutionClass.of(executor));
+
+        assertTrue(subscribeThread.getName().startsWith(EXECUTOR_THREAD));
+    }
+
+    @Test
+    public void noExecutionClass_subscribesOnTheDefaultOfTheBucket() throws Exception {
+        // The buckets run the handlers without an execution class on the IO scheduler
+        Bucket bucket = new Bucket();
+        request(bucket, null);
+        assertTrue(subscribeThread.getName().startsWith("RxCachedThreadScheduler"));
+        bucket.destroy();
+
+        // Unless the default is changed
+        subscribed = new CountDownLatch(1);
+        Bucket executorBucket = newBucket();
+        executorBucket.setDefaultExecutionClass(ExecutionClass.of(executor));
+        request(executorBucket, null);
+        assertTrue(subscribeThread.getName().startsWith(EXECUTOR_THREAD));
+    }
+
+    @Test
+    public void ofScheduler_subscribesOnTheScheduler() throws Exception {
+        request(newBucket(), ExecutionClass.of(Schedulers.immediate()));
+
+        assertSame(Thread.currentThread(), subscribeThread);
+    }
+
+    /**
+     * Returns a new bucket that delivers the results immediately
+     *
+     * @return
+     */
+    private static Bucket newBucket() {
+        return new Bucket(ExecutionClass.IO, Schedulers.immediate());
+    }
+
+    /**
+     * Requests the data of a handler with the given execution class, and waits until its source is subscribed
+     *
+     * @param bucket
+     * @param executionClass
+     *      the execution class of the handler, or null for the default of the bucket
+     */
+    private void request(Bucket bucket, ExecutionClass executionClass) throws InterruptedException {
+        RxHandler handler = new RxHandler(Observable.just(1).doOnSubscribe(new Action0() {
+            @Override
+            public void call() {
+                subscribeThread = Thread.currentThread();
+                subscribed.countDown();
+            }
+        }), new Observer<Object>() {
+            @Override
+            public void onCompleted() {}
+
+            @Override
+            public void onError(Throwable e) {}
+
+            @Override
+            public void onNext(Object o) {}
+        });
+        if (executionClass != null) {
+            handler.setExecutionClass(executionClass);
+        }
+        bucket.registerRxHandler("key", handler);
+        bucket.requestData("key");
+
+        assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,156 @@
+package si.dime.android.retainer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.Observable;
+import rx.Observer;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the limits and the priorities of the execution engine.
+ */
+public class ExecutionEngineTest {
+    // The engine
+    private ExecutionEngine engine;
+
+    // The order the jobs started in
+    private List<String> started;
+
+    @Before
+    public void setUp() {
+        engine = new ExecutionEngine();
+        started = new ArrayList<>();
+    }
+
+    @Test
+    public void submit_overTheLimit_startsByPriorityThenInOrder() {
+        engine.setMaxInFlight(1);
+        ExecutionEngine.Group group = engine.newGroup();
+
+        ExecutionEngine.Job first = submit(group, ExecutionEngine.PRIORITY_NORMAL, "first");
+        submit(group, ExecutionEngine.PRIORITY_BACKGROUND, "background");
+        submit(group, ExecutionEngine.PRIORITY_NORMAL, "normal");
+        ExecutionEngine.Job visible = submit(group, ExecutionEngine.PRIORITY_USER_VISIBLE, "visible");
+        assertEquals(3, engine.getQueueDepth());
+
+        first.finish();
+        assertEquals(Arrays.asList("first", "visible"), started);
+
+        // Finishing twice doesn't free two slots
+        first.finish();
+        assertEquals(2, started.size());
+
+        visible.finish();
+        assertEquals(Arrays.asList("first", "visible", "normal"), started);
+        assertEquals(1, engine.getQueueDepth());
+        assertEquals(3, engine.getStartedCount());
+    }
+
+    @Test
+    public void submit_overTheGroupLimit_letsOtherGroupsStart() {
+        ExecutionEngine.Group busy = engine.newGroup();
+        ExecutionEngine.Group idle = engine.newGroup();
+        busy.setMaxInFlight(1);
+
+        submit(busy, ExecutionEngine.PRIORITY_USER_VISIBLE, "busy1");
+        submit(busy, ExecutionEngine.PRIORITY_USER_VISIBLE, "busy2");
+        submit(idle, ExecutionEngine.PRIORITY_BACKGROUND, "idle");
+
+        assertEquals(Arrays.asList("busy1", "idle"), started);
+        assertEquals(1, busy.getQueueDepth());
+        assertEquals(2, engine.getInFlightCount());
+    }
+
+    @Test
+    public void finish_whileQueued_neverStarts() {
+        engine.setMaxInFlight(1);
+        ExecutionEngine.Group group = engine.newGroup();
+
+        ExecutionEngine.Job running = submit(group, ExecutionEngine.PRIORITY_NORMAL, "running");
+        ExecutionEngine.Job canceled = submit(group, ExecutionEngine.PRIORITY_NORMAL, "canceled");
+        canceled.finish();
+        assertEquals(0, engine.getQueueDepth());
+
+        running.finish();
+        assertEquals(Arrays.asList("running"), started);
+        assertEquals(0, engine.getInFlightCount());
+    }
+
+    @Test
+    public void bucket_overItsLimit_queuesAndCancelsRequests() {
+        Bucket bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate(), engine);
+        bucket.setMaxInFlight(1);
+
+        PublishSubject<Integer> first = PublishSubject.create();
+        PublishSubject<Integer> second = PublishSubject.create();
+        bucket.registerRxHandler("first", new RxHandler(first, new NoOpObserver()));
+        bucket.registerRxHandler("second", new RxHandler(second, new NoOpObserver()));
+        bucket.registerRxHandler("third", new RxHandler(Observable.just(3), new NoOpObserver()),
+                ExecutionEngine.PRIORITY_USER_VISIBLE);
+
+        bucket.requestData("first");
+        bucket.requestData("second");
+        bucket.requestData("third");
+        assertTrue(first.hasObservers());
+        assertFalse(second.hasObservers());
+        assertEquals(2, bucket.getQueueDepth());
+        assertTrue(bucket.isRunning("third"));
+
+        // A canceled request leaves the queue
+        bucket.cancelRequest("second");
+        assertEquals(1, bucket.getQueueDepth());
+
+        // The user visible request goes next, and frees its slot when it completes
+        first.onCompleted();
+        assertFalse(bucket.isRunning("third"));
+        assertTrue(bucket.dataExists("third"));
+        assertEquals(0, bucket.getQueueDepth());
+        assertEquals(0, engine.getInFlightCount());
+        assertFalse(second.hasObservers());
+    }
+
+    /**
+     * Submits a job that records its start
+     *
+     * @param group
+     * @param priority
+     * @param name
+     * @return
+     */
+    private ExecutionEngine.Job submit(ExecutionEngine.Group group, int priority, final String name) {
+        ExecutionEngine.Job job = engine.newJob(group, priority);
+        engine.submit(job, new Runnable() {
+            @Override
+            public void run() {
+                started.add(name);
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Ignores everything
+     */
+    private static final class NoOpObserver implements Observer<Object> {
+        @Override
+        public void onCompleted() {}
+
+        @Override
+        public void onError(Throwable e) {}
+
+        @Override
+        public void onNext(Object o) {}
+    }
+}
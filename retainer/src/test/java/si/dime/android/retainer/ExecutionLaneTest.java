@@ -0,0 +1,205 @@
+package si.dime.android.retainer;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.observers.Observers;
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the work of a lane runs one at a time, in order, and that the waiting requests with the same share key
+ * are merged.
+ */
+public class ExecutionLaneTest {
+
+    @Test
+    public void lane_returnsTheSameLaneForTheSameName() {
+        assertSame(ExecutionClass.lane("same"), ExecutionClass.lane("same"));
+        assertEquals("same", ExecutionClass.lane("same").getLane());
+    }
+
+    @Test
+    public void lane_runsTheWorkOneAtATimeInOrder() throws Exception {
+        ExecutionClass lane = ExecutionClass.lane("serial");
+        Bucket bucket = new Bucket(lane, Schedulers.immediate());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(10);
+
+        for (int i = 0; i < 10; i++) {
+            final int id = i;
+            bucket.registerRxHandler("key" + i, new RxHandler(Observable.create(new Observable.OnSubscribe<Object>() {
+                @Override
+                public void call(Subscriber<? super Object> subscriber) {
+                    maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+                    sleep(2);
+                    order.add(id);
+                    running.decrementAndGet();
+                    subscriber.onCompleted();
+                    done.countDown();
+                }
+            }), Observers.empty()));
+        }
+        for (int i = 0; i < 10; i++) {
+            bucket.requestData("key" + i);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void lane_otherLanesKeepRunning() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Bucket blocked = new Bucket(ExecutionClass.lane("blocked"), Schedulers.immediate());
+        blocked.registerRxHandler("key", new RxHandler(blocking(release, new CountDownLatch(1)), Observers.empty()));
+        blocked.requestData("key");
+
+        Bucket free = new Bucket(ExecutionClass.lane("free"), Schedulers.immediate());
+        final CountDownLatch done = new CountDownLatch(1);
+        free.registerRxHandler("key", new RxHandler(Observable.just(1), Observers.create(new Action1<Object>() {
+            @Override
+            public void call(Object o) {
+                done.countDown();
+            }
+        })));
+        free.requestData("key");
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void lane_runsTheSameKeyOfOtherHandlersSeparately() throws Exception {
+        ExecutionClass lane = ExecutionClass.lane("separate");
+        CountDownLatch release = block(lane);
+
+        // The same key name in two unrelated buckets
+        AtomicInteger runs = new AtomicInteger();
+        Bucket first = new Bucket(lane, Schedulers.immediate());
+        Bucket second = new Bucket(lane, Schedulers.immediate());
+        first.registerRxHandler("user", new RxHandler(counting(runs), Observers.empty()));
+        second.registerRxHandler("user", new RxHandler(counting(runs), Observers.empty()));
+        first.requestData("user");
+        second.requestData("user");
+        assertEquals(0, LaneQueue.getInstance().size());
+
+        release.countDown();
+        assertEquals(1, (int) first.get("user", 5, TimeUnit.SECONDS).get(0));
+        assertEquals(2, (int) second.get("user", 5, TimeUnit.SECONDS).get(0));
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void lane_mergesTheWaitingRequestsWithTheSameShareKey() throws Exception {
+        ExecutionClass lane = ExecutionClass.lane("merging");
+        CountDownLatch release = block(lane);
+
+        // The same share key in two buckets
+        AtomicInteger runs = new AtomicInteger();
+        Bucket first = new Bucket(lane, Schedulers.immediate());
+        Bucket second = new Bucket(lane, Schedulers.immediate());
+        first.registerRxHandler("user", new RxHandler(counting(runs), Observers.empty()).setShareKey("user/1"));
+        second.registerRxHandler("user", new RxHandler(counting(runs), Observers.empty()).setShareKey("user/1"));
+        first.requestData("user");
+        second.requestData("user");
+        assertEquals(1, LaneQueue.getInstance().size());
+
+        release.countDown();
+        assertEquals(1, (int) second.get("user", 5, TimeUnit.SECONDS).get(0));
+        assertEquals(1, (int) first.get("user", 5, TimeUnit.SECONDS).get(0));
+        assertEquals(1, runs.get());
+        assertEquals(0, LaneQueue.getInstance().size());
+
+        // Once it ran, the next request runs again
+        first.requestRefreshedData("user");
+        assertEquals(2, (int) first.get("user", 5, TimeUnit.SECONDS).get(0));
+    }
+
+    /**
+     * Keeps the given lane busy, so the next requests wait
+     *
+     * @param lane
+     * @return
+     *      the latch that releases the lane
+     */
+    private static CountDownLatch block(ExecutionClass lane) throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        Bucket blocker = new Bucket(lane, Schedulers.immediate());
+        blocker.registerRxHandler("blocker", new RxHandler(blocking(release, started), Observers.empty()));
+        blocker.requestData("blocker");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    /**
+     * Returns an observable that completes once the given latch is released
+     *
+     * @param release
+     * @param started
+     *      released when the observable starts running
+     * @return
+     */
+    private static Observable<Object> blocking(final CountDownLatch release, final CountDownLatch started) {
+        return Observable.create(new Observable.OnSubscribe<Object>() {
+            @Override
+            public void call(Subscriber<? super Object> subscriber) {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                subscriber.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Returns an observable that emits the number of its runs
+     *
+     * @param runs
+     * @return
+     */
+    private static Observable<Object> counting(final AtomicInteger runs) {
+        return Observable.create(new Observable.OnSubscribe<Object>() {
+            @Override
+            public void call(Subscriber<? super Object> subscriber) {
+                subscriber.onNext(runs.incrementAndGet());
+                subscriber.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Sleeps for the given number of milliseconds
+     *
+     * @param millis
+     */
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
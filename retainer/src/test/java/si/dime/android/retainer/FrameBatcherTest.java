@@ -0,0 +1,201 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.Subscription;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import si.dime.android.retainer.handlers.BatchObserver;
+import si.dime.android.retainer.handlers.BatchingRxHandler;
+import si.dime.android.retainer.handlers.ExecutionClass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that the emissions of the batching handlers are grouped and delivered once per frame.
+ */
+public class FrameBatcherTest {
+    // The frames
+    private TestFrameScheduler frames;
+
+    // The source of the items
+    private PublishSubject<Object> source;
+
+    // What the child got, in order
+    private final List<Object> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+        frames = new TestFrameScheduler();
+        source = PublishSubject.create();
+        events.clear();
+    }
+
+    @Test
+    public void onNext_deliversTheFirstItemWithoutWaitingForAFrame() {
+        subscribe();
+
+        source.onNext(1);
+        frames.runPosts();
+
+        assertEquals(Arrays.<Object>asList(Arrays.asList(1)), events);
+        assertEquals(0, frames.frameCallbackCount());
+    }
+
+    @Test
+    public void onNext_mergesTheLaterItemsUntilTheNextFrame() {
+        subscribe();
+        source.onNext(1);
+        frames.runPosts();
+
+        source.onNext(2);
+        source.onNext(3);
+        assertEquals(1, frames.postCount());
+        frames.runPosts();
+        source.onNext(4);
+
+        // Nothing until the frame
+        assertEquals(1, events.size());
+        frames.runFrame();
+
+        assertEquals(Arrays.<Object>asList(Arrays.asList(1), Arrays.asList(2, 3, 4)), events);
+    }
+
+    @Test
+    public void onCompleted_flushesThePendingBatchFirst() {
+        subscribe();
+        source.onNext(1);
+        frames.runPosts();
+
+        source.onNext(2);
+        source.onNext(3);
+        source.onCompleted();
+        frames.runPosts();
+
+        assertEquals(Arrays.<Object>asList(Arrays.asList(1), Arrays.asList(2, 3), "completed"), events);
+        assertEquals(0, frames.frameCallbackCount());
+    }
+
+    @Test
+    public void onError_flushesThePendingBatchFirst() {
+        RuntimeException error = new RuntimeException("offline");
+        subscribe();
+        source.onNext(1);
+        frames.runPosts();
+
+        source.onNext(2);
+        frames.runPosts();
+        source.onError(error);
+        // The error doesn't wait for the frame
+        frames.runPosts();
+        frames.runFrame();
+
+        assertEquals(Arrays.<Object>asList(Arrays.asList(1), Arrays.asList(2), error), events);
+    }
+
+    @Test
+    public void unsubscribe_dropsThePendingFrameCallback() {
+        Subscription subscription = subscribe();
+        source.onNext(1);
+        frames.runPosts();
+        source.onNext(2);
+        frames.runPosts();
+        assertEquals(1, frames.frameCallbackCount());
+
+        subscription.unsubscribe();
+
+        assertEquals(0, frames.frameCallbackCount());
+        assertEquals(0, frames.postCount());
+        assertFalse(source.hasObservers());
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void requestData_deliversTheBatchesToTheBatchObserver() {
+        Bucket bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate()) {
+            @Override
+            FrameScheduler frameScheduler() {
+                return frames;
+            }
+        };
+        RecordingObserver observer = new RecordingObserver();
+        bucket.registerRxHandler("key", new BatchingRxHandler(source, observer));
+        bucket.requestData("key");
+
+        source.onNext(1);
+        frames.runPosts();
+        source.onNext(2);
+        source.onNext(3);
+        frames.runPosts();
+        frames.runFrame();
+        source.onCompleted();
+        frames.runPosts();
+
+        assertEquals(Arrays.<Object>asList(Arrays.asList(1), Arrays.asList(2, 3), "completed"), observer.events);
+
+        // The retained data is replayed as one batch
+        RecordingObserver newObserver = new RecordingObserver();
+        bucket.onOwnerDestroyed();
+        bucket.registerRxHandler("key", new BatchingRxHandler(source, newObserver));
+        bucket.requestData("key");
+        ReplayDispatcher.forCurrentLooper().run();
+
+        assertEquals(Arrays.<Object>asList(Arrays.asList(1, 2, 3), "completed"), newObserver.events);
+    }
+
+    /**
+     * Subscribes the recording child to the batched source
+     *
+     * @return
+     */
+    private Subscription subscribe() {
+        return source.lift(new FrameBatcher(frames)).subscribe(new RecordingObserver(events));
+    }
+
+    /**
+     * Records the batches and the terminal events
+     */
+    private static final class RecordingObserver implements BatchObserver<Object> {
+        private final List<Object> events;
+
+        RecordingObserver() {
+            this(new ArrayList<>());
+        }
+
+        RecordingObserver(List<Object> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void onNextBatch(List<Object> items) {
+            events.add(new ArrayList<>(items));
+        }
+
+        @Override
+        public void onNext(Object o) {
+            // The operator hands the batches to onNext()
+            events.add(new ArrayList<>((List) o));
+        }
+
+        @Override
+        public void onCompleted() {
+            events.add("completed");
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            events.add(e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.FreshnessPolicy;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that stale data is replayed and refreshed in the background, and that expired data is fetched again.
+ */
+public class FreshnessPolicyTest {
+    // The key
+    private static final String KEY = "key";
+
+    // The source of the data
+    private PublishSubject<Integer> subject;
+
+    // The number of subscriptions to the source
+    private int subscriptions;
+
+    // The current time
+    private long now;
+
+    // The bucket
+    private Bucket bucket;
+
+    // The observer
+    private RecordingObserver observer;
+
+    @Before
+    public void setUp() {
+        // The dispatcher needs a looper for its handler
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        subject = PublishSubject.create();
+        subscriptions = 0;
+        now = 0;
+        bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate()) {
+            @Override
+            long now() {
+                return now;
+            }
+        };
+
+        observer = new RecordingObserver();
+        bucket.registerRxHandler(KEY, new RxHandler(source(), observer)
+                .setFreshnessPolicy(FreshnessPolicy.of(10, 20, TimeUnit.MILLISECONDS)));
+
+        // The initial fetch
+        bucket.requestImmediateData(KEY);
+        subject.onNext(1);
+        subject.onCompleted();
+        subject = PublishSubject.create();
+        observer.items.clear();
+    }
+
+    @Test
+    public void requestData_whileFresh_onlyReplays() {
+        now = 10;
+
+        assertTrue(bucket.requestImmediateData(KEY));
+        assertEquals(Arrays.asList(1), observer.items);
+        assertFalse(bucket.isRunning(KEY));
+        assertEquals(1, subscriptions);
+    }
+
+    @Test
+    public void requestData_whileStale_replaysAndSwapsInFreshData() {
+        now = 11;
+
+        assertTrue(bucket.requestImmediateData(KEY));
+        assertEquals(Arrays.asList(1), observer.items);
+        assertTrue(bucket.isRunning(KEY));
+
+        // A second stale hit doesn't refresh again
+        assertTrue(bucket.requestImmediateData(KEY));
+        assertEquals(2, subscriptions);
+
+        subject.onNext(2);
+        subject.onCompleted();
+        assertFalse(bucket.isRunning(KEY));
+        assertEquals(Arrays.asList(1, 1, 2), observer.items);
+
+        // The fresh data has a new age
+        observer.items.clear();
+        now = 20;
+        assertTrue(bucket.requestImmediateData(KEY));
+        assertEquals(Arrays.asList(2), observer.items);
+        assertEquals(2, subscriptions);
+    }
+
+    @Test
+    public void requestData_whenRefreshFails_keepsStaleData() {
+        now = 11;
+        bucket.requestImmediateData(KEY);
+        subject.onError(new RuntimeException());
+
+        assertFalse(bucket.isRunning(KEY));
+        assertEquals(0, observer.errors);
+        observer.items.clear();
+        assertTrue(bucket.requestImmediateData(KEY));
+        assertEquals(Arrays.asList(1), observer.items);
+    }
+
+    @Test
+    public void requestData_whenExpired_fetchesAgain() {
+        now = 31;
+
+        assertFalse(bucket.requestImmediateData(KEY));
+        assertTrue(observer.items.isEmpty());
+        assertTrue(bucket.isRunning(KEY));
+        assertEquals(2, subscriptions);
+    }
+
+    /**
+     * Returns the observable that counts the subscriptions to the current subject
+     *
+     * @return
+     */
+    private Observable<Integer> source() {
+        return Observable.defer(new Func0<Observable<Integer>>() {
+            @Override
+            public Observable<Integer> call() {
+                return subject;
+            }
+        }).doOnSubscribe(new Action0() {
+            @Override
+            public void call() {
+                subscriptions++;
+            }
+        });
+    }
+
+    /**
+     * Records the events
+     */
+    private static final class RecordingObserver implements Observer<Integer> {
+        private final List<Integer> items = new ArrayList<>();
+        private int completions;
+        private int errors;
+
+        @Override
+        public void onCompleted() {
+            completions++;
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            errors++;
+        }
+
+        @Override
+        public void onNext(Integer integer) {
+            items.add(integer);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package si.dime.android.retainer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.ExecutionClass;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the lookup of the generated handler registries. The registries are written by hand here,
+ * the way the annotation processor generates them.
+ */
+public class HandlerRegistriesTest {
+    // The registries that were called, in order
+    static final List<String> calls = new ArrayList<>();
+
+    private Bucket bucket;
+
+    @Before
+    public void setUp() {
+        calls.clear();
+        bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate());
+    }
+
+    @Test
+    public void registerHandlers_callsTheSuperClassRegistriesFirst() {
+        bucket.registerHandlers(new Child());
+        bucket.registerHandlers(new Child());
+
+        assertEquals(Arrays.asList("Parent", "Child", "Parent", "Child"), calls);
+    }
+
+    @Test
+    public void registerHandlers_skipsTheClassesWithoutARegistry() {
+        bucket.registerHandlers(new Plain());
+
+        assertEquals(Arrays.asList("Parent"), calls);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void registerHandlers_failsWithoutAnyRegistry() {
+        bucket.registerHandlers(new Object());
+    }
+
+    /**
+     * A class with annotated handlers
+     */
+    static class Parent {}
+
+    /**
+     * A subclass with annotated handlers of its own
+     */
+    static class Child extends Parent {}
+
+    /**
+     * A subclass without annotated handlers
+     */
+    static class Plain extends Parent {}
+}
+
+/**
+ * The registry of the Parent
+ */
+final class HandlerRegistriesTest$Parent_HandlerRegistry implements HandlerRegistry<HandlerRegistriesTest.Parent> {
+    @Override
+    public void register(Bucket bucket, HandlerRegistriesTest.Parent target) {
+        HandlerRegistriesTest.calls.add("Parent");
+    }
+}
+
+/**
+ * The registry of the Child
+ */
+final class HandlerRegistriesTest$Child_HandlerRegistry implements HandlerRegistry<HandlerRegistriesTest.Child> {
+    @Override
+    public void register(Bucket bucket, HandlerRegistriesTest.Child target) {
+        HandlerRegistriesTest.calls.add("Child");
+    }
+}
@@ -0,0 +1,184 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that requesting a running key joins the running request.
+ */
+public class InFlightJoinTest {
+    // The key
+    private static final String KEY = "key";
+
+    // The source of the data
+    private PublishSubject<Integer> subject;
+
+    // The number of subscriptions to the source
+    private int subscriptions;
+
+    // The bucket
+    private Bucket bucket;
+
+    @Before
+    public void setUp() {
+        // The dispatcher needs a looper for its handler
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        subject = PublishSubject.create();
+        subscriptions = 0;
+        bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate());
+    }
+
+    @Test
+    public void requestData_whileRunning_doesNotCompleteEarly() {
+        RecordingObserver observer = new RecordingObserver();
+        bucket.registerRxHandler(KEY, new RxHandler(source(), observer));
+
+        assertFalse(bucket.requestData(KEY));
+        subject.onNext(1);
+
+        // A second request from the same handler neither replays nor subscribes again
+        assertFalse(bucket.requestData(KEY));
+        drainReplays();
+        subject.onNext(2);
+        subject.onCompleted();
+
+        assertEquals(Arrays.asList(1, 2), observer.items);
+        assertEquals(1, observer.completions);
+        assertEquals(1, subscriptions);
+    }
+
+    @Test
+    public void requestData_afterOwnerRecreation_replaysAndContinuesLive() {
+        RecordingObserver oldObserver = new RecordingObserver();
+        bucket.registerRxHandler(KEY, new RxHandler(source(), oldObserver));
+        bucket.requestData(KEY);
+        subject.onNext(1);
+
+        // The owner is recreated while the request is running
+        bucket.onOwnerDestroyed();
+        subject.onNext(2);
+        RecordingObserver newObserver = new RecordingObserver();
+        bucket.registerRxHandler(KEY, new RxHandler(source(), newObserver));
+
+        // The new handler joins - the items that arrived so far are replayed on the end of the event loop
+        assertFalse(bucket.requestData(KEY));
+        subject.onNext(3);
+        assertTrue(newObserver.items.isEmpty());
+        drainReplays();
+        assertEquals(Arrays.asList(1, 2, 3), newObserver.items);
+        assertEquals(0, newObserver.completions);
+
+        // And the rest of them live
+        subject.onNext(4);
+        subject.onCompleted();
+        assertEquals(Arrays.asList(1, 2, 3, 4), newObserver.items);
+        assertEquals(1, newObserver.completions);
+
+        // The old owner received only what arrived before it was destroyed
+        assertEquals(Arrays.asList(1), oldObserver.items);
+        assertEquals(0, oldObserver.completions);
+        assertEquals(1, subscriptions);
+    }
+
+    @Test
+    public void requestImmediateData_whileRunning_replaysFromWithin() {
+        RecordingObserver oldObserver = new RecordingObserver();
+        bucket.registerRxHandler(KEY, new RxHandler(source(), oldObserver));
+        bucket.requestData(KEY);
+        subject.onNext(1);
+
+        bucket.onOwnerDestroyed();
+        RecordingObserver newObserver = new RecordingObserver();
+        bucket.registerRxHandler(KEY, new RxHandler(source(), newObserver));
+
+        assertFalse(bucket.requestImmediateData(KEY));
+        assertEquals(Arrays.asList(1), newObserver.items);
+        assertEquals(0, newObserver.completions);
+    }
+
+    @Test
+    public void requestData_joinedRequestFinishesBeforeReplay_replaysWholeResult() {
+        RecordingObserver oldObserver = new RecordingObserver();
+        bucket.registerRxHandler(KEY, new RxHandler(source(), oldObserver));
+        bucket.requestData(KEY);
+        subject.onNext(1);
+
+        bucket.onOwnerDestroyed();
+        RecordingObserver newObserver = new RecordingObserver();
+        bucket.registerRxHandler(KEY, new RxHandler(source(), newObserver));
+        bucket.requestData(KEY);
+
+        // The request finishes before the replay runs
+        subject.onNext(2);
+        subject.onCompleted();
+        drainReplays();
+
+        assertEquals(Arrays.asList(1, 2), newObserver.items);
+        assertEquals(1, newObserver.completions);
+    }
+
+    /**
+     * Returns the observable of the subject that counts its subscriptions
+     *
+     * @return
+     */
+    private Observable<Integer> source() {
+        return subject.doOnSubscribe(new Action0() {
+            @Override
+            public void call() {
+                subscriptions++;
+            }
+        });
+    }
+
+    /**
+     * Runs the replays scheduled on the end of the event loop
+     */
+    private static void drainReplays() {
+        ReplayDispatcher.forCurrentLooper().run();
+    }
+
+    /**
+     * Records the received events
+     */
+    private static final class RecordingObserver implements Observer<Integer> {
+        final List<Integer> items = new ArrayList<>();
+        int completions;
+
+        @Override
+        public void onCompleted() {
+            completions++;
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            throw new AssertionError(e);
+        }
+
+        @Override
+        public void onNext(Integer integer) {
+            items.add(integer);
+        }
+    }
+}
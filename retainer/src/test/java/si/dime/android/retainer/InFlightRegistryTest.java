@@ -0,0 +1,133 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the buckets share the running requests with the same share key.
+ */
+public class InFlightRegistryTest {
+    // The source of the data
+    private PublishSubject<Integer> subject;
+
+    // The number of subscriptions to the source
+    private int subscriptions;
+
+    @Before
+    public void setUp() {
+        // The dispatcher needs a looper for its handler
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        subject = PublishSubject.create();
+        subscriptions = 0;
+    }
+
+    @Test
+    public void concurrentRequests_shareOneSubscription() {
+        RecordingObserver list = new RecordingObserver();
+        RecordingObserver detail = new RecordingObserver();
+        Bucket listBucket = newBucket("shared-concurrent", list);
+        Bucket detailBucket = newBucket("shared-concurrent", detail);
+
+        listBucket.requestData("key");
+        subject.onNext(1);
+        detailBucket.requestData("key");
+        subject.onNext(2);
+        subject.onCompleted();
+
+        assertEquals(1, subscriptions);
+        assertEquals(Arrays.asList(1, 2), list.items);
+        assertEquals(Arrays.asList(1, 2), detail.items);
+        assertTrue(listBucket.dataExists("key"));
+        assertTrue(detailBucket.dataExists("key"));
+        assertEquals(0, InFlightRegistry.getInstance().size());
+    }
+
+    @Test
+    public void cancel_keepsTheRequestOfTheOtherBucket() {
+        RecordingObserver detail = new RecordingObserver();
+        Bucket listBucket = newBucket("shared-cancel", new RecordingObserver());
+        Bucket detailBucket = newBucket("shared-cancel", detail);
+
+        listBucket.requestData("key");
+        detailBucket.requestData("key");
+        listBucket.cancelRequest("key");
+        subject.onNext(1);
+        subject.onCompleted();
+
+        assertEquals(1, subscriptions);
+        assertEquals(Arrays.asList(1), detail.items);
+        assertTrue(detail.completed);
+    }
+
+    @Test
+    public void finishedRequest_isNotShared() {
+        Bucket listBucket = newBucket("shared-finished", new RecordingObserver());
+        Bucket detailBucket = newBucket("shared-finished", new RecordingObserver());
+
+        listBucket.requestData("key");
+        subject.onCompleted();
+        detailBucket.requestData("key");
+
+        assertEquals(2, subscriptions);
+    }
+
+    /**
+     * Returns a bucket with a handler of the subject with the given share key
+     *
+     * @param shareKey
+     * @param observer
+     * @return
+     */
+    private Bucket newBucket(String shareKey, Observer<Integer> observer) {
+        Bucket bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate());
+        Observable<Integer> source = subject.doOnSubscribe(new Action0() {
+            @Override
+            public void call() {
+                subscriptions++;
+            }
+        });
+        bucket.registerRxHandler("key", new RxHandler(source, observer).setShareKey(shareKey));
+        return bucket;
+    }
+
+    /**
+     * Records the items
+     */
+    private static final class RecordingObserver implements Observer<Integer> {
+        private final List<Integer> items = new ArrayList<>();
+        private boolean completed;
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+        }
+
+        @Override
+        public void onError(Throwable e) {}
+
+        @Override
+        public void onNext(Integer integer) {
+            items.add(integer);
+        }
+    }
+}
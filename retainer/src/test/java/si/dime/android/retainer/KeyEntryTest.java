@@ -0,0 +1,170 @@
+package si.dime.android.retainer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.observers.Observers;
+import rx.observers.Subscribers;
+import si.dime.android.retainer.handlers.FreshnessPolicy;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the state machine of the entries of the keys.
+ */
+public class KeyEntryTest {
+    // The entry
+    private KeyEntry entry;
+
+    // The list the items are collected in
+    private List dataList;
+
+    @Before
+    public void setUp() {
+        entry = new KeyEntry("key");
+        dataList = new ArrayList();
+    }
+
+    @Test
+    public void fetch_completes() throws Exception {
+        startFetch();
+        assertTrue(entry.isRunning());
+        assertTrue(entry.hasData());
+
+        entry.completeFetch(100);
+        assertEquals(KeyEntry.FETCHED, entry.state());
+        assertFalse(entry.isRunning());
+        assertNull(entry.subscriber);
+        assertNull(entry.request);
+        assertEquals(100, entry.fetchedAt());
+    }
+
+    @Test
+    public void fetch_failureReplacesTheData() throws Exception {
+        startFetch();
+        IllegalArgumentException error = new IllegalArgumentException();
+        entry.failFetch(error, 100);
+
+        assertEquals(KeyEntry.FETCHED, entry.state());
+        assertNull(entry.data());
+        assertTrue(entry.error() == error);
+    }
+
+    @Test
+    public void cancel_keepsThePartialData() {
+        startFetch();
+        entry.cancel();
+
+        assertEquals(KeyEntry.CANCELED, entry.state());
+        assertTrue(entry.data() == dataList);
+        assertEquals(KeyEntry.NEVER, entry.fetchedAt());
+    }
+
+    @Test
+    public void refresh_swapsTheData() {
+        startFetch();
+        entry.completeFetch(100);
+        entry.startRefresh(Subscribers.empty());
+        assertTrue(entry.isRunning());
+
+        List freshData = Arrays.asList(1);
+        entry.completeRefresh(freshData, 200);
+        assertEquals(KeyEntry.FETCHED, entry.state());
+        assertTrue(entry.data() == freshData);
+        assertEquals(200, entry.fetchedAt());
+    }
+
+    @Test
+    public void refresh_cancelKeepsTheFetchedData() {
+        startFetch();
+        entry.completeFetch(100);
+        entry.startRefresh(Subscribers.empty());
+        entry.cancel();
+
+        assertEquals(KeyEntry.FETCHED, entry.state());
+        assertTrue(entry.data() == dataList);
+    }
+
+    @Test
+    public void clear_empties() {
+        startFetch();
+        entry.completeFetch(100);
+        entry.clear();
+
+        assertEquals(KeyEntry.EMPTY, entry.state());
+        assertFalse(entry.hasData());
+        assertNull(entry.data());
+        assertEquals(KeyEntry.NEVER, entry.fetchedAt());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void clear_failsWhileRunning() {
+        startFetch();
+        entry.clear();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void startFetch_failsWithData() {
+        startFetch();
+        entry.completeFetch(100);
+        startFetch();
+    }
+
+    @Test
+    public void readInto_onlyTheCompleteData() throws Exception {
+        DataFuture future = new DataFuture();
+        startFetch();
+        assertFalse(entry.readInto(future, 0));
+
+        dataList.add(1);
+        entry.completeFetch(100);
+        assertTrue(entry.readInto(future, 0));
+        assertEquals(Arrays.asList(1), future.get());
+    }
+
+    @Test
+    public void readInto_theError() throws Exception {
+        DataFuture future = new DataFuture();
+        IllegalArgumentException error = new IllegalArgumentException();
+        startFetch();
+        entry.failFetch(error, 100);
+
+        assertTrue(entry.readInto(future, 0));
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() == error);
+        }
+    }
+
+    @Test
+    public void readInto_notTheExpiredData() {
+        entry.handler = new RxHandler(Observable.empty(), Observers.empty())
+                .setFreshnessPolicy(FreshnessPolicy.of(1000, 0, TimeUnit.MILLISECONDS));
+        entry.restore(dataList, 100);
+
+        assertTrue(entry.readInto(new DataFuture(), 1000));
+        assertFalse(entry.readInto(new DataFuture(), 1200));
+    }
+
+    /**
+     * Starts fetching the data list
+     */
+    private void startFetch() {
+        RxHandler dataHandler = new RxHandler(Observable.empty(), Observers.empty());
+        entry.startFetch(dataList, new InFlightRequest(dataList, dataHandler, false), Subscribers.empty());
+    }
+}
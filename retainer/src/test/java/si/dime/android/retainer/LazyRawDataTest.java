@@ -0,0 +1,156 @@
+package si.dime.android.retainer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.functions.Func0;
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.ExecutionClass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the raw data that is computed lazily, in the background.
+ */
+public class LazyRawDataTest {
+    // The bucket
+    private Bucket bucket;
+
+    // Computes the raw data
+    private ExecutorService executor;
+
+    // The number of computations
+    private AtomicInteger computations;
+
+    // Holds the computations back
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate());
+        executor = Executors.newSingleThreadExecutor();
+        computations = new AtomicInteger();
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void putLazyRawData_computesOnFirstAccess() throws Exception {
+        Future<String> future = bucket.putLazyRawData("key", supplier("value"), executor);
+        release.countDown();
+        Thread.sleep(20);
+        assertEquals(0, computations.get());
+        assertTrue(bucket.rawDataExists("key"));
+
+        // Starts the computation, without waiting for it
+        bucket.getRawData("key");
+        assertEquals("value", future.get(5, TimeUnit.SECONDS));
+        assertEquals("value", bucket.getRawData("key"));
+        assertEquals(1, computations.get());
+    }
+
+    @Test
+    public void putLazyRawData_eagerComputesRightAway() throws Exception {
+        Future<String> future = bucket.putLazyRawData("key", supplier("value"), executor, true);
+        release.countDown();
+
+        assertEquals("value", future.get(5, TimeUnit.SECONDS));
+        assertEquals(1, computations.get());
+    }
+
+    @Test
+    public void getRawData_doesNotWait() throws Exception {
+        Future<String> future = bucket.putLazyRawData("key", supplier("value"), executor, true);
+
+        // The computation is held back
+        assertNull(bucket.getRawData("key"));
+        assertFalse(future.isDone());
+
+        release.countDown();
+        assertEquals("value", future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void getOrComputeRawData_waitsForTheLazyRawData() {
+        bucket.putLazyRawData("key", supplier("lazy"), executor);
+        release.countDown();
+
+        assertEquals("lazy", bucket.getOrComputeRawData("key", supplier("computed")));
+        assertEquals(1, computations.get());
+    }
+
+    @Test
+    public void removeRawData_cancelsTheComputation() {
+        Future<String> future = bucket.putLazyRawData("key", supplier("value"), executor);
+        bucket.removeRawData("key");
+
+        assertTrue(future.isCancelled());
+        assertFalse(bucket.rawDataExists("key"));
+    }
+
+    @Test
+    public void failedComputation_removesTheKey() throws Exception {
+        final RuntimeException error = new RuntimeException("offline");
+        Future<String> future = bucket.putLazyRawData("key", new Func0<String>() {
+            @Override
+            public String call() {
+                throw error;
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                // Computes it right away, so the failure is handled before the future is returned
+                command.run();
+            }
+        }, true);
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+        assertFalse(bucket.rawDataExists("key"));
+        assertNull(bucket.getRawData("key"));
+    }
+
+    /**
+     * Returns a supplier of the given value, that waits for the release
+     *
+     * @param value
+     * @return
+     */
+    private Func0<String> supplier(final String value) {
+        return new Func0<String>() {
+            @Override
+            public String call() {
+                computations.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return value;
+            }
+        };
+    }
+}
@@ -0,0 +1,226 @@
+package si.dime.android.retainer;
+
+import android.content.ComponentCallbacks2;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import rx.Observable;
+import rx.Observer;
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.Destroyer;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+import si.dime.android.retainer.handlers.SizeEstimator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the least recently requested entries are evicted across the buckets.
+ */
+public class MemoryBudgetTest {
+    // Every integer takes as many bytes as its value
+    private static final SizeEstimator<Integer> SIZE_ESTIMATOR = new SizeEstimator<Integer>() {
+        @Override
+        public long sizeOf(Integer item) {
+            return item;
+        }
+    };
+
+    // The budget
+    private MemoryBudget budget;
+
+    // The buckets
+    private Bucket first;
+    private Bucket second;
+
+    // The destroyed items
+    private List<Object> destroyed;
+
+    @Before
+    public void setUp() {
+        // The dispatcher needs a looper for its handler
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        budget = new MemoryBudget(100);
+        first = newBucket();
+        second = newBucket();
+        destroyed = new ArrayList<>();
+    }
+
+    @Test
+    public void overTheBudget_evictsLeastRecentlyRequestedAcrossBuckets() {
+        fetch(first, "a", 40);
+        fetch(second, "b", 40);
+
+        // "a" is requested again, so "b" is the least recently requested one
+        assertTrue(first.requestImmediateData("a"));
+        fetch(first, "c", 40);
+
+        assertTrue(first.dataExists("a"));
+        assertFalse(second.dataExists("b"));
+        assertTrue(first.dataExists("c"));
+        assertEquals(Arrays.<Object>asList(40), destroyed);
+        assertEquals(80, budget.getUsedBytes());
+        assertEquals(1, budget.getEvictionCount());
+    }
+
+    @Test
+    public void rawDataWithSize_isEvicted() {
+        first.putRawData("raw", "value", 60);
+        fetch(second, "b", 60);
+
+        assertNull(first.getRawData("raw"));
+        assertTrue(second.dataExists("b"));
+        assertEquals(60, budget.getUsedBytes());
+    }
+
+    @Test
+    public void onTrimMemory_shrinksInTiers() {
+        fetch(first, "a", 30);
+        fetch(first, "b", 30);
+        fetch(second, "c", 30);
+
+        budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertFalse(first.dataExists("a"));
+        assertFalse(first.dataExists("b"));
+        assertTrue(second.dataExists("c"));
+
+        budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertFalse(second.dataExists("c"));
+        assertEquals(0, budget.getUsedBytes());
+    }
+
+    @Test
+    public void overTheBudgetWhileTheOwnerIsGone_destroysTheEvictedData() {
+        fetch(first, "a", 60);
+
+        // A configuration change - the data stays, the handler is gone
+        first.onOwnerDestroyed();
+        fetch(second, "b", 60);
+
+        assertFalse(first.dataExists("a"));
+        assertEquals(Arrays.<Object>asList(60), destroyed);
+    }
+
+    @Test
+    public void overTheBudgetOnABackgroundThread_evictsOnTheDeliveryThread() throws Exception {
+        // The data of this bucket is delivered on the test thread
+        final BlockingQueue<Runnable> mainQueue = new LinkedBlockingQueue<>();
+        Bucket bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.from(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainQueue.add(command);
+            }
+        }), new ExecutionEngine(), budget);
+        final List<Thread> destroyThreads = new ArrayList<>();
+        bucket.registerRxHandler("a", new RxHandler(Observable.just(60), new NoOpObserver(), new Destroyer<Object>() {
+            @Override
+            public void destroy(Object item) {
+                destroyed.add(item);
+                destroyThreads.add(Thread.currentThread());
+            }
+
+            @Override
+            public void destroyCompleted() {}
+        }).setSizeEstimator(SIZE_ESTIMATOR));
+        bucket.requestData("a");
+        runAll(mainQueue);
+        assertTrue(bucket.dataExists("a"));
+
+        // Exceed the budget on another thread
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                second.putRawData("raw", "value", 60);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertTrue(bucket.dataExists("a"));
+        assertTrue(destroyed.isEmpty());
+
+        runAll(mainQueue);
+        assertFalse(bucket.dataExists("a"));
+        assertEquals(Arrays.<Object>asList(60), destroyed);
+        assertEquals(Arrays.asList(Thread.currentThread()), destroyThreads);
+    }
+
+    @Test
+    public void destroy_leavesTheBudget() {
+        fetch(first, "a", 30);
+        first.destroy();
+
+        assertEquals(0, budget.getUsedBytes());
+    }
+
+    /**
+     * Returns a new bucket in the test budget
+     *
+     * @return
+     */
+    private Bucket newBucket() {
+        return new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate(),
+                new ExecutionEngine(), budget);
+    }
+
+    /**
+     * Registers and fetches a single integer for the given key
+     *
+     * @param bucket
+     * @param key
+     * @param value
+     */
+    private void fetch(Bucket bucket, String key, int value) {
+        bucket.registerRxHandler(key, new RxHandler(Observable.just(value), new NoOpObserver(), new Destroyer<Object>() {
+            @Override
+            public void destroy(Object item) {
+                destroyed.add(item);
+            }
+
+            @Override
+            public void destroyCompleted() {}
+        }).setSizeEstimator(SIZE_ESTIMATOR));
+        bucket.requestImmediateData(key);
+    }
+
+    /**
+     * Runs the queued messages of the main thread
+     *
+     * @param mainQueue
+     */
+    private static void runAll(BlockingQueue<Runnable> mainQueue) {
+        Runnable message;
+        while ((message = mainQueue.poll()) != null) {
+            message.run();
+        }
+    }
+
+    /**
+     * Ignores everything
+     */
+    private static final class NoOpObserver implements Observer<Object> {
+        @Override
+        public void onCompleted() {}
+
+        @Override
+        public void onError(Throwable e) {}
+
+        @Override
+        public void onNext(Object o) {}
+    }
+}
@@ -0,0 +1,275 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.CancellationToken;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.ProgressReporter;
+import si.dime.android.retainer.handlers.ProgressTask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the progress of the tasks is merged, delivered on the main thread and kept for the new handlers.
+ */
+public class ProgressTaskTest {
+    // The thread the tasks run on
+    private ExecutorService worker;
+
+    // The frames of the test thread
+    private TestFrameScheduler frames;
+
+    private Bucket bucket;
+
+    @Before
+    public void setUp() {
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+        worker = Executors.newSingleThreadExecutor();
+        frames = new TestFrameScheduler();
+        bucket = new Bucket(ExecutionClass.of(worker), Schedulers.immediate()) {
+            @Override
+            FrameScheduler frameScheduler() {
+                return frames;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        worker.shutdownNow();
+    }
+
+    @Test
+    public void publishProgress_deliversTheLatestProgressOnTheNextFrame() throws Exception {
+        RecordingTask task = new RecordingTask(3);
+        bucket.registerTask("key", task);
+        bucket.requestData("key");
+        assertTrue(task.published.await(5, TimeUnit.SECONDS));
+
+        // A single post for all of the updates
+        assertEquals(1, frames.postCount());
+        frames.runPosts();
+        assertTrue(task.progress.isEmpty());
+        frames.runFrame();
+
+        assertEquals(1, task.progress.size());
+        assertEquals(Integer.valueOf(3), task.progress.get(0));
+        assertEquals(Thread.currentThread(), task.progressThread);
+        assertEquals(3, bucket.getProgress("key"));
+
+        task.release.countDown();
+        assertEquals("done", bucket.get("key", 5, TimeUnit.SECONDS).get(0));
+        assertNull(bucket.getProgress("key"));
+    }
+
+    @Test
+    public void requestData_aNewTaskGetsTheProgressRightAway() throws Exception {
+        RecordingTask task = new RecordingTask(5);
+        bucket.registerTask("key", task);
+        bucket.requestData("key");
+        assertTrue(task.published.await(5, TimeUnit.SECONDS));
+        frames.runPosts();
+        frames.runFrame();
+
+        // The configuration change
+        bucket.onOwnerDestroyed();
+        RecordingTask newTask = new RecordingTask(0);
+        bucket.registerTask("key", newTask);
+        bucket.requestData("key");
+
+        assertEquals(1, newTask.progress.size());
+        assertEquals(Integer.valueOf(5), newTask.progress.get(0));
+        task.release.countDown();
+    }
+
+    @Test
+    public void cancelRequest_dropsThePendingProgress() throws Exception {
+        RecordingTask task = new RecordingTask(2);
+        bucket.registerTask("key", task);
+        bucket.requestData("key");
+        assertTrue(task.published.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1, frames.postCount());
+
+        bucket.cancelRequest("key");
+        assertEquals(0, frames.postCount());
+        frames.runPosts();
+        frames.runFrame();
+
+        assertEquals(0, task.progress.size());
+        assertNull(bucket.getProgress("key"));
+    }
+
+    @Test
+    public void requestRefreshedData_theCanceledRunDoesNotReportToTheNewRequest() throws Exception {
+        // Two threads, so the new run starts while the canceled one is still working
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        final List<Future<?>> runs = new CopyOnWriteArrayList<>();
+        Bucket bucket = new Bucket(ExecutionClass.of(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                runs.add(pool.submit(command));
+            }
+        }), Schedulers.immediate()) {
+            @Override
+            FrameScheduler frameScheduler() {
+                return frames;
+            }
+        };
+
+        try {
+            OverlappingTask task = new OverlappingTask();
+            bucket.registerTask("key", task);
+            bucket.requestData("key");
+            assertTrue(task.firstStarted.await(5, TimeUnit.SECONDS));
+
+            bucket.requestRefreshedData("key");
+            assertTrue(task.secondStarted.await(5, TimeUnit.SECONDS));
+
+            // The canceled run keeps working, and finishes while the new one is running
+            task.releaseFirst.countDown();
+            runs.get(0).get(5, TimeUnit.SECONDS);
+            assertEquals(0, frames.postCount());
+
+            // The new run still reports its progress
+            task.publishSecond.countDown();
+            assertTrue(task.secondPublished.await(5, TimeUnit.SECONDS));
+            assertEquals(1, frames.postCount());
+            frames.runPosts();
+            frames.runFrame();
+
+            assertEquals(1, task.progress.size());
+            assertEquals(Integer.valueOf(2), task.progress.get(0));
+
+            task.finishSecond.countDown();
+            assertEquals("second", bucket.get("key", 5, TimeUnit.SECONDS).get(0));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Publishes the progress up to the given value, and waits to be released
+     */
+    private static class RecordingTask extends ProgressTask<Object, Integer> {
+        final int steps;
+        final CountDownLatch published = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> progress = new ArrayList<>();
+        volatile Thread progressThread;
+
+        RecordingTask(int steps) {
+            this.steps = steps;
+        }
+
+        @Override
+        public Object doInBackground(CancellationToken token, ProgressReporter<Integer> progress) {
+            for (int i = 1; i <= steps; i++) {
+                progress.publish(i);
+            }
+            published.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return null;
+            }
+            return "done";
+        }
+
+        @Override
+        public void onProgressUpdate(Integer progress) {
+            progressThread = Thread.currentThread();
+            this.progress.add(progress);
+        }
+
+        @Override
+        public void onPostExecute(Object o) {}
+
+        @Override
+        public void onError(Throwable e) {}
+
+        @Override
+        public void destroy(Object o) {}
+    }
+
+    /**
+     * The first run ignores its cancellation and publishes the progress once released,
+     * the second one publishes its progress and finishes when released
+     */
+    private static class OverlappingTask extends ProgressTask<Object, Integer> {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final CountDownLatch secondStarted = new CountDownLatch(1);
+        final CountDownLatch publishSecond = new CountDownLatch(1);
+        final CountDownLatch secondPublished = new CountDownLatch(1);
+        final CountDownLatch finishSecond = new CountDownLatch(1);
+        final List<Integer> progress = new ArrayList<>();
+
+        @Override
+        public Object doInBackground(CancellationToken token, ProgressReporter<Integer> progress) {
+            if (runs.incrementAndGet() == 1) {
+                firstStarted.countDown();
+                awaitUninterruptibly(releaseFirst);
+                progress.publish(1);
+                return "first";
+            }
+
+            secondStarted.countDown();
+            awaitUninterruptibly(publishSecond);
+            progress.publish(2);
+            secondPublished.countDown();
+            awaitUninterruptibly(finishSecond);
+            return "second";
+        }
+
+        @Override
+        public void onProgressUpdate(Integer progress) {
+            this.progress.add(progress);
+        }
+
+        @Override
+        public void onPostExecute(Object o) {}
+
+        @Override
+        public void onError(Throwable e) {}
+
+        @Override
+        public void destroy(Object o) {}
+
+        private static void awaitUninterruptibly(CountDownLatch latch) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    latch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
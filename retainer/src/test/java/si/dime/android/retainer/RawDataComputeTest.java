@@ -0,0 +1,188 @@
+package si.dime.android.retainer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.ExecutionClass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the raw data of a key is computed at most once at a time.
+ */
+public class RawDataComputeTest {
+    // The number of the racing threads
+    private static final int THREADS = 4;
+
+    // The bucket
+    private Bucket bucket;
+
+    // The racing threads
+    private ExecutorService racers;
+
+    @Before
+    public void setUp() {
+        bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate());
+        racers = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        racers.shutdownNow();
+    }
+
+    @Test
+    public void getOrComputeRawData_computesOnceForAllOfTheWaiters() throws Exception {
+        final AtomicInteger computations = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(racers.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    start.await();
+                    return bucket.getOrComputeRawData("key", new Func0<Object>() {
+                        @Override
+                        public Object call() {
+                            computations.incrementAndGet();
+                            sleep(20);
+                            return new Object();
+                        }
+                    });
+                }
+            }));
+        }
+        start.countDown();
+
+        Object value = futures.get(0).get(10, TimeUnit.SECONDS);
+        for (Future<Object> future : futures) {
+            assertSame(value, future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, computations.get());
+        assertSame(value, bucket.getRawData("key"));
+    }
+
+    @Test
+    public void getOrComputeRawData_keepsTheNullValue() {
+        final AtomicInteger computations = new AtomicInteger();
+        Func0<Object> supplier = new Func0<Object>() {
+            @Override
+            public Object call() {
+                computations.incrementAndGet();
+                return null;
+            }
+        };
+
+        assertNull(bucket.getOrComputeRawData("key", supplier));
+        assertNull(bucket.getOrComputeRawData("key", supplier));
+        assertEquals(1, computations.get());
+        assertTrue(bucket.rawDataExists("key"));
+    }
+
+    @Test
+    public void getOrComputeRawData_failureIsNotKept() {
+        try {
+            bucket.getOrComputeRawData("key", new Func0<Object>() {
+                @Override
+                public Object call() {
+                    throw new IllegalArgumentException();
+                }
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        assertFalse(bucket.rawDataExists("key"));
+        assertEquals("value", bucket.getOrComputeRawData("key", new Func0<String>() {
+            @Override
+            public String call() {
+                return "value";
+            }
+        }));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getOrComputeRawData_fromItself() {
+        bucket.getOrComputeRawData("key", new Func0<Object>() {
+            @Override
+            public Object call() {
+                return bucket.getOrComputeRawData("key", this);
+            }
+        });
+    }
+
+    @Test
+    public void computeRawData_racingUpdatesAreNotLost() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Func1<Integer, Integer> increment = new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer current) {
+                return current == null ? 1 : current + 1;
+            }
+        };
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(racers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int j = 0; j < 1000; j++) {
+                        bucket.computeRawData("counter", increment);
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(THREADS * 1000, bucket.getRawData("counter"));
+    }
+
+    @Test
+    public void computeRawData_nullRemoves() {
+        bucket.putRawData("key", "value");
+        assertNull(bucket.computeRawData("key", new Func1<String, String>() {
+            @Override
+            public String call(String current) {
+                return null;
+            }
+        }));
+        assertFalse(bucket.rawDataExists("key"));
+    }
+
+    /**
+     * Sleeps without the checked exception
+     *
+     * @param millis
+     */
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import rx.Observable;
+import rx.Observer;
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that replaying cached data doesn't allocate anything per request.
+ */
+public class ReplayAllocationTest {
+    // The number of keys - roughly what a screen replays after a rotation
+    private static final int KEYS = 32;
+
+    // The number of items per key
+    private static final int ITEMS = 10;
+
+    // The number of requests of every key in a measured round
+    private static final int ROUNDS = 100;
+
+    // The keys, built up front so the measured loops don't concatenate strings
+    private static final String[] KEY_NAMES = new String[KEYS];
+    static {
+        for (int i = 0; i < KEYS; i++) {
+            KEY_NAMES[i] = "key_" + i;
+        }
+    }
+
+    // The allocation counter of the current thread
+    private com.sun.management.ThreadMXBean threadBean;
+
+    // The bucket with the cached data
+    private Bucket bucket;
+
+    // The observer of all the keys
+    private CountingObserver observer;
+
+    @Before
+    public void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        // The dispatcher needs a looper for its handler
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        // Fetch the data synchronously, so every request afterwards is a cache hit
+        bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate());
+        observer = new CountingObserver();
+        for (int i = 0; i < KEYS; i++) {
+            bucket.registerRxHandler(KEY_NAMES[i], new RxHandler(Observable.range(0, ITEMS), observer));
+            assertFalse(bucket.requestData(KEY_NAMES[i]));
+        }
+        assertEquals(KEYS, observer.completions);
+    }
+
+    @Test
+    public void requestData_cacheHit_doesNotAllocate() {
+        // Warm up - grows the dispatcher's buffer and lets the JIT do its job
+        for (int i = 0; i < 50; i++) {
+            requestAllKeys();
+            ReplayDispatcher.forCurrentLooper().run();
+        }
+
+        // The first request posts the drain. The ones after it only queue the replays.
+        observer.reset();
+        bucket.requestData(KEY_NAMES[0]);
+        long before = allocatedBytes();
+        requestAllKeys();
+        long allocated = allocatedBytes() - before;
+
+        // Less than a byte per request means that no request allocated an object
+        assertTrue("Allocated " + allocated + " bytes", allocated < KEYS * ROUNDS);
+
+        // A single drain replays everything
+        ReplayDispatcher.forCurrentLooper().run();
+        assertEquals(KEYS * ROUNDS + 1, observer.completions);
+        assertEquals((KEYS * ROUNDS + 1) * ITEMS, observer.items);
+    }
+
+    @Test
+    public void requestImmediateData_cacheHit_doesNotAllocate() {
+        // Warm up
+        for (int i = 0; i < 50; i++) {
+            requestAllKeysImmediately();
+        }
+
+        observer.reset();
+        long before = allocatedBytes();
+        requestAllKeysImmediately();
+        long allocated = allocatedBytes() - before;
+
+        assertTrue("Allocated " + allocated + " bytes", allocated < KEYS * ROUNDS);
+        assertEquals(KEYS * ROUNDS, observer.completions);
+    }
+
+    /**
+     * Requests every key ROUNDS times
+     */
+    private void requestAllKeys() {
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < KEYS; i++) {
+                bucket.requestData(KEY_NAMES[i]);
+            }
+        }
+    }
+
+    /**
+     * Requests every key ROUNDS times, with an immediate replay
+     */
+    private void requestAllKeysImmediately() {
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < KEYS; i++) {
+                bucket.requestImmediateData(KEY_NAMES[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far
+     *
+     * @return
+     */
+    private long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Counts the received events
+     */
+    private static final class CountingObserver implements Observer<Object> {
+        int items;
+        int completions;
+
+        @Override
+        public void onCompleted() {
+            completions++;
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            throw new AssertionError(e);
+        }
+
+        @Override
+        public void onNext(Object o) {
+            items++;
+        }
+
+        void reset() {
+            items = 0;
+            completions = 0;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the keys requested at once are fetched in parallel, and that the callback gets all of them.
+ */
+public class RequestAllTest {
+    // The threads the tasks run on
+    private ExecutorService workers;
+
+    // The messages of the main thread, run by the test thread
+    private final BlockingQueue<Runnable> mainQueue = new LinkedBlockingQueue<>();
+
+    private Bucket bucket;
+
+    // What happened on the main thread, in order
+    private final List<String> events = new ArrayList<>();
+
+    // The data and the errors of the last callback
+    private Map<String, List> data;
+    private Map<String, Throwable> errors;
+
+    private final AllDataCallback callback = new AllDataCallback() {
+        @Override
+        public void onAllData(Map<String, List> data, Map<String, Throwable> errors) {
+            RequestAllTest.this.data = data;
+            RequestAllTest.this.errors = errors;
+            events.add("all");
+        }
+    };
+
+    @Before
+    public void setUp() {
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+        workers = Executors.newFixedThreadPool(4);
+        // The test thread is the main thread
+        bucket = new Bucket(ExecutionClass.of(workers), Schedulers.from(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainQueue.add(command);
+            }
+        }));
+    }
+
+    @After
+    public void tearDown() {
+        workers.shutdownNow();
+        mainQueue.clear();
+        ReplayDispatcher.forCurrentLooper().run();
+    }
+
+    @Test
+    public void requestAll_fetchesTheMissingKeysInParallel() {
+        // Both of the keys must be running at the same time to pass the barrier
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        bucket.registerTask("cached", new RecordingTask("cached") {
+            @Override
+            public Object doInBackground() {
+                return "cached";
+            }
+        });
+        bucket.registerTask("a", new RecordingTask("a") {
+            @Override
+            public Object doInBackground() {
+                await(barrier);
+                return "a";
+            }
+        });
+        bucket.registerTask("b", new RecordingTask("b") {
+            @Override
+            public Object doInBackground() {
+                await(barrier);
+                return "b";
+            }
+        });
+        fetch("cached");
+
+        bucket.requestAll(callback, "cached", "a", "b");
+        pumpUntil("all");
+
+        assertEquals("cached", data.get("cached").get(0));
+        assertEquals("a", data.get("a").get(0));
+        assertEquals("b", data.get("b").get(0));
+        assertTrue(errors.isEmpty());
+        // The observers of the keys got the data before the callback
+        assertEquals("all", events.get(events.size() - 1));
+        assertTrue(events.contains("a"));
+        assertTrue(events.contains("b"));
+        assertEquals(2, count("cached"));
+    }
+
+    @Test
+    public void requestAll_deliversTheCachedKeysWithASingleMessage() {
+        for (final String key : new String[]{"a", "b", "c"}) {
+            bucket.registerTask(key, new RecordingTask(key) {
+                @Override
+                public Object doInBackground() {
+                    return key;
+                }
+            });
+            fetch(key);
+        }
+        events.clear();
+
+        bucket.requestAll(callback, "a", "b", "c");
+
+        // Nothing is posted to the main thread - a single run of the replays delivers everything
+        assertTrue(events.isEmpty());
+        assertTrue(mainQueue.isEmpty());
+        ReplayDispatcher.forCurrentLooper().run();
+        assertEquals(4, events.size());
+        assertEquals("all", events.get(3));
+        assertEquals(3, data.size());
+    }
+
+    @Test
+    public void requestAllRefreshed_refetchesTheKeysAndCollectsTheErrors() {
+        final AtomicInteger runs = new AtomicInteger();
+        final RuntimeException error = new RuntimeException("offline");
+        bucket.registerTask("ok", new RecordingTask("ok") {
+            @Override
+            public Object doInBackground() {
+                return runs.incrementAndGet();
+            }
+        });
+        bucket.registerTask("failing", new RecordingTask("failing") {
+            @Override
+            public Object doInBackground() {
+                throw error;
+            }
+        });
+        bucket.requestAll(callback, "ok", "failing");
+        pumpUntil("all");
+        events.clear();
+
+        bucket.requestAllRefreshed(callback, "ok", "failing", "ok");
+        pumpUntil("all");
+
+        assertEquals(2, data.get("ok").get(0));
+        assertEquals(error, errors.get("failing"));
+        assertEquals(1, count("all"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void requestAll_rejectsTheKeysThatAreNotRegistered() {
+        bucket.requestAll(callback, "missing");
+    }
+
+    /**
+     * Fetches the data of the given key
+     *
+     * @param key
+     */
+    private void fetch(String key) {
+        bucket.requestData(key);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!bucket.dataExists(key) || bucket.isRunning(key)) {
+            assertTrue(System.nanoTime() < deadline);
+            runNext();
+        }
+    }
+
+    /**
+     * Runs the main thread until the given event happens
+     *
+     * @param event
+     */
+    private void pumpUntil(String event) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!events.contains(event) && System.nanoTime() < deadline) {
+            runNext();
+        }
+        assertTrue(events.contains(event));
+    }
+
+    /**
+     * Runs the next message of the main thread (if it comes in time), and the replays
+     */
+    private void runNext() {
+        try {
+            Runnable message = mainQueue.poll(10, TimeUnit.MILLISECONDS);
+            if (message != null) {
+                message.run();
+            }
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        ReplayDispatcher.forCurrentLooper().run();
+    }
+
+    /**
+     * Returns how many times the given event happened
+     *
+     * @param event
+     * @return
+     */
+    private int count(String event) {
+        int count = 0;
+        for (String e : events) {
+            if (e.equals(event)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Waits for the other party of the given barrier
+     *
+     * @param barrier
+     */
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException("The keys didn't run in parallel", e);
+        }
+    }
+
+    /**
+     * Records its callbacks as the events
+     */
+    private abstract class RecordingTask implements Task<Object> {
+        private final String key;
+
+        RecordingTask(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void onPostExecute(Object o) {
+            events.add(key);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            events.add(key);
+        }
+
+        @Override
+        public void destroy(Object o) {}
+    }
+}
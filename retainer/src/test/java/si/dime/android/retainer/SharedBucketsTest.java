@@ -0,0 +1,188 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the reference counting of the shared buckets.
+ */
+public class SharedBucketsTest {
+    // The name of the shared bucket
+    private static final String NAME = "session";
+
+    // The key
+    private static final String KEY = "key";
+
+    // The shared buckets
+    private SharedBuckets sharedBuckets;
+
+    // The buckets of two owners
+    private Bucket firstOwner;
+    private Bucket secondOwner;
+
+    // The number of subscriptions to the source
+    private int subscriptions;
+
+    @Before
+    public void setUp() {
+        // The dispatcher needs a looper for its handler
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        sharedBuckets = new SharedBuckets() {
+            @Override
+            Bucket newBucket() {
+                return SharedBucketsTest.newBucket();
+            }
+        };
+        firstOwner = newBucket();
+        secondOwner = newBucket();
+        subscriptions = 0;
+    }
+
+    @Test
+    public void acquire_fetchesOncePerProcess() {
+        Bucket first = sharedBuckets.acquire(NAME, firstOwner);
+        first.registerRxHandler(KEY, new RxHandler(source(), new RecordingObserver()));
+        first.requestImmediateData(KEY);
+
+        Bucket second = sharedBuckets.acquire(NAME, secondOwner);
+        assertSame(first, second);
+
+        // The handler of the second owner replaces the one of the first owner
+        RecordingObserver observer = new RecordingObserver();
+        second.registerRxHandler(KEY, new RxHandler(source(), observer));
+        assertTrue(second.requestImmediateData(KEY));
+        assertEquals(1, observer.items.size());
+        assertEquals(1, subscriptions);
+    }
+
+    @Test
+    public void release_destroysOnlyAfterTheLastOwner() {
+        Bucket bucket = sharedBuckets.acquire(NAME, firstOwner);
+        sharedBuckets.acquire(NAME, firstOwner);
+        sharedBuckets.acquire(NAME, secondOwner);
+        bucket.registerRxHandler(KEY, new RxHandler(source(), new RecordingObserver()));
+        bucket.requestImmediateData(KEY);
+        assertEquals(2, sharedBuckets.getOwnerCount(NAME));
+
+        // Destroying the owner's bucket releases the shared one
+        firstOwner.destroy();
+        assertEquals(1, sharedBuckets.getOwnerCount(NAME));
+        assertTrue(bucket.dataExists(KEY));
+
+        sharedBuckets.release(NAME, secondOwner);
+        assertEquals(0, sharedBuckets.getOwnerCount(NAME));
+        assertNotSame(bucket, sharedBuckets.acquire(NAME, secondOwner));
+    }
+
+    @Test
+    public void ownerRecreation_unregistersItsHandlersOnly() {
+        Bucket bucket = sharedBuckets.acquire(NAME, firstOwner);
+        bucket.registerRxHandler(KEY, new RxHandler(source(), new RecordingObserver()));
+        sharedBuckets.acquire(NAME, secondOwner);
+        bucket.registerRxHandler("other", new RxHandler(source(), new RecordingObserver()));
+
+        // A configuration change of the first owner
+        firstOwner.onOwnerDestroyed();
+        assertEquals(2, sharedBuckets.getOwnerCount(NAME));
+        assertTrue(bucket.requestImmediateData("other") || bucket.dataExists("other"));
+        try {
+            bucket.requestData(KEY);
+            throw new AssertionError("The handler of the recreated owner must be unregistered");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void get_registersTheHandlersWithoutAnOwner() {
+        Bucket bucket = sharedBuckets.acquire(SharedBuckets.APPLICATION_BUCKET, firstOwner);
+        bucket.registerRxHandler(KEY, new RxHandler(source(), new RecordingObserver()));
+
+        // The application bucket is used without an owner afterwards
+        assertSame(bucket, sharedBuckets.get(SharedBuckets.APPLICATION_BUCKET));
+        RecordingObserver observer = new RecordingObserver();
+        bucket.registerRxHandler("unowned", new RxHandler(source(), observer));
+
+        // The owner's handler goes with it, the unowned one stays
+        firstOwner.onOwnerDestroyed();
+        assertTrue(bucket.requestImmediateData("unowned") || bucket.dataExists("unowned"));
+        assertEquals(1, observer.items.size());
+        try {
+            bucket.requestData(KEY);
+            throw new AssertionError("The handler of the recreated owner must be unregistered");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void applicationBucket_isNeverDestroyed() {
+        Bucket bucket = sharedBuckets.acquire(SharedBuckets.APPLICATION_BUCKET, firstOwner);
+        firstOwner.destroy();
+
+        assertSame(bucket, sharedBuckets.get(SharedBuckets.APPLICATION_BUCKET));
+        assertFalse(sharedBuckets.getOwnerCount(SharedBuckets.APPLICATION_BUCKET) > 0);
+    }
+
+    /**
+     * Returns a new bucket that runs everything immediately
+     *
+     * @return
+     */
+    private static Bucket newBucket() {
+        return new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate());
+    }
+
+    /**
+     * Returns the observable that counts its subscriptions
+     *
+     * @return
+     */
+    private Observable<Integer> source() {
+        return Observable.just(1).doOnSubscribe(new Action0() {
+            @Override
+            public void call() {
+                subscriptions++;
+            }
+        });
+    }
+
+    /**
+     * Records the items
+     */
+    private static final class RecordingObserver implements Observer<Integer> {
+        private final List<Integer> items = new ArrayList<>();
+
+        @Override
+        public void onCompleted() {}
+
+        @Override
+        public void onError(Throwable e) {}
+
+        @Override
+        public void onNext(Integer integer) {
+            items.add(integer);
+        }
+    }
+}
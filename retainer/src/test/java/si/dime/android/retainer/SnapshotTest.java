@@ -0,0 +1,291 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+import si.dime.android.retainer.persistence.Codec;
+import si.dime.android.retainer.persistence.Codecs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the data survives a process death through the snapshot.
+ */
+public class SnapshotTest {
+    // The temporary files
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // The number of subscriptions to the source
+    private int subscriptions;
+
+    // The received items
+    private List<Object> items;
+
+    @Before
+    public void setUp() {
+        // The dispatcher needs a looper for its handler
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        subscriptions = 0;
+        items = new ArrayList<>();
+    }
+
+    @Test
+    public void restoreSnapshot_returnsHitWithoutFetching() throws Exception {
+        File file = new File(folder.getRoot(), "bucket.snapshot");
+
+        // Fetch and save
+        Bucket bucket = newBucket();
+        bucket.requestImmediateData("strings");
+        bucket.requestImmediateData("numbers");
+        bucket.saveSnapshot(file);
+        awaitFile(file);
+
+        // The "new process"
+        Bucket restored = newBucket();
+        restored.restoreSnapshot(file);
+        subscriptions = 0;
+        items.clear();
+
+        assertTrue(restored.requestImmediateData("strings"));
+        assertTrue(restored.requestImmediateData("numbers"));
+        assertEquals(Arrays.<Object>asList("a", "b", 1, 2, 3), items);
+        assertEquals(0, subscriptions);
+    }
+
+    @Test
+    public void saveSnapshot_keepsTheEntriesNotRestoredYet() throws Exception {
+        File file = new File(folder.getRoot(), "bucket.snapshot");
+        Bucket bucket = newBucket();
+        bucket.requestImmediateData("strings");
+        bucket.requestImmediateData("numbers");
+        bucket.saveSnapshot(file);
+        awaitFile(file);
+
+        // Restore only one of the keys, and save again
+        Bucket restored = newBucket();
+        restored.restoreSnapshot(file);
+        restored.requestImmediateData("strings");
+        file.delete();
+        restored.saveSnapshot(file);
+        awaitFile(file);
+
+        Bucket restoredAgain = newBucket();
+        restoredAgain.restoreSnapshot(file);
+        subscriptions = 0;
+        items.clear();
+        assertTrue(restoredAgain.requestImmediateData("numbers"));
+        assertTrue(restoredAgain.requestImmediateData("strings"));
+        assertEquals(Arrays.<Object>asList(1, 2, 3, "a", "b"), items);
+        assertEquals(0, subscriptions);
+    }
+
+    @Test
+    public void removeData_forgetsTheSnapshotEntry() throws Exception {
+        File file = new File(folder.getRoot(), "bucket.snapshot");
+        Bucket bucket = newBucket();
+        bucket.requestImmediateData("strings");
+        bucket.saveSnapshot(file);
+        awaitFile(file);
+
+        Bucket restored = newBucket();
+        restored.restoreSnapshot(file);
+        subscriptions = 0;
+        restored.removeData("strings");
+
+        assertFalse(restored.requestImmediateData("strings"));
+        assertEquals(1, subscriptions);
+    }
+
+    @Test
+    public void restoreSnapshot_fetchesAgainWhenTheCodecVersionChanged() throws Exception {
+        File file = new File(folder.getRoot(), "bucket.snapshot");
+        Bucket bucket = newBucket();
+        bucket.registerRxHandler("user", userHandler(new UserCodec(1)));
+        bucket.requestImmediateData("user");
+        bucket.saveSnapshot(file);
+        awaitFile(file);
+
+        // The model changed
+        Bucket restored = newBucket();
+        restored.registerRxHandler("user", userHandler(new UserCodec(2)));
+        restored.restoreSnapshot(file);
+        subscriptions = 0;
+        items.clear();
+
+        assertFalse(restored.requestImmediateData("user"));
+        assertEquals(1, subscriptions);
+        assertEquals(Arrays.<Object>asList("user"), items);
+    }
+
+    @Test
+    public void restoreSnapshot_fetchesAgainWhenTheCodecFails() throws Exception {
+        File file = new File(folder.getRoot(), "bucket.snapshot");
+        Bucket bucket = newBucket();
+        bucket.requestImmediateData("strings");
+        bucket.registerRxHandler("user", userHandler(new UserCodec(1)));
+        bucket.requestImmediateData("user");
+        bucket.saveSnapshot(file);
+        awaitFile(file);
+
+        Bucket restored = newBucket();
+        UserCodec codec = new UserCodec(1);
+        codec.failDecode = true;
+        restored.registerRxHandler("user", userHandler(codec));
+        restored.restoreSnapshot(file);
+        subscriptions = 0;
+        items.clear();
+
+        assertFalse(restored.requestImmediateData("user"));
+        assertEquals(1, subscriptions);
+
+        // The other entries are still restored
+        assertTrue(restored.requestImmediateData("strings"));
+        assertEquals(1, subscriptions);
+    }
+
+    @Test
+    public void saveSnapshot_deletesTheFileWhenTheCodecFails() throws Exception {
+        File file = new File(folder.getRoot(), "bucket.snapshot");
+        Bucket bucket = newBucket();
+        bucket.requestImmediateData("strings");
+        bucket.saveSnapshot(file);
+        awaitFile(file);
+
+        UserCodec codec = new UserCodec(1);
+        codec.failEncode = true;
+        bucket.registerRxHandler("user", userHandler(codec));
+        bucket.requestImmediateData("user");
+        bucket.saveSnapshot(file);
+
+        for (int i = 0; i < 500 && file.exists(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(file.exists());
+    }
+
+    /**
+     * Returns a bucket with two persisted keys
+     *
+     * @return
+     */
+    private Bucket newBucket() {
+        Bucket bucket = new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate());
+        bucket.registerRxHandler("strings", new RxHandler(counted(Observable.just("a", "b")), new RecordingObserver())
+                .setCodec(Codecs.STRING));
+        bucket.registerRxHandler("numbers", new RxHandler(counted(Observable.just(1, 2, 3)), new RecordingObserver())
+                .setCodec(Codecs.INTEGER));
+        return bucket;
+    }
+
+    /**
+     * Returns a handler of a single "user" item, persisted with the given codec
+     *
+     * @param codec
+     * @return
+     */
+    private RxHandler userHandler(Codec<String> codec) {
+        return new RxHandler(counted(Observable.just("user")), new RecordingObserver()).setCodec(codec);
+    }
+
+    /**
+     * Counts the subscriptions to the given observable
+     *
+     * @param observable
+     * @return
+     */
+    private Observable<?> counted(Observable<?> observable) {
+        return observable.doOnSubscribe(new Action0() {
+            @Override
+            public void call() {
+                subscriptions++;
+            }
+        });
+    }
+
+    /**
+     * Waits for the background writer. The file is renamed into place only when it's complete.
+     *
+     * @param file
+     * @throws InterruptedException
+     */
+    private static void awaitFile(File file) throws InterruptedException {
+        for (int i = 0; i < 500 && !file.isFile(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(file.isFile());
+    }
+
+    /**
+     * Records the items
+     */
+    private final class RecordingObserver implements Observer<Object> {
+        @Override
+        public void onCompleted() {}
+
+        @Override
+        public void onError(Throwable e) {}
+
+        @Override
+        public void onNext(Object o) {
+            items.add(o);
+        }
+    }
+
+    /**
+     * A codec of the given version, that can fail
+     */
+    private static final class UserCodec implements Codec<String> {
+        final int version;
+        boolean failEncode;
+        boolean failDecode;
+
+        UserCodec(int version) {
+            this.version = version;
+        }
+
+        @Override
+        public int getVersion() {
+            return version;
+        }
+
+        @Override
+        public void encode(String item, DataOutput out) throws IOException {
+            if (failEncode) {
+                throw new IllegalStateException("Cannot encode");
+            }
+            out.writeUTF(item);
+        }
+
+        @Override
+        public String decode(DataInput in) throws IOException {
+            if (failDecode) {
+                throw new IllegalArgumentException("Cannot decode");
+            }
+            return in.readUTF();
+        }
+    }
+}
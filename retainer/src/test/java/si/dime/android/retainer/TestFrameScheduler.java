@@ -0,0 +1,79 @@
+package si.dime.android.retainer;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the posted work of the frame aligned operators, until the test runs it on its thread.
+ */
+class TestFrameScheduler extends FrameScheduler {
+    // The posted actions
+    private final List<Runnable> posts = new ArrayList<>();
+
+    // The callbacks waiting for the next frame
+    private final List<Choreographer.FrameCallback> frameCallbacks = new ArrayList<>();
+
+    @Override
+    synchronized void post(Runnable action) {
+        posts.add(action);
+    }
+
+    @Override
+    synchronized void postFrameCallback(Choreographer.FrameCallback callback) {
+        frameCallbacks.add(callback);
+    }
+
+    @Override
+    synchronized void remove(Runnable action, Choreographer.FrameCallback callback) {
+        while (posts.remove(action)) {}
+        while (frameCallbacks.remove(callback)) {}
+    }
+
+    /**
+     * Returns the number of the posted actions
+     *
+     * @return
+     */
+    synchronized int postCount() {
+        return posts.size();
+    }
+
+    /**
+     * Returns the number of the callbacks waiting for the next frame
+     *
+     * @return
+     */
+    synchronized int frameCallbackCount() {
+        return frameCallbacks.size();
+    }
+
+    /**
+     * Runs the posted actions
+     */
+    void runPosts() {
+        List<Runnable> actions;
+        synchronized (this) {
+            actions = new ArrayList<>(posts);
+            posts.clear();
+        }
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    /**
+     * Runs the callbacks of the next frame
+     */
+    void runFrame() {
+        List<Choreographer.FrameCallback> callbacks;
+        synchronized (this) {
+            callbacks = new ArrayList<>(frameCallbacks);
+            frameCallbacks.clear();
+        }
+        for (Choreographer.FrameCallback callback : callbacks) {
+            callback.doFrame(0);
+        }
+    }
+}
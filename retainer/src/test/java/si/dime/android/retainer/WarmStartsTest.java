@@ -0,0 +1,162 @@
+package si.dime.android.retainer;
+
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the launched activities adopt the warm buckets started before them.
+ */
+public class WarmStartsTest {
+    // The launch token
+    private static final String TOKEN = "launch";
+
+    // The key
+    private static final String KEY = "key";
+
+    // The warm buckets
+    private WarmStarts warmStarts;
+
+    // The source of the data
+    private PublishSubject<Integer> source;
+
+    // The number of subscriptions to the source
+    private int subscriptions;
+
+    @Before
+    public void setUp() {
+        // The test thread is the main thread
+        Looper.prepareMainLooper();
+
+        warmStarts = new WarmStarts() {
+            @Override
+            Bucket newBucket() {
+                return new Bucket(ExecutionClass.of(Schedulers.immediate()), Schedulers.immediate());
+            }
+        };
+        source = PublishSubject.create();
+        subscriptions = 0;
+    }
+
+    @After
+    public void tearDown() {
+        warmStarts.cancel(TOKEN);
+    }
+
+    @Test
+    public void adopt_joinsTheRequestStartedBeforeTheActivity() {
+        // The launching component
+        RecordingObserver launcher = new RecordingObserver();
+        Bucket warm = warmStarts.start(TOKEN);
+        warm.registerRxHandler(KEY, new RxHandler(counted(source), launcher));
+        warm.requestData(KEY);
+
+        // The activity is created
+        Bucket bucket = warmStarts.adopt(TOKEN);
+        assertSame(warm, bucket);
+        RecordingObserver activity = new RecordingObserver();
+        bucket.registerRxHandler(KEY, new RxHandler(counted(source), activity));
+        bucket.requestImmediateData(KEY);
+        source.onNext(1);
+        source.onCompleted();
+
+        assertEquals(1, subscriptions);
+        assertEquals(1, activity.items.size());
+        assertTrue(activity.completed);
+        assertTrue(launcher.items.isEmpty());
+    }
+
+    @Test
+    public void adopt_returnsTheFinishedData() {
+        Bucket warm = warmStarts.start(TOKEN);
+        warm.registerRxHandler(KEY, new RxHandler(counted(Observable.just(1)), new RecordingObserver()));
+        warm.requestData(KEY);
+
+        Bucket bucket = warmStarts.adopt(TOKEN);
+        RecordingObserver activity = new RecordingObserver();
+        bucket.registerRxHandler(KEY, new RxHandler(counted(Observable.just(2)), activity));
+
+        assertTrue(bucket.requestImmediateData(KEY));
+        assertEquals(Integer.valueOf(1), activity.items.get(0));
+        assertEquals(1, subscriptions);
+    }
+
+    @Test
+    public void adopt_handsTheBucketOverOnlyOnce() {
+        warmStarts.start(TOKEN);
+
+        assertEquals(1, warmStarts.size());
+        assertTrue(warmStarts.adopt(TOKEN) != null);
+        assertNull(warmStarts.adopt(TOKEN));
+        assertNull(warmStarts.adopt("unknown"));
+        assertEquals(0, warmStarts.size());
+    }
+
+    @Test
+    public void cancel_destroysTheWarmBucket() {
+        Bucket warm = warmStarts.start(TOKEN);
+        warm.registerRxHandler(KEY, new RxHandler(counted(source), new RecordingObserver()));
+        warm.requestData(KEY);
+        assertTrue(source.hasObservers());
+
+        warmStarts.cancel(TOKEN);
+
+        assertFalse(source.hasObservers());
+        assertNull(warmStarts.adopt(TOKEN));
+    }
+
+    /**
+     * Returns the given observable, counting its subscriptions
+     *
+     * @param observable
+     * @return
+     */
+    private Observable<Integer> counted(Observable<Integer> observable) {
+        return observable.doOnSubscribe(new Action0() {
+            @Override
+            public void call() {
+                subscriptions++;
+            }
+        });
+    }
+
+    /**
+     * Records the items
+     */
+    private static final class RecordingObserver implements Observer<Integer> {
+        private final List<Integer> items = new ArrayList<>();
+        private boolean completed;
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+        }
+
+        @Override
+        public void onError(Throwable e) {}
+
+        @Override
+        public void onNext(Integer integer) {
+            items.add(integer);
+        }
+    }
+}
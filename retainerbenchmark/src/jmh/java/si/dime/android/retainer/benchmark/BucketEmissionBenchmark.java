@@ -0,0 +1,73 @@
+package si.dime.android.retainer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import rx.Observable;
+import si.dime.android.retainer.Bucket;
+import si.dime.android.retainer.handlers.BatchingRxHandler;
+import si.dime.android.retainer.handlers.RxHandler;
+
+/**
+ * Measures a full fetch through the Bucket: the subscription on the IO scheduler, the hop of the
+ * emissions to the main thread and the bookkeeping of the retained list.
+ */
+@State(Scope.Thread)
+public class BucketEmissionBenchmark {
+    // The keys
+    private static final String KEY = "emission";
+    private static final String BATCHING_KEY = "batching_emission";
+
+    // The number of emitted items per fetch
+    @Param({"1", "100", "5000"})
+    public int items;
+
+    // The bucket under test
+    private Bucket bucket;
+
+    // The observers of the data
+    private CountingObserver observer;
+    private CountingObserver batchingObserver;
+
+    // The number of finished fetches
+    private long fetches;
+    private long batchingFetches;
+
+    @Setup
+    public void setUp() {
+        MainThread.prepare();
+
+        bucket = new Bucket();
+        observer = new CountingObserver();
+        batchingObserver = new CountingObserver();
+        bucket.registerRxHandler(KEY, new RxHandler(Observable.range(0, items), observer));
+        bucket.registerRxHandler(BATCHING_KEY, new BatchingRxHandler(Observable.range(0, items), batchingObserver));
+        fetches = 0;
+        batchingFetches = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        bucket.destroy();
+    }
+
+    @Benchmark
+    public long requestRefreshedData() {
+        // Throws away the cached list and subscribes to the observable once again
+        bucket.requestRefreshedData(KEY);
+        MainThread.runUntil(observer, ++fetches);
+        return observer.callbacks();
+    }
+
+    @Benchmark
+    public long requestRefreshedDataBatching() {
+        // The same, but with one main thread callback per frame
+        bucket.requestRefreshedData(BATCHING_KEY);
+        MainThread.runUntil(batchingObserver, ++batchingFetches);
+        return batchingObserver.callbacks();
+    }
+}
@@ -0,0 +1,140 @@
+package si.dime.android.retainer.benchmark;
+
+import android.os.Looper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import rx.Observable;
+import rx.schedulers.Schedulers;
+import si.dime.android.retainer.Bucket;
+import si.dime.android.retainer.BucketKey;
+import si.dime.android.retainer.handlers.ExecutionClass;
+import si.dime.android.retainer.handlers.RxHandler;
+
+/**
+ * Measures the bookkeeping of the Bucket's keys: the request of cached data, and a whole request - completion
+ * cycle of a single item. The observable runs on the benchmark thread, so only the Bucket itself is measured.
+ */
+@State(Scope.Thread)
+public class BucketEntryBenchmark {
+    //
+    // region Static fields
+    //
+
+    // The key under test
+    private static final String KEY = "entry";
+    private static final BucketKey<Integer> TYPED_KEY = BucketKey.of(KEY);
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The number of the other registered keys with data
+    @Param({"0", "1000"})
+    public int keys;
+
+    // The main looper
+    private Looper looper;
+
+    // The bucket under test
+    private Bucket bucket;
+
+    // The observer of the data
+    private CountingObserver observer;
+
+    // The number of finished fetches
+    private long fetches;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Lifecycle
+    //
+
+    @Setup
+    public void setUp() {
+        looper = MainThread.prepare();
+
+        bucket = new Bucket();
+        observer = new CountingObserver();
+        bucket.registerRxHandler(KEY, newHandler(observer));
+        bucket.requestData(KEY);
+        MainThread.runUntil(observer, 1);
+        fetches = 1;
+
+        // Fill the bucket with the other keys
+        CountingObserver othersObserver = new CountingObserver();
+        for (int i = 0; i < keys; i++) {
+            String key = "key" + i;
+            bucket.registerRxHandler(key, newHandler(othersObserver));
+            bucket.requestData(key);
+        }
+        MainThread.runUntil(othersObserver, keys);
+    }
+
+    @TearDown
+    public void tearDown() {
+        bucket.destroy();
+    }
+
+    //
+    // endregion Lifecycle
+    //
+
+    //
+    // region Benchmarks
+    //
+
+    @Benchmark
+    public long requestImmediateData() {
+        // A cache hit
+        bucket.requestImmediateData(KEY);
+        return observer.items();
+    }
+
+    @Benchmark
+    public long requestImmediateDataTyped() {
+        // A cache hit, found by the identity of the key
+        bucket.requestImmediateData(TYPED_KEY);
+        return observer.items();
+    }
+
+    @Benchmark
+    public long requestRefreshedData() {
+        // Removes the data, subscribes, and completes the request on the main thread
+        bucket.requestRefreshedData(KEY);
+        MainThread.runUntil(observer, ++fetches);
+        return observer.items();
+    }
+
+    @Benchmark
+    public boolean queries() {
+        return bucket.dataExists(KEY) && !bucket.isRunning(KEY);
+    }
+
+    //
+    // endregion Benchmarks
+    //
+
+    /**
+     * Returns a handler emitting a single item on the calling thread
+     *
+     * @param observer
+     * @return
+     */
+    private static RxHandler newHandler(CountingObserver observer) {
+        return new RxHandler(Observable.just(1), observer)
+                .setExecutionClass(ExecutionClass.of(Schedulers.immediate()));
+    }
+}
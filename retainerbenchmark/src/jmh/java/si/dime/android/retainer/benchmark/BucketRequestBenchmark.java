@@ -0,0 +1,116 @@
+package si.dime.android.retainer.benchmark;
+
+import android.os.Looper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import rx.Observable;
+import si.dime.android.retainer.Bucket;
+import si.dime.android.retainer.handlers.RxHandler;
+
+/**
+ * Measures the cached (hot) paths of the Bucket: the replay of already fetched data
+ * and the raw data accessors.
+ */
+@State(Scope.Thread)
+public class BucketRequestBenchmark {
+    //
+    // region Static fields
+    //
+
+    // The keys
+    private static final String DATA_KEY = "data";
+    private static final String RAW_DATA_KEY = "raw_data";
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The number of cached items replayed per request
+    @Param({"1", "100"})
+    public int items;
+
+    // The main looper
+    private Looper looper;
+
+    // The bucket under test
+    private Bucket bucket;
+
+    // The observer of the cached data
+    private CountingObserver observer;
+
+    // The raw data object
+    private final Object rawData = new Object();
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Lifecycle
+    //
+
+    @Setup
+    public void setUp() {
+        looper = MainThread.prepare();
+
+        // Register the handler and fetch the data once, so every request is a cache hit
+        bucket = new Bucket();
+        observer = new CountingObserver();
+        bucket.registerRxHandler(DATA_KEY, new RxHandler(Observable.range(0, items), observer));
+        bucket.requestData(DATA_KEY);
+        MainThread.runUntil(observer, 1);
+
+        bucket.putRawData(RAW_DATA_KEY, rawData);
+    }
+
+    @TearDown
+    public void tearDown() {
+        bucket.destroy();
+    }
+
+    //
+    // endregion Lifecycle
+    //
+
+    //
+    // region Benchmarks
+    //
+
+    @Benchmark
+    public long requestData() {
+        bucket.requestData(DATA_KEY);
+        // The cached data is replayed at the end of the event loop
+        looper.drain();
+        return observer.items();
+    }
+
+    @Benchmark
+    public long requestImmediateData() {
+        bucket.requestImmediateData(DATA_KEY);
+        return observer.items();
+    }
+
+    @Benchmark
+    public void putRawData() {
+        bucket.putRawData(RAW_DATA_KEY, rawData);
+    }
+
+    @Benchmark
+    public Object getRawData() {
+        return bucket.getRawData(RAW_DATA_KEY);
+    }
+
+    //
+    // endregion Benchmarks
+    //
+}
@@ -0,0 +1,71 @@
+package si.dime.android.retainer.benchmark;
+
+import java.util.List;
+
+import si.dime.android.retainer.handlers.BatchObserver;
+
+/**
+ * An observer that only counts what it receives. Always called on the benchmark (main) thread.
+ */
+final class CountingObserver implements BatchObserver<Object> {
+    // The number of received items
+    private long items;
+
+    // The number of main thread callbacks with items
+    private long callbacks;
+
+    // The number of onCompleted() calls
+    private long completions;
+
+    // The number of onError() calls
+    private long errors;
+
+    @Override
+    public void onCompleted() {
+        completions++;
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        errors++;
+    }
+
+    @Override
+    public void onNext(Object o) {
+        items++;
+        callbacks++;
+    }
+
+    @Override
+    public void onNextBatch(List<Object> batch) {
+        items += batch.size();
+        callbacks++;
+    }
+
+    /**
+     * Returns the number of received items
+     *
+     * @return
+     */
+    long items() {
+        return items;
+    }
+
+    /**
+     * Returns the number of main thread callbacks with items
+     *
+     * @return
+     */
+    long callbacks() {
+        return callbacks;
+    }
+
+    /**
+     * Returns the number of onCompleted() and onError() calls
+     *
+     * @return
+     */
+    long terminalEvents() {
+        return completions + errors;
+    }
+}
@@ -0,0 +1,43 @@
+package si.dime.android.retainer.benchmark;
+
+import android.os.Looper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers for pumping the shim main Looper from the benchmark thread.
+ */
+final class MainThread {
+    // How long we wait for a single message before giving up
+    private static final long MESSAGE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Private constructor
+     */
+    private MainThread() {}
+
+    /**
+     * Binds the main looper to the current (benchmark) thread
+     *
+     * @return
+     */
+    static Looper prepare() {
+        Looper.prepareMainLooper();
+        return Looper.getMainLooper();
+    }
+
+    /**
+     * Runs the main looper until the observer receives the given number of terminal events
+     *
+     * @param observer
+     * @param terminalEvents
+     */
+    static void runUntil(CountingObserver observer, long terminalEvents) {
+        Looper looper = Looper.getMainLooper();
+        while (observer.terminalEvents() < terminalEvents) {
+            if (!looper.runNext(MESSAGE_TIMEOUT_NANOS)) {
+                throw new IllegalStateException("The main looper timed out while waiting for the data");
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package android.os;
+
+/**
+ * JVM shim of the Android Handler. Supports only the posting of Runnables.
+ */
+public class Handler {
+    // The looper the runnables are posted to
+    private final Looper looper;
+
+    /**
+     * Creates a handler for the looper of the current thread
+     */
+    public Handler() {
+        this(Looper.myLooper());
+    }
+
+    /**
+     * Creates a handler for the given looper
+     *
+     * @param looper
+     */
+    public Handler(Looper looper) {
+        if (looper == null) {
+            throw new RuntimeException("Can't create handler inside thread that has not called Looper.prepare()");
+        }
+        this.looper = looper;
+    }
+
+    /**
+     * Returns the looper
+     *
+     * @return
+     */
+    public final Looper getLooper() {
+        return looper;
+    }
+
+    /**
+     * Posts the runnable at the end of the queue
+     *
+     * @param runnable
+     * @return
+     */
+    public final boolean post(Runnable runnable) {
+        return postAtTime(runnable, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Posts the runnable, to be run after the given delay
+     *
+     * @param runnable
+     * @param delayMillis
+     * @return
+     */
+    public final boolean postDelayed(Runnable runnable, long delayMillis) {
+        return postAtTime(runnable, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+    }
+
+    /**
+     * Posts the runnable, to be run at the given uptime
+     *
+     * @param runnable
+     * @param uptimeMillis
+     * @return
+     */
+    public final boolean postAtTime(Runnable runnable, long uptimeMillis) {
+        looper.enqueue(runnable, uptimeMillis);
+        return true;
+    }
+
+    /**
+     * Posts the runnable at the front of the queue
+     *
+     * @param runnable
+     * @return
+     */
+    public final boolean postAtFrontOfQueue(Runnable runnable) {
+        looper.enqueue(runnable, Long.MIN_VALUE);
+        return true;
+    }
+
+    /**
+     * Removes any pending posts of the runnable
+     *
+     * @param runnable
+     */
+    public final void removeCallbacks(Runnable runnable) {
+        looper.remove(runnable);
+    }
+}
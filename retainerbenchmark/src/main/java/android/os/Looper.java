@@ -0,0 +1,297 @@
+package android.os;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM shim of the Android Looper.
+ *
+ * Keeps a thread-safe queue of timed messages that is drained by the thread the looper belongs to.
+ * Besides the Android API it exposes drain() and runNext(), so benchmarks can pump the "main thread"
+ * without blocking it forever in loop().
+ */
+public final class Looper {
+    //
+    // region Static fields
+    //
+
+    // The looper of the current thread
+    private static final ThreadLocal<Looper> LOOPERS = new ThreadLocal<>();
+
+    // The main looper
+    private static volatile Looper mainLooper;
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Class fields
+    //
+
+    // The pending messages, ordered by their due time
+    private final PriorityBlockingQueue<Message> queue = new PriorityBlockingQueue<>();
+
+    // The sequence used to keep the FIFO order of messages with the same due time
+    private final AtomicLong sequence = new AtomicLong();
+
+    // The thread this looper belongs to
+    private volatile Thread thread;
+
+    // Set to true when quit() is called
+    private volatile boolean quitting;
+
+    //
+    // endregion Class fields
+    //
+
+    //
+    // region Constructors
+    //
+
+    /**
+     * Private constructor
+     */
+    private Looper() {
+        this.thread = Thread.currentThread();
+    }
+
+    //
+    // endregion Constructors
+    //
+
+    //
+    // region Android API
+    //
+
+    /**
+     * Initializes the current thread as a looper
+     */
+    public static void prepare() {
+        if (LOOPERS.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        LOOPERS.set(new Looper());
+    }
+
+    /**
+     * Initializes the current thread as the main looper.
+     *
+     * Unlike on Android this can be called more than once - the existing main looper is then
+     * re-bound to the calling thread. JMH may run consecutive iterations on different threads.
+     */
+    public static synchronized void prepareMainLooper() {
+        if (mainLooper == null) {
+            mainLooper = new Looper();
+        }
+        mainLooper.thread = Thread.currentThread();
+        LOOPERS.set(mainLooper);
+    }
+
+    /**
+     * Returns the main looper
+     *
+     * @return
+     */
+    public static Looper getMainLooper() {
+        return mainLooper;
+    }
+
+    /**
+     * Returns the looper of the current thread or null
+     *
+     * @return
+     */
+    public static Looper myLooper() {
+        return LOOPERS.get();
+    }
+
+    /**
+     * Runs the message queue of the current thread until quit() is called
+     */
+    public static void loop() {
+        Looper looper = myLooper();
+        if (looper == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+
+        while (!looper.quitting) {
+            looper.runNext(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Stops the loop() of this looper
+     */
+    public void quit() {
+        quitting = true;
+        // Wake up the looping thread
+        enqueue(new Runnable() {
+            @Override
+            public void run() {
+                // Do nothing
+            }
+        }, 0);
+    }
+
+    /**
+     * Returns the thread of this looper
+     *
+     * @return
+     */
+    public Thread getThread() {
+        return thread;
+    }
+
+    //
+    // endregion Android API
+    //
+
+    //
+    // region Shim API
+    //
+
+    /**
+     * Runs all of the messages that are due at this moment.
+     *
+     * @return
+     *      the number of messages that were run
+     */
+    public int drain() {
+        int count = 0;
+        long now = SystemClock.uptimeMillis();
+        Message message;
+        while ((message = pollDue(now)) != null) {
+            message.runnable.run();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Waits for the next message and runs it.
+     *
+     * @param timeoutNanos
+     * @return
+     *      true - if a message was run
+     *      false - if the timeout elapsed first
+     */
+    public boolean runNext(long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        if (deadline < 0) {
+            deadline = Long.MAX_VALUE;
+        }
+
+        try {
+            while (true) {
+                Message message = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (message == null) {
+                    return false;
+                }
+
+                // Not due yet - put it back and wait a bit
+                long delay = message.when - SystemClock.uptimeMillis();
+                if (delay > 0) {
+                    queue.put(message);
+                    if (System.nanoTime() >= deadline) {
+                        return false;
+                    }
+                    Thread.sleep(Math.min(delay, 1));
+                    continue;
+                }
+
+                message.runnable.run();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    //
+    // endregion Shim API
+    //
+
+    //
+    // region Package methods
+    //
+
+    /**
+     * Adds the runnable to the queue, to be run at the given uptime
+     *
+     * @param runnable
+     * @param when
+     */
+    void enqueue(Runnable runnable, long when) {
+        queue.put(new Message(runnable, when, sequence.getAndIncrement()));
+    }
+
+    /**
+     * Removes the pending messages with the given runnable
+     *
+     * @param runnable
+     */
+    void remove(Runnable runnable) {
+        for (Message message : queue) {
+            if (message.runnable == runnable) {
+                queue.remove(message);
+            }
+        }
+    }
+
+    //
+    // endregion Package methods
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Removes and returns the head of the queue if it is due at the given time
+     *
+     * @param now
+     * @return
+     */
+    private Message pollDue(long now) {
+        synchronized (queue) {
+            Message head = queue.peek();
+            if (head == null || head.when > now) {
+                return null;
+            }
+            return queue.poll();
+        }
+    }
+
+    //
+    // endregion Private methods
+    //
+
+    /**
+     * A queued message
+     */
+    private static final class Message implements Comparable<Message> {
+        // The runnable
+        final Runnable runnable;
+        // The uptime at which the message is due
+        final long when;
+        // The enqueue order
+        final long sequence;
+
+        Message(Runnable runnable, long when, long sequence) {
+            this.runnable = runnable;
+            this.when = when;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Message other) {
+            if (when != other.when) {
+                return when < other.when ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
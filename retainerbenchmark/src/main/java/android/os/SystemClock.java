@@ -0,0 +1,32 @@
+package android.os;
+
+/**
+ * JVM shim of the Android SystemClock.
+ */
+public final class SystemClock {
+    // The JVM start time, the "boot" of this process
+    private static final long START_NANOS = System.nanoTime();
+
+    /**
+     * Private constructor
+     */
+    private SystemClock() {}
+
+    /**
+     * Milliseconds since "boot", not counting the time spent in deep sleep
+     *
+     * @return
+     */
+    public static long uptimeMillis() {
+        return (System.nanoTime() - START_NANOS) / 1000000L;
+    }
+
+    /**
+     * Milliseconds since "boot", including the time spent in sleep
+     *
+     * @return
+     */
+    public static long elapsedRealtime() {
+        return uptimeMillis();
+    }
+}
@@ -0,0 +1,93 @@
+package android.view;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * JVM shim of the Android Choreographer.
+ *
+ * Runs the frame callbacks on the looper of the thread that obtained the instance,
+ * aligned to a 60 fps vsync of 16 ms.
+ */
+public final class Choreographer {
+    // The frame interval in milliseconds
+    private static final long FRAME_INTERVAL_MILLIS = 16;
+
+    // The choreographer of the current thread
+    private static final ThreadLocal<Choreographer> INSTANCES = new ThreadLocal<Choreographer>() {
+        @Override
+        protected Choreographer initialValue() {
+            Looper looper = Looper.myLooper();
+            if (looper == null) {
+                throw new IllegalStateException("The current thread must have a looper!");
+            }
+            return new Choreographer(looper);
+        }
+    };
+
+    // The handler of the frame callbacks
+    private final Handler handler;
+
+    // The posts of the pending callbacks <Callback, Post>
+    private final Map<FrameCallback, Runnable> pending = new IdentityHashMap<>();
+
+    /**
+     * Private constructor
+     *
+     * @param looper
+     */
+    private Choreographer(Looper looper) {
+        this.handler = new Handler(looper);
+    }
+
+    /**
+     * Returns the choreographer of the current thread
+     *
+     * @return
+     */
+    public static Choreographer getInstance() {
+        return INSTANCES.get();
+    }
+
+    /**
+     * Posts the callback to be run on the next frame
+     *
+     * @param callback
+     */
+    public void postFrameCallback(final FrameCallback callback) {
+        long now = SystemClock.uptimeMillis();
+        final long nextFrame = now - (now % FRAME_INTERVAL_MILLIS) + FRAME_INTERVAL_MILLIS;
+        Runnable post = new Runnable() {
+            @Override
+            public void run() {
+                pending.remove(callback);
+                callback.doFrame(nextFrame * 1000000L);
+            }
+        };
+        pending.put(callback, post);
+        handler.postAtTime(post, nextFrame);
+    }
+
+    /**
+     * Removes the pending post of the callback
+     *
+     * @param callback
+     */
+    public void removeFrameCallback(FrameCallback callback) {
+        Runnable post = pending.remove(callback);
+        if (post != null) {
+            handler.removeCallbacks(post);
+        }
+    }
+
+    /**
+     * The frame callback
+     */
+    public interface FrameCallback {
+        void doFrame(long frameTimeNanos);
+    }
+}
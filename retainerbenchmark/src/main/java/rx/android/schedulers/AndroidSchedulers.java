@@ -0,0 +1,110 @@
+package rx.android.schedulers;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.subscriptions.CompositeSubscription;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * JVM shim of RxAndroid's AndroidSchedulers.
+ *
+ * The main thread scheduler posts to the shim main Looper, which has to be prepared
+ * (Looper.prepareMainLooper()) before the scheduler is used.
+ */
+public final class AndroidSchedulers {
+    /**
+     * Private constructor
+     */
+    private AndroidSchedulers() {}
+
+    /**
+     * Returns a scheduler that executes the actions on the main Looper
+     *
+     * @return
+     */
+    public static Scheduler mainThread() {
+        return MainThreadSchedulerHolder.INSTANCE;
+    }
+
+    /**
+     * Lazily creates the main thread scheduler
+     */
+    private static final class MainThreadSchedulerHolder {
+        static final Scheduler INSTANCE = new HandlerScheduler();
+    }
+
+    /**
+     * A scheduler that posts everything to the main looper
+     */
+    private static final class HandlerScheduler extends Scheduler {
+        @Override
+        public Worker createWorker() {
+            return new HandlerWorker(new Handler(Looper.getMainLooper()));
+        }
+    }
+
+    /**
+     * The worker of the HandlerScheduler
+     */
+    private static final class HandlerWorker extends Scheduler.Worker {
+        // The handler
+        private final Handler handler;
+
+        // The scheduled actions
+        private final CompositeSubscription compositeSubscription = new CompositeSubscription();
+
+        HandlerWorker(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public Subscription schedule(final Action0 action, long delayTime, TimeUnit unit) {
+            if (compositeSubscription.isUnsubscribed()) {
+                return Subscriptions.unsubscribed();
+            }
+
+            final Subscription[] scheduled = new Subscription[1];
+            final Runnable runnable = new Runnable() {
+                @Override
+                public void run() {
+                    if (scheduled[0].isUnsubscribed()) {
+                        return;
+                    }
+                    compositeSubscription.remove(scheduled[0]);
+                    action.call();
+                }
+            };
+            scheduled[0] = Subscriptions.create(new Action0() {
+                @Override
+                public void call() {
+                    handler.removeCallbacks(runnable);
+                }
+            });
+            compositeSubscription.add(scheduled[0]);
+
+            handler.postDelayed(runnable, unit.toMillis(delayTime));
+            return scheduled[0];
+        }
+
+        @Override
+        public Subscription schedule(Action0 action) {
+            return schedule(action, 0, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void unsubscribe() {
+            compositeSubscription.unsubscribe();
+        }
+
+        @Override
+        public boolean isUnsubscribed() {
+            return compositeSubscription.isUnsubscribed();
+        }
+    }
+}
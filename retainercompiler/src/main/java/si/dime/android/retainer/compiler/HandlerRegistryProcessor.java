@@ -0,0 +1,426 @@
+package si.dime.android.retainer.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a HandlerRegistry for every class with fields annotated with BucketHandler.
+ *
+ * The registry of [TheClass] is named [TheClass]_HandlerRegistry and lives in the same package, so it can read
+ * the (non-private) fields directly. It declares a BucketKey constant for every field (e.g. userTask -> USER_TASK),
+ * and registers the handlers with those keys - so the bucket finds their entries by identity.
+ */
+@SupportedAnnotationTypes(HandlerRegistryProcessor.BUCKET_HANDLER)
+public final class HandlerRegistryProcessor extends AbstractProcessor {
+    //
+    // region Static fields
+    //
+
+    // The names of the library's classes
+    static final String BUCKET_HANDLER = "si.dime.android.retainer.handlers.BucketHandler";
+    private static final String TASK = "si.dime.android.retainer.handlers.Task";
+    private static final String TASK_HANDLER = "si.dime.android.retainer.handlers.TaskHandler";
+    private static final String RX_HANDLER = "si.dime.android.retainer.handlers.RxHandler";
+
+    // The suffix of the generated classes
+    private static final String SUFFIX = "_HandlerRegistry";
+
+    // The default priority of the annotation (ExecutionEngine.PRIORITY_NORMAL)
+    private static final int PRIORITY_NORMAL = 5;
+
+    //
+    // endregion Static fields
+    //
+
+    //
+    // region Processor implementation
+    //
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(BUCKET_HANDLER);
+        if (annotation == null) {
+            return false;
+        }
+
+        // Group the annotated fields by their classes
+        Map<TypeElement, List<Field>> classes = new LinkedHashMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            Field field = toField(element, annotation);
+            if (field == null) {
+                continue;
+            }
+
+            TypeElement type = (TypeElement) element.getEnclosingElement();
+            List<Field> fields = classes.get(type);
+            if (fields == null) {
+                fields = new ArrayList<>();
+                classes.put(type, fields);
+            }
+            fields.add(field);
+        }
+
+        for (Map.Entry<TypeElement, List<Field>> entry : classes.entrySet()) {
+            if (checkDuplicates(entry.getValue())) {
+                write(entry.getKey(), entry.getValue());
+            }
+        }
+        return true;
+    }
+
+    //
+    // endregion Processor implementation
+    //
+
+    //
+    // region Private methods
+    //
+
+    /**
+     * Checks the given annotated element, and reads the annotation
+     *
+     * @param element
+     * @param annotation
+     * @return
+     *      the field, or null if the element can't be registered (the error is reported)
+     */
+    private Field toField(Element element, TypeElement annotation) {
+        // Sanity checks
+        if (element.getKind() != ElementKind.FIELD) {
+            return error(element, "Only the fields can be annotated with @BucketHandler");
+        }
+        Set<Modifier> modifiers = element.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC)) {
+            return error(element, "The @BucketHandler fields must not be private nor static");
+        }
+        Element enclosing = element.getEnclosingElement();
+        if (enclosing.getKind() != ElementKind.CLASS || enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+            return error(element, "The @BucketHandler fields must be declared in a non-private class");
+        }
+
+        // The kind of the handler
+        TypeMirror type = element.asType();
+        String method;
+        String keyType = "java.lang.Object";
+        if (isSubtype(type, TASK)) {
+            method = "registerTask";
+            keyType = typeArgumentOf(type, TASK);
+        } else if (isSubtype(type, TASK_HANDLER)) {
+            method = "registerTaskHandler";
+        } else if (isSubtype(type, RX_HANDLER)) {
+            method = "registerRxHandler";
+        } else {
+            return error(element, "The @BucketHandler fields must be a Task, a TaskHandler or an RxHandler");
+        }
+
+        // Read the annotation
+        String key = null;
+        int priority = PRIORITY_NORMAL;
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (!processingEnv.getTypeUtils().isSameType(mirror.getAnnotationType(), annotation.asType())) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value
+                    : mirror.getElementValues().entrySet()) {
+                String name = value.getKey().getSimpleName().toString();
+                if (name.equals("value")) {
+                    key = (String) value.getValue().getValue();
+                } else if (name.equals("priority")) {
+                    priority = (Integer) value.getValue().getValue();
+                }
+            }
+        }
+        if (key == null || key.isEmpty()) {
+            return error(element, "The key of a @BucketHandler must not be empty");
+        }
+
+        String fieldName = element.getSimpleName().toString();
+        return new Field(element, fieldName, constantNameOf(fieldName), key, priority, method, keyType);
+    }
+
+    /**
+     * Checks that the keys and the constants of the given fields of a class are unique
+     *
+     * @param fields
+     * @return
+     *      true - if they are unique
+     */
+    private boolean checkDuplicates(List<Field> fields) {
+        boolean unique = true;
+        Set<String> keys = new HashSet<>();
+        Set<String> constants = new HashSet<>();
+        for (Field field : fields) {
+            if (!keys.add(field.key)) {
+                error(field.element, "The key \"" + field.key + "\" is used by more than one @BucketHandler");
+                unique = false;
+            }
+            if (!constants.add(field.constant)) {
+                error(field.element, "The name of the field clashes with another @BucketHandler field ("
+                        + field.constant + ")");
+                unique = false;
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Writes the registry of the given class
+     *
+     * @param type
+     * @param fields
+     */
+    private void write(TypeElement type, List<Field> fields) {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1))
+                + SUFFIX;
+        String targetName = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+
+        StringBuilder source = new StringBuilder();
+        source.append("// Generated by the retainer annotation processor. Do not edit.\n");
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import si.dime.android.retainer.Bucket;\n");
+        source.append("import si.dime.android.retainer.BucketKey;\n");
+        source.append("import si.dime.android.retainer.HandlerRegistry;\n\n");
+        source.append("/**\n * Registers the @BucketHandler fields of ").append(targetName).append("\n */\n");
+        source.append("@SuppressWarnings(\"unchecked\")\n");
+        source.append("public final class ").append(simpleName)
+                .append(" implements HandlerRegistry<").append(targetName).append("> {\n");
+
+        // The keys
+        for (Field field : fields) {
+            source.append("    public static final BucketKey<").append(field.keyType).append("> ")
+                    .append(field.constant).append(" = BucketKey.of(\"").append(escape(field.key)).append("\");\n");
+        }
+
+        // The registration
+        source.append("\n    @Override\n");
+        source.append("    public void register(Bucket bucket, ").append(targetName).append(" target) {\n");
+        for (Field field : fields) {
+            source.append("        bucket.").append(field.method).append("(").append(field.constant).append(", ");
+            if (field.method.equals("registerTask") && field.keyType.equals("java.lang.Object")) {
+                // The type of the items is unknown
+                source.append("(").append(TASK).append(") ");
+            }
+            source.append("target.").append(field.name).append(", ").append(field.priority).append(");\n");
+        }
+        source.append("    }\n");
+        source.append("}\n");
+
+        try {
+            String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source.toString());
+            }
+        } catch (IOException e) {
+            error(type, "Could not write the handler registry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns true if the given type is a subtype of the class with the given name
+     *
+     * @param type
+     * @param className
+     * @return
+     */
+    private boolean isSubtype(TypeMirror type, String className) {
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(className);
+        return element != null && processingEnv.getTypeUtils().isAssignable(type,
+                processingEnv.getTypeUtils().erasure(element.asType()));
+    }
+
+    /**
+     * Returns the (first) type argument the given type passes to the generic class with the given name
+     *
+     * @param type
+     * @param className
+     * @return
+     *      the name of the type argument, or java.lang.Object if it is not a concrete type
+     */
+    private String typeArgumentOf(TypeMirror type, String className) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return "java.lang.Object";
+        }
+
+        DeclaredType declaredType = (DeclaredType) type;
+        if (((TypeElement) declaredType.asElement()).getQualifiedName().contentEquals(className)) {
+            List<? extends TypeMirror> arguments = declaredType.getTypeArguments();
+            if (arguments.size() == 1 && isConcrete(arguments.get(0))) {
+                return arguments.get(0).toString();
+            }
+            return "java.lang.Object";
+        }
+
+        for (TypeMirror supertype : processingEnv.getTypeUtils().directSupertypes(type)) {
+            if (isSubtype(supertype, className)) {
+                return typeArgumentOf(supertype, className);
+            }
+        }
+        return "java.lang.Object";
+    }
+
+    /**
+     * Returns true if the given type can be written in the generated code (it has no type variables nor wildcards)
+     *
+     * @param type
+     * @return
+     */
+    private static boolean isConcrete(TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return isConcrete(((ArrayType) type).getComponentType());
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+            if (!isConcrete(argument)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the name of the key constant of the given field (e.g. mUserTask -> USER_TASK)
+     *
+     * @param fieldName
+     * @return
+     */
+    private static String constantNameOf(String fieldName) {
+        // Drop the member prefix
+        String name = fieldName;
+        if (name.length() > 1 && name.charAt(0) == 'm' && Character.isUpperCase(name.charAt(1))) {
+            name = name.substring(1);
+        }
+
+        StringBuilder constant = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c) && i > 0 && !Character.isUpperCase(name.charAt(i - 1))
+                    && name.charAt(i - 1) != '_') {
+                constant.append('_');
+            }
+            constant.append(Character.toUpperCase(c));
+        }
+        return constant.toString();
+    }
+
+    /**
+     * Escapes the given string for a string literal
+     *
+     * @param value
+     * @return
+     */
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Reports the given error
+     *
+     * @param element
+     * @param message
+     * @return
+     *      null
+     */
+    private Field error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+        return null;
+    }
+
+    //
+    // endregion Private methods
+    //
+
+    /**
+     * An annotated field
+     */
+    private static final class Field {
+        // The field
+        final Element element;
+
+        // The name of the field
+        final String name;
+
+        // The name of the key constant
+        final String constant;
+
+        // The key
+        final String key;
+
+        // The priority
+        final int priority;
+
+        // The register method of the bucket
+        final String method;
+
+        // The type of the items
+        final String keyType;
+
+        /**
+         * Default constructor
+         *
+         * @param element
+         * @param name
+         * @param constant
+         * @param key
+         * @param priority
+         * @param method
+         * @param keyType
+         */
+        Field(Element element, String name, String constant, String key, int priority, String method,
+              String keyType) {
+            this.element = element;
+            this.name = name;
+            this.constant = constant;
+            this.key = key;
+            this.priority = priority;
+            this.method = method;
+            this.keyType = keyType;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package si.dime.android.retainer.compiler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiles small classes with the processor - against stubs of the library's classes - and checks the registries.
+ */
+public class HandlerRegistryProcessorTest {
+    // The stubs of the library's classes. The stub bucket records the registrations.
+    private static final String[][] STUBS = {
+            {"si/dime/android/retainer/handlers/BucketHandler.java",
+                    "package si.dime.android.retainer.handlers;\n"
+                    + "public @interface BucketHandler { String value(); int priority() default 5; }"},
+            {"si/dime/android/retainer/handlers/Task.java",
+                    "package si.dime.android.retainer.handlers;\n"
+                    + "public interface Task<T> { T doInBackground(); }"},
+            {"si/dime/android/retainer/handlers/TaskHandler.java",
+                    "package si.dime.android.retainer.handlers;\n"
+                    + "public class TaskHandler {}"},
+            {"si/dime/android/retainer/handlers/RxHandler.java",
+                    "package si.dime.android.retainer.handlers;\n"
+                    + "public class RxHandler {}"},
+            {"si/dime/android/retainer/BucketKey.java",
+                    "package si.dime.android.retainer;\n"
+                    + "public final class BucketKey<T> {\n"
+                    + "    public final String name;\n"
+                    + "    private BucketKey(String name) { this.name = name; }\n"
+                    + "    public static <T> BucketKey<T> of(String name) { return new BucketKey<T>(name); }\n"
+                    + "}"},
+            {"si/dime/android/retainer/HandlerRegistry.java",
+                    "package si.dime.android.retainer;\n"
+                    + "public interface HandlerRegistry<T> { void register(Bucket bucket, T target); }"},
+            {"si/dime/android/retainer/Bucket.java",
+                    "package si.dime.android.retainer;\n"
+                    + "import si.dime.android.retainer.handlers.*;\n"
+                    + "public class Bucket {\n"
+                    + "    public final java.util.List<String> calls = new java.util.ArrayList<String>();\n"
+                    + "    public <T> void registerTask(BucketKey<T> key, Task<T> task, int priority) {\n"
+                    + "        calls.add(\"task \" + key.name + \" \" + priority);\n"
+                    + "    }\n"
+                    + "    public <T> void registerTaskHandler(BucketKey<T> key, TaskHandler handler, int priority) {\n"
+                    + "        calls.add(\"taskHandler \" + key.name + \" \" + priority);\n"
+                    + "    }\n"
+                    + "    public <T> void registerRxHandler(BucketKey<T> key, RxHandler handler, int priority) {\n"
+                    + "        calls.add(\"rxHandler \" + key.name + \" \" + priority);\n"
+                    + "    }\n"
+                    + "}"},
+    };
+
+    // The directories of the sources, the generated sources and the classes
+    private File sources;
+    private File generated;
+    private File classes;
+
+    // The errors of the last compilation
+    private List<String> errors;
+
+    @Before
+    public void setUp() throws IOException {
+        File root = Files.createTempDirectory("processor").toFile();
+        sources = new File(root, "src");
+        generated = new File(root, "gen");
+        classes = new File(root, "out");
+        generated.mkdirs();
+        classes.mkdirs();
+        for (String[] stub : STUBS) {
+            writeSource(stub[0], stub[1]);
+        }
+    }
+
+    @Test
+    public void process_generatesTheRegistry() throws Exception {
+        writeSource("com/example/MainActivity.java", "package com.example;\n"
+                + "import si.dime.android.retainer.handlers.*;\n"
+                + "public class MainActivity {\n"
+                + "    @BucketHandler(\"user\") Task<String> mUserTask;\n"
+                + "    @BucketHandler(value = \"feed\", priority = 10) RxHandler feedHandler;\n"
+                + "    @BucketHandler(\"upload\") TaskHandler uploadHandler = new TaskHandler();\n"
+                + "}");
+        boolean compiled = compile();
+        assertTrue(errors.toString(), compiled);
+
+        String source = readGenerated("com/example/MainActivity_HandlerRegistry.java");
+        assertTrue(source, source.contains("BucketKey<java.lang.String> USER_TASK = BucketKey.of(\"user\")"));
+        assertTrue(source, source.contains("BucketKey<java.lang.Object> FEED_HANDLER = BucketKey.of(\"feed\")"));
+
+        // Run it
+        ClassLoader loader = new URLClassLoader(new URL[]{classes.toURI().toURL()});
+        Object target = loader.loadClass("com.example.MainActivity").newInstance();
+        Object bucket = loader.loadClass("si.dime.android.retainer.Bucket").newInstance();
+        Object registry = loader.loadClass("com.example.MainActivity_HandlerRegistry").newInstance();
+        registry.getClass().getMethod("register", bucket.getClass(), Object.class).invoke(registry, bucket, target);
+        assertEquals(Arrays.asList("task user 5", "rxHandler feed 10", "taskHandler upload 5"),
+                bucket.getClass().getField("calls").get(bucket));
+    }
+
+    @Test
+    public void process_nestedClassesAndTaskImplementations() throws Exception {
+        writeSource("com/example/Screen.java", "package com.example;\n"
+                + "import si.dime.android.retainer.handlers.*;\n"
+                + "public class Screen {\n"
+                + "    static class UserTask implements Task<Integer> { public Integer doInBackground() { return 1; } }\n"
+                + "    public static class Inner {\n"
+                + "        @BucketHandler(\"user\") UserTask userTask;\n"
+                + "        @BucketHandler(\"raw\") Task rawTask;\n"
+                + "    }\n"
+                + "}");
+        boolean compiled = compile();
+        assertTrue(errors.toString(), compiled);
+
+        String source = readGenerated("com/example/Screen$Inner_HandlerRegistry.java");
+        assertTrue(source, source.contains("BucketKey<java.lang.Integer> USER_TASK"));
+        assertTrue(source, source.contains("(si.dime.android.retainer.handlers.Task) target.rawTask"));
+    }
+
+    @Test
+    public void process_rejectsTheInvalidFields() throws Exception {
+        writeSource("com/example/BadActivity.java", "package com.example;\n"
+                + "import si.dime.android.retainer.handlers.*;\n"
+                + "public class BadActivity {\n"
+                + "    @BucketHandler(\"a\") private Task<String> privateTask;\n"
+                + "    @BucketHandler(\"b\") String notAHandler;\n"
+                + "    @BucketHandler(\"c\") RxHandler first;\n"
+                + "    @BucketHandler(\"c\") RxHandler second;\n"
+                + "}");
+        assertFalse(compile());
+
+        assertEquals(errors.toString(), 3, errors.size());
+        assertFalse(new File(generated, "com/example/BadActivity_HandlerRegistry.java").exists());
+    }
+
+    /**
+     * Compiles all of the sources with the processor
+     *
+     * @return
+     *      true - if the compilation succeeded
+     * @throws IOException
+     */
+    private boolean compile() throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null)) {
+            List<File> files = new ArrayList<>();
+            collectSources(sources, files);
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                    Arrays.asList("-d", classes.getPath(), "-s", generated.getPath(), "-Xlint:none"),
+                    null, fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(Collections.singletonList(new HandlerRegistryProcessor()));
+            boolean success = task.call();
+
+            errors = new ArrayList<>();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                    errors.add(diagnostic.getMessage(null));
+                }
+            }
+            return success;
+        }
+    }
+
+    /**
+     * Writes the given source file
+     *
+     * @param path
+     * @param source
+     * @throws IOException
+     */
+    private void writeSource(String path, String source) throws IOException {
+        File file = new File(sources, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), source.getBytes(Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Reads the given generated source file
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    private String readGenerated(String path) throws IOException {
+        return new String(Files.readAllBytes(new File(generated, path).toPath()), Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Collects the source files in the given directory
+     *
+     * @param directory
+     * @param files
+     */
+    private static void collectSources(File directory, List<File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectSources(child, files);
+            } else if (child.getName().endsWith(".java")) {
+                files.add(child);
+            }
+        }
+    }
+}